@@ -0,0 +1,145 @@
+package com.hseabra.demo_rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.elasticsearch.autoconfigure.ElasticsearchVectorStoreProperties;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process stand-ins for the Azure OpenAI models and Elasticsearch search, so benchmarks measure
+ * only our own code on the query path.
+ */
+final class BenchmarkFakes {
+    static final int DIMENSIONS = 1536;
+
+    private BenchmarkFakes() {
+    }
+
+    /**
+     * Metrics without observation handlers, so stages cost only the no-op observation.
+     */
+    static RagMetrics metrics() {
+        return new RagMetrics(ObservationRegistry.NOOP, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Deterministic vectors derived from the text hash.
+     */
+    static class FakeEmbeddingModel implements EmbeddingModel {
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+
+        static float[] vector(String text) {
+            float[] vector = new float[DIMENSIONS];
+            int seed = text.hashCode();
+            for (int i = 0; i < DIMENSIONS; i++) {
+                seed = seed * 1103515245 + 12345;
+                vector[i] = (seed >>> 8) / (float) (1 << 24);
+            }
+            return vector;
+        }
+    }
+
+    /**
+     * Answers every prompt with a fixed text.
+     */
+    static class FakeChatModel implements ChatModel {
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(" Hold the power button for three seconds. "))));
+        }
+    }
+
+    /**
+     * Returns the same top-K documents for every query vector, and the same documents in reverse
+     * order for every full-text query. Stored embeddings are derived from the document id.
+     */
+    static class FakeVectorSearchService extends VectorSearchService {
+        private final List<Document> documents;
+
+        FakeVectorSearchService(List<Document> documents) {
+            super(null, null, null);
+            this.documents = documents;
+        }
+
+        @Override
+        public List<Document> search(String indexName, float[] queryVector, int topK, double similarityThreshold) {
+            return documents.subList(0, Math.min(topK, documents.size()));
+        }
+
+        @Override
+        public List<Document> lexicalSearch(String indexName, String query, int size) {
+            return documents.subList(0, Math.min(size, documents.size())).reversed();
+        }
+
+        @Override
+        public Map<String, float[]> getEmbeddings(String indexName, Collection<String> ids) {
+            Map<String, float[]> embeddings = new HashMap<>();
+            for (String id : ids) {
+                embeddings.put(id, FakeEmbeddingModel.vector(id));
+            }
+            return embeddings;
+        }
+    }
+
+    /**
+     * Factory around the fake embedding model. The REST client is never used for requests.
+     */
+    static ElasticConfig.VectorStoreFactory vectorStoreFactory(RestClient restClient) {
+        ElasticsearchVectorStoreProperties properties = new ElasticsearchVectorStoreProperties();
+        properties.setDimensions(DIMENSIONS);
+        return new ElasticConfig.VectorStoreFactory(restClient, new FakeEmbeddingModel(), properties);
+    }
+
+    static RestClient unusedRestClient() {
+        return RestClient.builder(new HttpHost("localhost", 9200)).build();
+    }
+
+    /**
+     * Chunk-sized documents with the metadata ingestion attaches.
+     */
+    static List<Document> retrievedDocuments(int count) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(Document.builder()
+                    .text(TextSplitterBenchmark.sampleText(1600))
+                    .metadata(Map.of("topic", "manual", "path", "manual-" + i + ".pdf"))
+                    .score(0.8)
+                    .build());
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hseabra.demo_rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChunkingService#createChunks} (child splitter only, used by ingestion) vs
+ * {@link ChunkingService#createChildChunks} (parent split, then child split of every parent)
+ * on one chunking window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+
+    @Param({"32768"})
+    public int chars;
+
+    private final ChunkingService chunkingService = new ChunkingService();
+    private Document document;
+
+    @Setup
+    public void setUp() {
+        document = new Document(TextSplitterBenchmark.sampleText(chars), Map.of("topic", "manual", "path", "bench.pdf"));
+    }
+
+    @Benchmark
+    public List<Document> createChunks() {
+        return chunkingService.createChunks(document);
+    }
+
+    @Benchmark
+    public List<Document> createChildChunks() {
+        return chunkingService.createChildChunks(document);
+    }
+}
@@ -0,0 +1,86 @@
+package com.hseabra.demo_rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-page work between extraction and chunking: cleaning raw stripper output with the former
+ * {@code replaceAll} chain ({@code regexClean}) and with {@link TextNormalizer}, and
+ * {@link IngestionService#appendPage} filling 32k chunking windows from 200 pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageProcessingBenchmark {
+    private static final int PAGES = 200;
+    private static final int WINDOW_CHARS = 32 * 1024;
+
+    private final TextNormalizer normalizer = new TextNormalizer(new RagProperties.NormalizationRules());
+    private String rawPage;
+    private List<Document> pages;
+
+    @Setup
+    public void setUp() {
+        // What PDFTextStripper returns for a manual page: line breaks, indentation, a dotted
+        // table-of-contents leader and a trailing page number
+        StringBuilder raw = new StringBuilder();
+        for (int line = 0; line < 50; line++) {
+            raw.append("   Section ").append(line).append("  To disable the SAFE lock, hold the power button.\r\n");
+            if (line % 10 == 0) {
+                raw.append("Troubleshooting ........................................ ").append(line).append("\r\n");
+            }
+        }
+        raw.append("Confirm on the display.\r\n  42  \r\n");
+        rawPage = raw.toString();
+
+        pages = new ArrayList<>(PAGES);
+        for (int p = 0; p < PAGES; p++) {
+            pages.add(new Document(normalizer.normalize(rawPage), Map.of("page", String.valueOf(p))));
+        }
+    }
+
+    @Benchmark
+    public String regexClean() {
+        return rawPage
+                .replaceAll("\\s+", " ")
+                .replaceAll("\\.{3,}", "")
+                .replaceAll("(?<=\\.)\\s*\\d+\\s*$", "")
+                .trim();
+    }
+
+    @Benchmark
+    public String normalize() {
+        return normalizer.normalize(rawPage);
+    }
+
+    @Benchmark
+    public void appendPages(Blackhole blackhole) {
+        StringBuilder window = new StringBuilder(WINDOW_CHARS + 4096);
+        for (Document page : pages) {
+            IngestionService.appendPage(window, page);
+            if (window.length() >= WINDOW_CHARS) {
+                blackhole.consume(window.toString());
+                window.setLength(0);
+            }
+        }
+        blackhole.consume(window.toString());
+    }
+}
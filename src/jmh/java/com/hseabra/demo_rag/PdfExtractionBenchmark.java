@@ -0,0 +1,92 @@
+package com.hseabra.demo_rag;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential vs parallel page extraction in {@link PdfService} on a generated multi-page PDF.
+ * {@code parallelism=1} is the original one-stripper loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfExtractionBenchmark {
+
+    @Param({"200"})
+    public int pages;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private final PdfService pdfService = new PdfService();
+    private File pdf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pdf = Files.createTempFile("bench-", ".pdf").toFile();
+        writeSamplePdf(pdf, pages);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pdf.delete();
+    }
+
+    @Benchmark
+    public List<Document> loadPdf() throws IOException {
+        return pdfService.loadPdf(pdf.getPath(), parallelism);
+    }
+
+    /**
+     * Writes a text-dense PDF (about 50 lines per page) so extraction cost dominates loading.
+     */
+    static void writeSamplePdf(File target, int pageCount) throws IOException {
+        PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+        try (PDDocument doc = new PDDocument()) {
+            for (int p = 1; p <= pageCount; p++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    content.beginText();
+                    content.setFont(font, 9);
+                    content.setLeading(12);
+                    content.newLineAtOffset(40, 750);
+                    for (int line = 0; line < 50; line++) {
+                        content.showText("Section " + p + "." + line
+                                + " To disable the SAFE lock, hold the power button and confirm on the display.");
+                        content.newLine();
+                    }
+                    content.showText("Page " + p);
+                    content.endText();
+                }
+            }
+            doc.save(target);
+        }
+    }
+}
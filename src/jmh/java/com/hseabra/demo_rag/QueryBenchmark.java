@@ -0,0 +1,71 @@
+package com.hseabra.demo_rag;
+
+import org.elasticsearch.client.RestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RagInferenceService#query} with fake embedding, search and chat, measuring retrieval
+ * bookkeeping and prompt assembly. {@code cache=false} disables the {@link RetrievalCache} so every
+ * call takes the full path; {@code cache=true} measures the result-cache hit path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    @Param({"VECTOR", "HYBRID"})
+    public RetrievalMode mode;
+
+    private RestClient restClient;
+    private Path parentStoreFile;
+    private ParentChunkStore parentStore;
+    private RagInferenceService service;
+
+    @Setup
+    public void setUp() throws IOException {
+        RagProperties properties = new RagProperties();
+        properties.getRetrievalCache().setEnabled(cache);
+        restClient = BenchmarkFakes.unusedRestClient();
+        parentStoreFile = Files.createTempFile("bench-parents-", ".bin");
+        parentStore = new ParentChunkStore(parentStoreFile);
+        service = new RagInferenceService(BenchmarkFakes.vectorStoreFactory(restClient),
+                new BenchmarkFakes.FakeVectorSearchService(BenchmarkFakes.retrievedDocuments(10)),
+                new RetrievalCache(properties), new BenchmarkFakes.FakeChatModel(), parentStore, properties,
+                BenchmarkFakes.metrics(), new ContextBuilder(properties));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        service.shutdown();
+        restClient.close();
+        parentStore.close();
+        Files.deleteIfExists(parentStoreFile);
+    }
+
+    @Benchmark
+    public String query() {
+        return service.query("Como desativar o travamento SAFE?", "bench_index", mode);
+    }
+}
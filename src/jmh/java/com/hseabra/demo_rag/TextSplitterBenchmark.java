@@ -0,0 +1,75 @@
+package com.hseabra.demo_rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting one chunking window ({@code IngestionService} hands 32k characters at a time) with the
+ * original {@link CustomizedTokenTextSplitter} and with {@link OffsetTokenTextSplitter}, using the
+ * child settings of {@link ChunkingService}. Run with {@code -prof gc} for allocation per split.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextSplitterBenchmark {
+
+    @Param({"customized", "offset"})
+    public String splitter;
+
+    @Param({"32768"})
+    public int chars;
+
+    private TextSplitter textSplitter;
+    private Document document;
+
+    @Setup
+    public void setUp() {
+        textSplitter = switch (splitter) {
+            case "customized" -> new CustomizedTokenTextSplitter(400, 60);
+            case "offset" -> new OffsetTokenTextSplitter(400, 60);
+            default -> throw new IllegalArgumentException(splitter);
+        };
+        document = new Document(sampleText(chars), Map.of("topic", "manual", "path", "bench.pdf"));
+    }
+
+    @Benchmark
+    public List<Document> split() {
+        return textSplitter.split(document);
+    }
+
+    /**
+     * Manual-like text: short sentences, accented words and a line break every few sentences.
+     */
+    static String sampleText(int chars) {
+        String[] sentences = {
+                "Para desativar o travamento SAFE, mantenha o botão pressionado durante três segundos.",
+                "The display confirms the change and the indicator light turns green.",
+                "Verifique a pressão dos pneus antes de cada viagem longa!",
+                "If the warning persists, contact the service center?",
+                "A manutenção preventiva reduz o consumo e prolonga a vida útil do motor."
+        };
+        StringBuilder text = new StringBuilder(chars + 128);
+        for (int i = 0; text.length() < chars; i++) {
+            text.append(sentences[i % sentences.length]).append(i % 7 == 6 ? "\n" : " ");
+        }
+        return text.substring(0, chars);
+    }
+}
@@ -0,0 +1,136 @@
+package com.hseabra.demo_rag;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Azure OpenAI deployments: {@code embeddings} returns deterministic unit vectors
+ * derived from each input's hash, {@code chat/completions} a fixed answer. The two have their own
+ * latency and limits, as separate deployments do. Token usage is estimated at four characters per
+ * token; the per-item latency of a chat call applies per completion token.
+ */
+class AzureOpenAiStandIn extends StandInServer {
+    private static final String ANSWER = "The documents describe this in detail; this answer comes from the load-test stand-in.";
+    private final Behaviour chat;
+    private final int dimensions;
+    private final AtomicLong completions = new AtomicLong();
+
+    AzureOpenAiStandIn(Behaviour embeddings, Behaviour chat, int dimensions) throws IOException {
+        super("Azure OpenAI", embeddings);
+        this.chat = chat;
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    Behaviour behaviour(String operation) {
+        return operation.equals("chat") ? chat : super.behaviour(operation);
+    }
+
+    @Override
+    String operation(String method, URI uri) {
+        String path = uri.getPath();
+        if (path.endsWith("/embeddings")) {
+            return "embeddings";
+        }
+        return path.endsWith("/chat/completions") ? "chat" : path;
+    }
+
+    @Override
+    Object throttledBody() {
+        return Map.of("error", Map.of("code", "429",
+                "message", "Requests to the deployment have exceeded the rate limit of the load-test stand-in. Please retry after 1 second."));
+    }
+
+    @Override
+    Response respond(String method, URI uri, byte[] body) throws IOException {
+        JsonNode request = JSON.readTree(body);
+        return switch (operation(method, uri)) {
+            case "embeddings" -> embeddings(request);
+            case "chat" -> chat(request);
+            default -> new Response(404, Map.of("error", Map.of("code", "404", "message", uri.getPath() + " is not supported")), 0);
+        };
+    }
+
+    private Response embeddings(JsonNode request) {
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isArray()) {
+            input.forEach(text -> inputs.add(text.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        // the Azure SDK asks for base64: the little-endian bytes of the float32 vector
+        boolean base64 = request.path("encoding_format").asText().equals("base64");
+        List<Map<String, Object>> data = new ArrayList<>(inputs.size());
+        int tokens = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            float[] vector = vector(inputs.get(i));
+            data.add(Map.of("object", "embedding", "index", i, "embedding", base64 ? encode(vector) : vector));
+            tokens += tokens(inputs.get(i));
+        }
+        return Response.ok(Map.of(
+                "object", "list",
+                "model", "text-embedding-stand-in",
+                "data", data,
+                "usage", Map.of("prompt_tokens", tokens, "total_tokens", tokens)), inputs.size());
+    }
+
+    private Response chat(JsonNode request) {
+        if (request.path("stream").asBoolean()) {
+            return new Response(400, Map.of("error", Map.of("code", "400", "message", "Streaming is not supported by the load-test stand-in")), 0);
+        }
+        int promptTokens = 0;
+        for (JsonNode message : request.path("messages")) {
+            promptTokens += tokens(message.path("content").asText());
+        }
+        int completionTokens = tokens(ANSWER);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", "chatcmpl-" + completions.incrementAndGet());
+        response.put("object", "chat.completion");
+        response.put("created", System.currentTimeMillis() / 1000);
+        response.put("model", "gpt-4o-stand-in");
+        response.put("choices", List.of(Map.of(
+                "index", 0,
+                "message", Map.of("role", "assistant", "content", ANSWER),
+                "finish_reason", "stop")));
+        response.put("usage", Map.of("prompt_tokens", promptTokens, "completion_tokens", completionTokens,
+                "total_tokens", promptTokens + completionTokens));
+        return Response.ok(response, completionTokens);
+    }
+
+    private float[] vector(String text) {
+        SplittableRandom random = new SplittableRandom(text.hashCode());
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private static String encode(float[] vector) {
+        ByteBuffer bytes = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(bytes.array());
+    }
+
+    private static int tokens(String text) {
+        return Math.max(1, text.length() / 4);
+    }
+}
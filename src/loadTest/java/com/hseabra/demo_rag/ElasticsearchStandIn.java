@@ -0,0 +1,232 @@
+package com.hseabra.demo_rag;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stand-in for the Elasticsearch APIs the application calls: {@code _bulk} writes, {@code _search}
+ * (kNN and BM25), {@code _mget} of stored embeddings and the index administration calls. Written
+ * documents are kept in memory so searches return real chunks. Hits are a random sample with descending
+ * scores rather than a relevance ranking; the load test measures the service, not retrieval quality.
+ */
+class ElasticsearchStandIn extends StandInServer {
+    // Documents kept per index for search hits and embedding lookups; later writes are acknowledged only
+    private static final int MAX_STORED_DOCUMENTS = 50_000;
+    private final String embeddingField;
+    private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Chunks of one index: their source without the embedding, and the embedding as floats, which takes
+     * a fraction of the memory of the parsed JSON array.
+     */
+    private static class Index {
+        private final Map<String, JsonNode> sources = new ConcurrentHashMap<>();
+        private final Map<String, float[]> embeddings = new ConcurrentHashMap<>();
+        private final List<String> ids = new ArrayList<>();
+
+        synchronized void put(String id, ObjectNode source, String embeddingField) {
+            if (!sources.containsKey(id) && ids.size() >= MAX_STORED_DOCUMENTS) {
+                return;
+            }
+            JsonNode vector = source.remove(embeddingField);
+            if (vector != null && vector.isArray()) {
+                float[] embedding = new float[vector.size()];
+                for (int i = 0; i < embedding.length; i++) {
+                    embedding[i] = vector.get(i).floatValue();
+                }
+                embeddings.put(id, embedding);
+            }
+            if (sources.put(id, source) == null) {
+                ids.add(id);
+            }
+        }
+
+        synchronized void delete(String id) {
+            if (sources.remove(id) != null) {
+                embeddings.remove(id);
+                ids.remove(id);
+            }
+        }
+
+        synchronized Set<String> sample(int size) {
+            Set<String> sample = new LinkedHashSet<>();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int attempt = 0; sample.size() < Math.min(size, ids.size()) && attempt < 4 * size; attempt++) {
+                sample.add(ids.get(random.nextInt(ids.size())));
+            }
+            return sample;
+        }
+    }
+
+    ElasticsearchStandIn(Behaviour behaviour, String embeddingField) throws IOException {
+        super("Elasticsearch", behaviour);
+        this.embeddingField = embeddingField;
+    }
+
+    @Override
+    Map<String, String> headers() {
+        // the Java client refuses answers without it
+        return Map.of("X-Elastic-Product", "Elasticsearch");
+    }
+
+    @Override
+    String operation(String method, URI uri) {
+        String path = uri.getPath();
+        int endpoint = path.lastIndexOf("/_");
+        return endpoint >= 0 ? path.substring(endpoint + 1) : method + " index";
+    }
+
+    @Override
+    Object throttledBody() {
+        return error(429, "es_rejected_execution_exception", "rejected execution of the request by the load-test stand-in");
+    }
+
+    @Override
+    Response respond(String method, URI uri, byte[] body) throws IOException {
+        String path = uri.getPath();
+        String[] segments = path.substring(1).split("/");
+        String index = segments[0].startsWith("_") ? null : segments[0].split(",")[0];
+        String endpoint = segments[segments.length - 1];
+        return switch (endpoint) {
+            case "_bulk" -> bulk(index, body);
+            case "_search" -> search(index, JSON.readTree(body));
+            case "_mget" -> mget(index, JSON.readTree(body));
+            case "_delete_by_query" -> Response.ok(Map.of("took", 1, "timed_out", false, "total", 0, "deleted", 0,
+                    "failures", List.of()), 0);
+            case "_refresh" -> Response.ok(Map.of("_shards", shards()), 0);
+            default -> {
+                if (index == null && path.equals("/")) {
+                    yield Response.ok(info(), 0);
+                }
+                if (index != null && segments.length == 1 && method.equals("HEAD")) {
+                    yield new Response(200, null, 0);
+                }
+                if (index != null && segments.length == 1 && method.equals("PUT")) {
+                    yield Response.ok(Map.of("acknowledged", true, "shards_acknowledged", true, "index", index), 0);
+                }
+                yield new Response(404, error(404, "stand_in_unsupported_exception", method + " " + path
+                        + " is not supported by the load-test stand-in"), 0);
+            }
+        };
+    }
+
+    private Response bulk(String defaultIndex, byte[] body) throws IOException {
+        String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isBlank()) {
+                continue;
+            }
+            JsonNode action = JSON.readTree(lines[i]);
+            String type = action.fieldNames().next();
+            JsonNode meta = action.get(type);
+            String index = meta.hasNonNull("_index") ? meta.get("_index").asText() : defaultIndex;
+            String id = meta.hasNonNull("_id") ? meta.get("_id").asText() : UUID.randomUUID().toString();
+            Index target = indexes.computeIfAbsent(index, k -> new Index());
+            if (type.equals("delete")) {
+                target.delete(id);
+            } else {
+                JsonNode source = JSON.readTree(lines[++i]);
+                if (type.equals("update")) {
+                    source = source.get("doc");
+                }
+                if (source instanceof ObjectNode object) {
+                    target.put(id, object, embeddingField);
+                }
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("_index", index);
+            result.put("_id", id);
+            result.put("_version", 1);
+            result.put("result", type.equals("delete") ? "deleted" : "created");
+            result.put("_shards", shards());
+            result.put("_seq_no", 0);
+            result.put("_primary_term", 1);
+            result.put("status", type.equals("delete") ? 200 : 201);
+            items.add(Map.of(type, result));
+        }
+        return Response.ok(Map.of("took", 1, "errors", false, "items", items), items.size());
+    }
+
+    private Response search(String index, JsonNode request) {
+        int size = request.path("size").asInt(10);
+        Index source = index == null ? null : indexes.get(index);
+        List<Map<String, Object>> hits = new ArrayList<>();
+        if (source != null) {
+            double score = 0.95;
+            for (String id : source.sample(size)) {
+                JsonNode document = source.sources.get(id);
+                if (document == null) {
+                    continue;
+                }
+                hits.add(Map.of("_index", index, "_id", id, "_score", score, "_source", document));
+                score -= 0.02;
+            }
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("took", 1);
+        response.put("timed_out", false);
+        response.put("_shards", shards());
+        response.put("hits", Map.of(
+                "total", Map.of("value", hits.size(), "relation", "eq"),
+                "max_score", hits.isEmpty() ? 0 : 0.95,
+                "hits", hits));
+        return Response.ok(response, 0);
+    }
+
+    private Response mget(String index, JsonNode request) {
+        Index source = index == null ? null : indexes.get(index);
+        List<Map<String, Object>> docs = new ArrayList<>();
+        for (JsonNode idNode : request.path("ids")) {
+            String id = idNode.asText();
+            float[] embedding = source == null ? null : source.embeddings.get(id);
+            if (embedding == null) {
+                docs.add(Map.of("_index", index, "_id", id, "found", false));
+            } else {
+                docs.add(Map.of("_index", index, "_id", id, "_version", 1, "_seq_no", 0, "_primary_term", 1,
+                        "found", true, "_source", Map.of(embeddingField, embedding)));
+            }
+        }
+        return Response.ok(Map.of("docs", docs), docs.size());
+    }
+
+    private static Map<String, Object> shards() {
+        return Map.of("total", 1, "successful", 1, "skipped", 0, "failed", 0);
+    }
+
+    private static Map<String, Object> error(int status, String type, String reason) {
+        return Map.of("error", Map.of("type", type, "reason", reason, "root_cause", List.of(Map.of("type", type, "reason", reason))),
+                "status", status);
+    }
+
+    private static Map<String, Object> info() {
+        return Map.of(
+                "name", "load-test",
+                "cluster_name", "load-test",
+                "cluster_uuid", "load-test",
+                "version", Map.of(
+                        "number", "8.18.0",
+                        "build_flavor", "default",
+                        "build_type", "docker",
+                        "build_hash", "load-test",
+                        "build_date", "2025-01-01T00:00:00.000Z",
+                        "build_snapshot", false,
+                        "lucene_version", "9.12.0",
+                        "minimum_wire_compatibility_version", "7.17.0",
+                        "minimum_index_compatibility_version", "7.0.0"),
+                "tagline", "You Know, for Search");
+    }
+}
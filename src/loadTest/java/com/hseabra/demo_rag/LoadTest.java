@@ -0,0 +1,377 @@
+package com.hseabra.demo_rag;
+
+import com.azure.core.http.HttpHeaderName;
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpPipelineBuilder;
+import com.azure.core.http.policy.AddHeadersPolicy;
+import com.azure.core.http.policy.RetryPolicy;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.model.azure.openai.autoconfigure.AzureOpenAIClientBuilderCustomizer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end load test. Starts local stand-ins for Elasticsearch and Azure OpenAI, boots the
+ * application against them, ingests generated documents through {@code /api/rag/ingest} and then sends
+ * questions to {@code /api/rag/query} from concurrent clients. Reports ingestion throughput, query
+ * throughput and the latency distribution, and how many calls the stand-ins served and throttled.
+ * <p>
+ * Settings are {@code loadtest.*} system properties (see {@link Settings}); any {@code rag.*} or
+ * {@code spring.*} system property overrides the application's configuration, e.g. batch sizes,
+ * limits and retry backoff. Run with {@code ./gradlew loadTest -Ploadtest.concurrency=32}.
+ */
+@Slf4j
+public class LoadTest {
+    private static final String STAND_IN_API_KEY = "load-test";
+    // Files per ingestion job; the service rejects jobs once 64 files are queued
+    private static final int FILES_PER_JOB = 16;
+    private static final Duration JOB_POLL_INTERVAL = Duration.ofMillis(250);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+    private static final Duration[] LATENCY_BUCKETS = {
+            Duration.ofMillis(10), Duration.ofMillis(25), Duration.ofMillis(50), Duration.ofMillis(100),
+            Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofMillis(2500),
+            Duration.ofSeconds(5), Duration.ofSeconds(10), Duration.ofSeconds(30)};
+    private static final String[] WORDS = ("block chain node miner wallet key signature hash nonce difficulty "
+            + "reward fee transaction ledger consensus network peer proof work stake contract gas token "
+            + "address balance output input script fork merkle tree timestamp validator epoch").split(" ");
+
+    private final Settings settings;
+    private final URI api;
+    private final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    /**
+     * Size and shape of the run and behaviour of the stand-ins. Latencies are in milliseconds; the
+     * per-item latency applies per document of a bulk request, per input of an embeddings request and
+     * per completion token of a chat call.
+     */
+    record Settings(int documents, int documentKb, int queries, int warmupQueries, int concurrency,
+                    int distinctQuestions, RetrievalMode retrievalMode, String index,
+                    StandInServer.Behaviour elasticsearch, StandInServer.Behaviour embeddings,
+                    StandInServer.Behaviour chat, int dimensions) {
+
+        static Settings fromSystemProperties() {
+            double jitter = number("jitter", 0.2);
+            return new Settings(
+                    (int) number("documents", 20),
+                    (int) number("document-kb", 64),
+                    (int) number("queries", 500),
+                    (int) number("warmup-queries", 20),
+                    (int) number("concurrency", 16),
+                    (int) number("distinct-questions", 500),
+                    RetrievalMode.valueOf(System.getProperty("loadtest.retrieval-mode", "VECTOR").toUpperCase(Locale.ROOT)),
+                    System.getProperty("loadtest.index", "load_test"),
+                    behaviour("elasticsearch", 5, 0.05, 64, jitter),
+                    behaviour("embeddings", 40, 1, 16, jitter),
+                    behaviour("chat", 300, 10, 32, jitter),
+                    Integer.parseInt(System.getProperty("spring.ai.vectorstore.elasticsearch.dimensions", "1536")));
+        }
+
+        private static StandInServer.Behaviour behaviour(String service, double latencyMs, double perItemMs,
+                                                         int maxConcurrent, double jitter) {
+            return new StandInServer.Behaviour(
+                    millis(number(service + ".latency-ms", latencyMs)),
+                    millis(number(service + ".per-item-ms", perItemMs)),
+                    jitter,
+                    (int) number(service + ".max-concurrent", maxConcurrent),
+                    number(service + ".throttle-rate", 0));
+        }
+
+        private static double number(String name, double defaultValue) {
+            String value = System.getProperty("loadtest." + name);
+            return value == null ? defaultValue : Double.parseDouble(value);
+        }
+
+        private static Duration millis(double millis) {
+            return Duration.ofNanos((long) (millis * 1_000_000));
+        }
+    }
+
+    LoadTest(Settings settings, URI api) {
+        this.settings = settings;
+        this.api = api;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.fromSystemProperties();
+        Path workDirectory = Files.createTempDirectory("rag-load-test");
+        try (ElasticsearchStandIn elasticsearch = new ElasticsearchStandIn(settings.elasticsearch(), "embedding");
+             AzureOpenAiStandIn azure = new AzureOpenAiStandIn(settings.embeddings(), settings.chat(), settings.dimensions());
+             ConfigurableApplicationContext application = start(args, elasticsearch, azure, workDirectory)) {
+            int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+            LoadTest test = new LoadTest(settings, URI.create("http://localhost:" + port + "/api/rag/"));
+            log.info("Load test with {}", settings);
+
+            IngestionResult ingestion = test.ingest(test.generateDocuments(workDirectory.resolve("documents")));
+            QueryResult queries = test.query();
+
+            System.out.println(report(settings, ingestion, queries, List.of(elasticsearch, azure)));
+        }
+        // the Azure SDK's HTTP client may keep non-daemon threads alive
+        System.exit(0);
+    }
+
+    /**
+     * Boots the application against the stand-ins. The stand-in addresses and local data directories are
+     * set as system properties unless already given, so they take precedence over application.yaml but
+     * not over explicit settings.
+     */
+    private static ConfigurableApplicationContext start(String[] args, ElasticsearchStandIn elasticsearch,
+                                                        AzureOpenAiStandIn azure, Path workDirectory) {
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("server.port", "0");
+        defaults.put("spring.ai.vectorstore.elasticsearch.cloudId", elasticsearch.getUrl());
+        defaults.put("spring.ai.vectorstore.elasticsearch.apiKey", STAND_IN_API_KEY);
+        defaults.put("spring.ai.azure.openai.endpoint", azure.getUrl());
+        defaults.put("spring.ai.azure.openai.api-key", STAND_IN_API_KEY);
+        defaults.put("rag.embedding-cache.directory", "");
+        defaults.put("rag.parent-store.directory", workDirectory.resolve("parents").toString());
+        defaults.put("rag.manifest.directory", workDirectory.resolve("manifests").toString());
+        defaults.put("rag.vector-store.hnsw.directory", workDirectory.resolve("hnsw").toString());
+        defaults.put("logging.level.com.hseabra.demo_rag", "WARN");
+        defaults.forEach((key, value) -> {
+            if (System.getProperty(key) == null) {
+                System.setProperty(key, value);
+            }
+        });
+        return new SpringApplicationBuilder(DemoRagApplication.class)
+                .initializers(context -> ((GenericApplicationContext) context).registerBean(
+                        AzureOpenAIClientBuilderCustomizer.class,
+                        () -> builder -> plainHttpPipeline(builder, context.getBean(EmbeddingLimitPolicy.class))))
+                .run(args);
+    }
+
+    /**
+     * The Azure SDK only sends key credentials over HTTPS. The stand-in speaks plain HTTP, so the client
+     * gets a pipeline that sends the key as a header itself. A custom pipeline replaces the builder's
+     * policies, so it repeats the SDK's retry policy and the application's embeddings limit after it.
+     */
+    private static void plainHttpPipeline(com.azure.ai.openai.OpenAIClientBuilder builder, EmbeddingLimitPolicy embeddingLimit) {
+        builder.pipeline(new HttpPipelineBuilder()
+                .policies(new AddHeadersPolicy(new HttpHeaders().set(HttpHeaderName.fromString("api-key"), STAND_IN_API_KEY)),
+                        new RetryPolicy(),
+                        embeddingLimit)
+                .build());
+    }
+
+    private List<Path> generateDocuments(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Random random = new Random(42);
+        List<Path> documents = new ArrayList<>(settings.documents());
+        for (int d = 0; d < settings.documents(); d++) {
+            StringBuilder text = new StringBuilder(settings.documentKb() * 1024 + 256);
+            while (text.length() < settings.documentKb() * 1024) {
+                for (int sentence = 0; sentence < 6; sentence++) {
+                    int length = 8 + random.nextInt(12);
+                    for (int w = 0; w < length; w++) {
+                        String word = WORDS[random.nextInt(WORDS.length)];
+                        text.append(w == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word)
+                                .append(w == length - 1 ? ". " : " ");
+                    }
+                }
+                text.append("\n\n");
+            }
+            documents.add(Files.writeString(directory.resolve("document-" + d + ".txt"), text));
+        }
+        return documents;
+    }
+
+    /**
+     * Submits the documents in jobs, retrying while the queue is full, and polls the jobs until all have finished.
+     */
+    private IngestionResult ingest(List<Path> documents) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        List<String> jobs = new ArrayList<>();
+        for (int from = 0; from < documents.size(); from += FILES_PER_JOB) {
+            List<String> paths = documents.subList(from, Math.min(from + FILES_PER_JOB, documents.size())).stream()
+                    .map(Path::toString)
+                    .toList();
+            while (true) {
+                HttpResponse<String> response = post("ingest", Map.of("filePath", paths, "indexName", settings.index()));
+                if (response.statusCode() == 202) {
+                    jobs.add(StandInServer.JSON.readTree(response.body()).path("jobId").asText());
+                    break;
+                }
+                if (response.statusCode() != 503) {
+                    throw new IllegalStateException("Ingestion request failed with " + response.statusCode() + ": " + response.body());
+                }
+                // the queue drains as files finish; Retry-After is sized for clients that cannot poll
+                Thread.sleep(JOB_POLL_INTERVAL);
+            }
+        }
+
+        int files = 0;
+        int failed = 0;
+        long chunks = 0;
+        for (String job : jobs) {
+            JsonNode status;
+            while (true) {
+                HttpResponse<String> response = http.send(HttpRequest.newBuilder(api.resolve("ingest/" + job))
+                        .timeout(REQUEST_TIMEOUT).GET().build(), HttpResponse.BodyHandlers.ofString());
+                status = StandInServer.JSON.readTree(response.body());
+                String state = status.path("state").asText();
+                if (!state.equals("QUEUED") && !state.equals("RUNNING")) {
+                    break;
+                }
+                Thread.sleep(JOB_POLL_INTERVAL);
+            }
+            for (JsonNode file : status.path("files")) {
+                files++;
+                chunks += file.path("chunksIndexed").asLong();
+                if (file.path("stage").asText().equals("FAILED")) {
+                    failed++;
+                    log.warn("Ingestion of {} failed: {}", file.path("path").asText(), file.path("error").asText());
+                }
+            }
+        }
+        return new IngestionResult(files, failed, chunks, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Sends the warm-up questions, then the measured ones from {@code concurrency} clients, each sending
+     * its next question as soon as the previous one is answered.
+     */
+    private QueryResult query() throws InterruptedException {
+        List<String> questions = new ArrayList<>(settings.distinctQuestions());
+        Random random = new Random(7);
+        for (int i = 0; i < settings.distinctQuestions(); i++) {
+            questions.add("What does the text say about the " + WORDS[random.nextInt(WORDS.length)] + " and the "
+                    + WORDS[random.nextInt(WORDS.length)] + " of " + WORDS[random.nextInt(WORDS.length)] + " #" + i + "?");
+        }
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        run(settings.warmupQueries(), questions, null, null, null);
+
+        Timer latency = Timer.builder("loadtest.query.latency")
+                .publishPercentiles(PERCENTILES)
+                .serviceLevelObjectives(LATENCY_BUCKETS)
+                // one window for the whole run instead of the default decaying percentiles
+                .distributionStatisticExpiry(Duration.ofDays(1))
+                .distributionStatisticBufferLength(1)
+                .register(registry);
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        run(settings.queries(), questions, latency, rejected, failed);
+        return new QueryResult(latency.takeSnapshot(), rejected.get(), failed.get(), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private void run(int count, List<String> questions, Timer latency, AtomicInteger rejected, AtomicInteger failed)
+            throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        // platform threads, like the stand-ins, so the clients do not compete with the application's virtual threads
+        try (ExecutorService clients = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory())) {
+            for (int c = 0; c < settings.concurrency(); c++) {
+                clients.execute(() -> {
+                    for (int n = next.getAndIncrement(); n < count; n = next.getAndIncrement()) {
+                        Map<String, Object> request = Map.of("question", questions.get(n % questions.size()),
+                                "indexName", settings.index(), "retrievalMode", settings.retrievalMode());
+                        long start = System.nanoTime();
+                        int status;
+                        try {
+                            status = post("query", request).statusCode();
+                        } catch (IOException e) {
+                            status = -1;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        if (latency == null) {
+                            continue;
+                        }
+                        if (status == 200) {
+                            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        } else if (status == 503) {
+                            rejected.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private HttpResponse<String> post(String path, Object body) throws IOException, InterruptedException {
+        return http.send(HttpRequest.newBuilder(api.resolve(path))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(StandInServer.JSON.writeValueAsBytes(body)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    record IngestionResult(int files, int failed, long chunks, Duration elapsed) {
+    }
+
+    record QueryResult(HistogramSnapshot latency, int rejected, int failed, Duration elapsed) {
+    }
+
+    private static String report(Settings settings, IngestionResult ingestion, QueryResult queries,
+                                 List<StandInServer> standIns) {
+        StringBuilder report = new StringBuilder("\n=== Load test report ===\n");
+        double ingestSeconds = ingestion.elapsed().toNanos() / 1e9;
+        report.append(String.format(Locale.ROOT, "Ingestion: %d files (%d failed), %d chunks in %.1fs: %.2f docs/s, %.1f chunks/s%n",
+                ingestion.files(), ingestion.failed(), ingestion.chunks(), ingestSeconds,
+                ingestion.files() / ingestSeconds, ingestion.chunks() / ingestSeconds));
+
+        HistogramSnapshot latency = queries.latency();
+        double querySeconds = queries.elapsed().toNanos() / 1e9;
+        report.append(String.format(Locale.ROOT, "Queries: %d ok, %d rejected (503), %d failed in %.1fs at concurrency %d: %.1f queries/s%n",
+                latency.count(), queries.rejected(), queries.failed(), querySeconds, settings.concurrency(),
+                latency.count() / querySeconds));
+        report.append("Latency:");
+        for (ValueAtPercentile percentile : latency.percentileValues()) {
+            report.append(String.format(Locale.ROOT, " p%s=%.0fms", format(percentile.percentile() * 100),
+                    percentile.value(TimeUnit.MILLISECONDS)));
+        }
+        report.append(String.format(Locale.ROOT, " mean=%.0fms max=%.0fms%n", latency.mean(TimeUnit.MILLISECONDS),
+                latency.max(TimeUnit.MILLISECONDS)));
+        double previous = 0;
+        for (CountAtBucket bucket : latency.histogramCounts()) {
+            double count = bucket.count() - previous;
+            previous = bucket.count();
+            report.append(String.format(Locale.ROOT, "  <= %6.0fms %6.0f %s%n", bucket.bucket(TimeUnit.MILLISECONDS), count,
+                    "#".repeat((int) Math.round(50 * count / Math.max(1, latency.count())))));
+        }
+        report.append(String.format(Locale.ROOT, "   > %6.0fms %6.0f%n", LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1].toMillis() * 1.0,
+                latency.count() - previous));
+
+        for (StandInServer standIn : standIns) {
+            standIn.getCounts().forEach((operation, counts) -> report.append(String.format(Locale.ROOT,
+                    "%s %s: %d requests, %d throttled (429)%n", standIn.getName(), operation, counts[0], counts[1])));
+        }
+        return report.toString();
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
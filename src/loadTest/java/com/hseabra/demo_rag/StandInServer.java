@@ -0,0 +1,170 @@
+package com.hseabra.demo_rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local HTTP server standing in for a downstream service. Every request is answered after a simulated
+ * service time; requests over the concurrency limit of their operation, and a random share of the
+ * others, are answered with 429 like a throttled service. Requests are counted per operation for the
+ * report.
+ */
+@Slf4j
+abstract class StandInServer implements AutoCloseable {
+    static final ObjectMapper JSON = new ObjectMapper();
+
+    private final String name;
+    private final Behaviour behaviour;
+    private final HttpServer server;
+    // platform threads, so the stand-in keeps answering when the application's virtual threads pin their carriers
+    private final ExecutorService executor = Executors.newCachedThreadPool(Thread.ofPlatform().daemon().factory());
+    private final Map<String, Semaphore> capacity = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> throttled = new ConcurrentHashMap<>();
+
+    /**
+     * Service time of a request: {@code latency} plus {@code perItem} for each document or input it
+     * carries, varied by up to {@code jitter} (a fraction) either way. More than {@code maxConcurrent}
+     * requests at once, and a {@code throttleRate} share of the rest, are rejected with 429.
+     */
+    record Behaviour(Duration latency, Duration perItem, double jitter, int maxConcurrent, double throttleRate) {
+        Duration serviceTime(int items) {
+            long nanos = latency.toNanos() + perItem.toNanos() * items;
+            return Duration.ofNanos((long) (nanos * (1 + jitter * ThreadLocalRandom.current().nextDouble(-1, 1))));
+        }
+    }
+
+    /**
+     * Answer to a request: status, JSON body (null for none) and the number of items the request carried.
+     */
+    record Response(int status, Object body, int items) {
+        static Response ok(Object body, int items) {
+            return new Response(200, body, items);
+        }
+    }
+
+    StandInServer(String name, Behaviour behaviour) throws IOException {
+        this.name = name;
+        this.behaviour = behaviour;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        log.info("{} stand-in listening on {} with {}", name, getUrl(), behaviour);
+    }
+
+    String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Requests received and those rejected with 429, per operation, in operation order.
+     */
+    Map<String, long[]> getCounts() {
+        Map<String, long[]> counts = new TreeMap<>();
+        requests.forEach((operation, count) -> counts.computeIfAbsent(operation, k -> new long[2])[0] = count.sum());
+        throttled.forEach((operation, count) -> counts.computeIfAbsent(operation, k -> new long[2])[1] = count.sum());
+        return counts;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    abstract Response respond(String method, URI uri, byte[] body) throws IOException;
+
+    /**
+     * Operation a request is counted under in the report.
+     */
+    abstract String operation(String method, URI uri);
+
+    /**
+     * Body of a 429 answer in the service's error format.
+     */
+    abstract Object throttledBody();
+
+    /**
+     * Latency and capacity of an operation; each operation has its own concurrency limit, like the
+     * separate thread pools or deployments of the real service.
+     */
+    Behaviour behaviour(String operation) {
+        return behaviour;
+    }
+
+    /**
+     * Headers every answer carries, besides the content type.
+     */
+    Map<String, String> headers() {
+        return Map.of();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            String operation = operation(exchange.getRequestMethod(), exchange.getRequestURI());
+            requests.computeIfAbsent(operation, k -> new LongAdder()).increment();
+            Behaviour limits = behaviour(operation);
+            Semaphore permits = capacity.computeIfAbsent(operation, k -> new Semaphore(limits.maxConcurrent()));
+            if (!permits.tryAcquire()) {
+                throttle(exchange, operation);
+                return;
+            }
+            try {
+                if (ThreadLocalRandom.current().nextDouble() < limits.throttleRate()) {
+                    throttle(exchange, operation);
+                    return;
+                }
+                Response response = respond(exchange.getRequestMethod(), exchange.getRequestURI(), body);
+                Thread.sleep(limits.serviceTime(response.items()));
+                send(exchange, response.status(), response.body());
+            } catch (IOException | RuntimeException e) {
+                log.error("{} stand-in failed on {} {}", name, exchange.getRequestMethod(), exchange.getRequestURI(), e);
+                send(exchange, 500, Map.of("error", String.valueOf(e.getMessage())));
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void throttle(HttpExchange exchange, String operation) throws IOException {
+        throttled.computeIfAbsent(operation, k -> new LongAdder()).increment();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 429, throttledBody());
+    }
+
+    private void send(HttpExchange exchange, int status, Object body) throws IOException {
+        headers().forEach((header, value) -> exchange.getResponseHeaders().set(header, value));
+        if (body == null || exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = JSON.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,326 @@
+package com.hseabra.demo_rag;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.azure.core.exception.HttpResponseException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.ResponseException;
+
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide limit on concurrent calls to one downstream service, adapted with AIMD: the limit grows
+ * by about one per window of successful calls and is cut when the downstream throttles (HTTP 429) or
+ * its latency rises well above the observed no-load latency. Callers block while the limit is reached,
+ * so throughput settles near what the service sustains instead of triggering retries and backoff.
+ * <p>
+ * Waiting callers are served by {@link RequestPriority} of their thread, highest first, and a share of
+ * the limit is kept for {@link RequestPriority#INTERACTIVE} calls, so a running ingestion cannot take
+ * every permit and make queries queue behind it.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+    private static final double THROTTLE_DECREASE = 0.5;
+    private static final double LATENCY_DECREASE = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double interactiveReserve;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Per priority: a condition its waiters wait on and how many are waiting
+    private final Condition[] available = new Condition[RequestPriority.values().length];
+    private final int[] waiting = new int[RequestPriority.values().length];
+    private final LongAdder throttled = new LongAdder();
+    private double limit;
+    private int inFlight;
+    private double baselineNanos = -1;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+        this(name, initialLimit, minLimit, maxLimit, latencyTolerance, 0);
+    }
+
+    /**
+     * @param interactiveReserve fraction of the limit, rounded down, that only interactive calls may use
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double latencyTolerance,
+                                      double interactiveReserve) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.interactiveReserve = interactiveReserve;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        for (int i = 0; i < available.length; i++) {
+            available[i] = lock.newCondition();
+        }
+    }
+
+    /**
+     * Runs the call once a permit is free for the current thread's {@link RequestPriority}.
+     */
+    public <T> T execute(Supplier<T> call) {
+        return execute(call, result -> false);
+    }
+
+    /**
+     * Runs the call once a permit is free; a result matching {@code throttled}, such as a 429 response
+     * a client returns rather than throws, counts as throttling instead of success.
+     */
+    public <T> T execute(Supplier<T> call, Predicate<? super T> throttled) {
+        acquire(RequestPriority.current());
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            if (throttled.test(result)) {
+                onThrottled();
+            } else {
+                onSuccess(System.nanoTime() - start);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            onFailure(e);
+            throw e;
+        } finally {
+            release();
+        }
+    }
+
+    public void run(Runnable call) {
+        execute(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The most calls the limiter lets run at once, however far the limit grows.
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting(RequestPriority priority) {
+        lock.lock();
+        try {
+            return waiting[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(RequestPriority priority) {
+        int p = priority.ordinal();
+        lock.lock();
+        try {
+            waiting[p]++;
+            try {
+                while (!mayStart(p)) {
+                    available[p].await();
+                }
+            } catch (InterruptedException e) {
+                waiting[p]--;
+                // pass on a wake-up this waiter may have consumed
+                signalNext();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a " + name + " permit");
+            }
+            waiting[p]--;
+            inFlight++;
+            // more permits may be free, e.g. after the limit grew
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A caller may start when no caller of a higher priority is waiting and, unless interactive, the
+     * in-flight calls leave the reserved share free.
+     */
+    private boolean mayStart(int priority) {
+        for (int higher = 0; higher < priority; higher++) {
+            if (waiting[higher] > 0) {
+                return false;
+            }
+        }
+        int permits = (int) limit;
+        if (priority != RequestPriority.INTERACTIVE.ordinal()) {
+            permits -= (int) (permits * interactiveReserve);
+        }
+        return inFlight < permits;
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes a waiter of the highest priority that has any.
+     */
+    private void signalNext() {
+        for (int p = 0; p < waiting.length; p++) {
+            if (waiting[p] > 0) {
+                available[p].signal();
+                return;
+            }
+        }
+    }
+
+    private void signalAll() {
+        for (Condition condition : available) {
+            condition.signalAll();
+        }
+    }
+
+    private void onSuccess(long latencyNanos) {
+        lock.lock();
+        try {
+            if (baselineNanos < 0) {
+                baselineNanos = latencyNanos;
+            } else if (latencyNanos < baselineNanos) {
+                baselineNanos = (baselineNanos + latencyNanos) / 2;
+            } else {
+                // drift up slowly so the baseline follows lasting changes such as larger batches
+                baselineNanos += (latencyNanos - baselineNanos) * 0.01;
+            }
+
+            if (latencyNanos > baselineNanos * latencyTolerance) {
+                decrease(LATENCY_DECREASE, latencyNanos);
+            } else if (limit < maxLimit) {
+                int before = (int) limit;
+                limit = Math.min(maxLimit, limit + 1 / limit);
+                if ((int) limit > before) {
+                    signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onFailure(Throwable t) {
+        if (isThrottled(t)) {
+            onThrottled();
+        }
+    }
+
+    private void onThrottled() {
+        throttled.increment();
+        lock.lock();
+        try {
+            decrease(THROTTLE_DECREASE, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Multiplicative decrease, applied at most once per baseline latency so that a burst of slow or
+     * throttled responses from the same window counts as one signal.
+     */
+    private void decrease(double factor, long latencyNanos) {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < Math.max(baselineNanos, latencyNanos)) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * factor);
+        if ((int) previous != (int) limit) {
+            log.debug("{} concurrency limit {} -> {} (baseline {}ms)", name, (int) previous, (int) limit,
+                    TimeUnit.NANOSECONDS.toMillis((long) baselineNanos));
+        }
+    }
+
+    /**
+     * Whether a failure, or one of its causes, is an HTTP 429 from a client that reports the status.
+     */
+    static boolean isThrottled(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (status(cause) == 429) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * HTTP status of the failure or of its nearest cause from a client that reports one, or -1.
+     */
+    static int statusOf(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            int status = status(cause);
+            if (status >= 0) {
+                return status;
+            }
+        }
+        return -1;
+    }
+
+    private static int status(Throwable t) {
+        if (t instanceof HttpResponseException http && http.getResponse() != null) {
+            return http.getResponse().getStatusCode();
+        }
+        if (t instanceof ResponseException response) {
+            return response.getResponse().getStatusLine().getStatusCode();
+        }
+        if (t instanceof ElasticsearchException es) {
+            return es.status();
+        }
+        return -1;
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("rag.downstream.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .tag("downstream", name)
+                .register(registry);
+        Gauge.builder("rag.downstream.in.flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .tag("downstream", name)
+                .register(registry);
+        FunctionCounter.builder("rag.downstream.throttled", throttled, LongAdder::sum)
+                .tag("downstream", name)
+                .register(registry);
+        for (RequestPriority priority : RequestPriority.values()) {
+            Gauge.builder("rag.downstream.waiting", this, limiter -> limiter.getWaiting(priority))
+                    .tag("downstream", name)
+                    .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+    }
+}
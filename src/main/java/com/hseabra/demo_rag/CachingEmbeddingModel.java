@@ -0,0 +1,170 @@
+package com.hseabra.demo_rag;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link EmbeddingModel} decorator that serves repeated texts from a cache instead of calling the
+ * delegate. Entries are keyed by a hash of the model/deployment name and the exact text. Lookups go
+ * to an in-memory LRU first and then to an optional {@link EmbeddingCacheFile}, which keeps vectors
+ * across restarts; only the misses of a request are sent to the delegate, in a single call.
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel, MeterBinder {
+    private final EmbeddingModel delegate;
+    private final String modelName;
+    private final EmbeddingCacheFile file;
+    private final Map<EmbeddingCacheFile.Key, float[]> memory;
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder fileHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param file persistent tier, or null to cache in memory only
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelName, int memoryEntries, EmbeddingCacheFile file) {
+        this.delegate = delegate;
+        this.modelName = modelName;
+        this.file = file;
+        this.memory = new LinkedHashMap<>(Math.max(16, memoryEntries / 4), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EmbeddingCacheFile.Key, float[]> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    public EmbeddingModel getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        String model = request.getOptions() != null && request.getOptions().getModel() != null
+                ? request.getOptions().getModel() : modelName;
+
+        float[][] vectors = new float[texts.size()][];
+        EmbeddingCacheFile.Key[] keys = new EmbeddingCacheFile.Key[texts.size()];
+        // Each distinct missing text is sent once, even if it repeats within the request
+        Map<EmbeddingCacheFile.Key, Integer> missing = new HashMap<>();
+        List<String> missingTexts = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            keys[i] = EmbeddingCacheFile.Key.of(model, texts.get(i));
+            vectors[i] = lookup(keys[i]);
+            if (vectors[i] == null && missing.putIfAbsent(keys[i], missingTexts.size()) == null) {
+                missingTexts.add(texts.get(i));
+            }
+        }
+
+        EmbeddingResponseMetadata metadata = new EmbeddingResponseMetadata();
+        if (!missingTexts.isEmpty()) {
+            misses.add(missingTexts.size());
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missingTexts, request.getOptions()));
+            metadata = response.getMetadata();
+            float[][] fetched = new float[missingTexts.size()][];
+            for (Embedding embedding : response.getResults()) {
+                fetched[embedding.getIndex()] = embedding.getOutput();
+            }
+            for (int i = 0; i < vectors.length; i++) {
+                if (vectors[i] == null) {
+                    vectors[i] = fetched[missing.get(keys[i])];
+                }
+            }
+            for (Map.Entry<EmbeddingCacheFile.Key, Integer> entry : missing.entrySet()) {
+                store(entry.getKey(), fetched[entry.getValue()]);
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings, metadata);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private float[] lookup(EmbeddingCacheFile.Key key) {
+        float[] vector;
+        synchronized (memory) {
+            vector = memory.get(key);
+        }
+        if (vector != null) {
+            memoryHits.increment();
+            return vector;
+        }
+        if (file != null && (vector = file.get(key)) != null) {
+            fileHits.increment();
+            synchronized (memory) {
+                memory.put(key, vector);
+            }
+        }
+        return vector;
+    }
+
+    private void store(EmbeddingCacheFile.Key key, float[] vector) {
+        synchronized (memory) {
+            memory.put(key, vector);
+        }
+        if (file != null) {
+            try {
+                file.put(key, vector);
+            } catch (IOException e) {
+                log.warn("Failed to persist embedding in cache file", e);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("rag.embedding.cache.requests", memoryHits, LongAdder::sum)
+                .tag("result", "hit").tag("tier", "memory")
+                .description("Embedding lookups served by the cache or sent to the model")
+                .register(registry);
+        FunctionCounter.builder("rag.embedding.cache.requests", fileHits, LongAdder::sum)
+                .tag("result", "hit").tag("tier", "file")
+                .register(registry);
+        FunctionCounter.builder("rag.embedding.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss").tag("tier", "none")
+                .register(registry);
+        Gauge.builder("rag.embedding.cache.size", memory, m -> {
+                    synchronized (m) {
+                        return m.size();
+                    }
+                })
+                .tag("tier", "memory")
+                .register(registry);
+        if (file != null) {
+            Gauge.builder("rag.embedding.cache.size", file, EmbeddingCacheFile::size)
+                    .tag("tier", "file")
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.hseabra.demo_rag;
+
+/**
+ * How ingested text is chunked and indexed.
+ */
+public enum ChunkingMode {
+    /**
+     * 400-token chunks, each embedded and returned as context as is.
+     */
+    FLAT,
+    /**
+     * 1200-token parents split into 400-token children. Only children are embedded; parents are kept
+     * in the {@link ParentChunkStore} and replace their children in the retrieved context.
+     */
+    PARENT_CHILD
+}
@@ -10,23 +10,46 @@ import java.util.List;
 
 @Service
 public class ChunkingService {
-    private final CustomizedTokenTextSplitter parentSplitter = new CustomizedTokenTextSplitter(1200, 240);
+    /**
+     * Metadata key linking a child chunk to the parent chunk it was split from.
+     */
+    public static final String PARENT_ID = "parent_id";
 
-    private final CustomizedTokenTextSplitter childSplitter = new CustomizedTokenTextSplitter(400, 60);
+    private final OffsetTokenTextSplitter parentSplitter = new OffsetTokenTextSplitter(1200, 240);
+
+    private final OffsetTokenTextSplitter childSplitter = new OffsetTokenTextSplitter(400, 60);
     private final TextSplitter defaultSplitter = TokenTextSplitter.builder().withChunkSize(400).build();
 
     public List<Document> createChildChunks(Document parent) {
-        List<Document> parentChunks = parentSplitter.split(parent);
         List<Document> children = new ArrayList<>();
+        for (ParentChunk p : createParentChunks(parent)) {
+            children.addAll(p.children());
+        }
+        return children;
+    }
+
+    /**
+     * Splits into parent chunks and each parent into child chunks tagged with the parent's id
+     * under {@link #PARENT_ID}.
+     */
+    public List<ParentChunk> createParentChunks(Document document) {
+        List<Document> parentChunks = parentSplitter.split(document);
+        List<ParentChunk> parents = new ArrayList<>(parentChunks.size());
 
         for (Document p : parentChunks) {
             List<Document> sub = childSplitter.split(p);
-            children.addAll(sub);
+            for (Document child : sub) {
+                child.getMetadata().put(PARENT_ID, p.getId());
+            }
+            parents.add(new ParentChunk(p, sub));
         }
-        return children;
+        return parents;
     }
 
     public List<Document> createChunks(Document parent) {
         return childSplitter.split(parent);
     }
+
+    public record ParentChunk(Document parent, List<Document> children) {
+    }
 }
@@ -0,0 +1,194 @@
+package com.hseabra.demo_rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects and trims the retrieved chunks that go into the answer prompt. Candidates are first
+ * ordered by maximal marginal relevance over their stored embeddings, dropping near-duplicates;
+ * then text already in the context (the overlap neighbouring chunks share, or a chunk contained
+ * in a parent) is cut out and the chunks are packed into the token budget.
+ */
+@Slf4j
+@Component
+public class ContextBuilder {
+    private final RagProperties.Context config;
+    private final TokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+
+    public ContextBuilder(RagProperties ragProperties) {
+        this.config = ragProperties.getContext();
+    }
+
+    /**
+     * Greedy MMR: repeatedly takes the candidate maximizing
+     * {@code lambda * sim(query, d) - (1 - lambda) * max sim(d, taken)}. Candidates at least
+     * {@code duplicateSimilarity} similar to one already taken are dropped. Candidates without an
+     * embedding keep their relative order and are placed after the others.
+     *
+     * @param embeddings stored embeddings by document id
+     */
+    public List<Document> diversify(float[] queryVector, List<Document> candidates, Map<String, float[]> embeddings) {
+        List<Document> remaining = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        List<Document> unembedded = new ArrayList<>();
+        for (Document candidate : candidates) {
+            float[] vector = embeddings.get(candidate.getId());
+            if (vector == null) {
+                unembedded.add(candidate);
+            } else {
+                remaining.add(candidate);
+                vectors.add(vector);
+            }
+        }
+
+        double lambda = config.getMmrLambda();
+        double[] relevance = new double[remaining.size()];
+        double[] redundancy = new double[remaining.size()];
+        for (int i = 0; i < remaining.size(); i++) {
+            relevance[i] = cosine(queryVector, vectors.get(i));
+        }
+        boolean[] done = new boolean[remaining.size()];
+        List<Document> selected = new ArrayList<>(candidates.size());
+        int dropped = 0;
+        for (int round = 0; round < remaining.size(); round++) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < remaining.size(); i++) {
+                double score = lambda * relevance[i] - (1 - lambda) * redundancy[i];
+                if (!done[i] && score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            done[best] = true;
+            if (redundancy[best] >= config.getDuplicateSimilarity()) {
+                dropped++;
+                continue;
+            }
+            selected.add(remaining.get(best));
+            for (int i = 0; i < remaining.size(); i++) {
+                if (!done[i]) {
+                    redundancy[i] = Math.max(redundancy[i], cosine(vectors.get(i), vectors.get(best)));
+                }
+            }
+        }
+        selected.addAll(unembedded);
+        if (dropped > 0) {
+            log.debug("Dropped {} near-duplicate chunks of {}", dropped, candidates.size());
+        }
+        return selected;
+    }
+
+    /**
+     * Takes documents in order until the token budget is spent, removing text already in the context:
+     * a document contained in an earlier one is skipped, and the overlap with an earlier neighbour is
+     * cut from its start or end. Documents that do not fit are skipped in favour of later, shorter ones;
+     * if not even the first fits, its beginning is used.
+     */
+    public List<Document> pack(List<Document> documents) {
+        List<Document> packed = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        int budget = config.getTokenBudget();
+        int used = 0;
+        Document firstTooLong = null;
+        for (Document document : documents) {
+            String text = document.getText();
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            text = removeOverlaps(text, texts);
+            if (text == null) {
+                continue;
+            }
+            int tokens = tokenCounter.estimate(text);
+            if (used + tokens > budget) {
+                if (firstTooLong == null) {
+                    firstTooLong = withText(document, text);
+                }
+                continue;
+            }
+            used += tokens;
+            texts.add(text);
+            packed.add(withText(document, text));
+        }
+        if (packed.isEmpty() && firstTooLong != null) {
+            String text = firstTooLong.getText();
+            used = tokenCounter.estimate(text);
+            text = text.substring(0, (int) ((long) text.length() * budget / used));
+            used = tokenCounter.estimate(text);
+            packed.add(withText(firstTooLong, text));
+        }
+        log.debug("Packed {} of {} documents into {} of {} context tokens", packed.size(), documents.size(), used, budget);
+        return packed;
+    }
+
+    private static Document withText(Document document, String text) {
+        return text.equals(document.getText()) ? document : Document.builder()
+                .id(document.getId())
+                .text(text)
+                .metadata(document.getMetadata())
+                .score(document.getScore())
+                .build();
+    }
+
+    /**
+     * @return the text without the parts already in the context, or null if nothing new remains
+     */
+    private String removeOverlaps(String text, List<String> context) {
+        for (String previous : context) {
+            if (previous.contains(text)) {
+                return null;
+            }
+            int head = overlap(previous, text);
+            if (head > 0) {
+                text = text.substring(head);
+            }
+            int tail = overlap(text, previous);
+            if (tail > 0) {
+                text = text.substring(0, text.length() - tail);
+            }
+            if (text.length() < config.getMinOverlapChars()) {
+                return null;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Length of the longest suffix of {@code first} that is a prefix of {@code second}, or 0 if
+     * shorter than {@code minOverlapChars}.
+     */
+    int overlap(String first, String second) {
+        int min = config.getMinOverlapChars();
+        if (first.length() < min || second.length() < min) {
+            return 0;
+        }
+        String probe = second.substring(0, min);
+        int from = Math.max(0, first.length() - second.length());
+        for (int at = first.indexOf(probe, from); at >= 0; at = first.indexOf(probe, at + 1)) {
+            if (second.startsWith(first.substring(at))) {
+                return first.length() - at;
+            }
+        }
+        return 0;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double na = 0;
+        double nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return na == 0 || nb == 0 ? 0 : dot / Math.sqrt(na * nb);
+    }
+}
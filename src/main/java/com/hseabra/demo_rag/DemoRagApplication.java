@@ -2,8 +2,10 @@ package com.hseabra.demo_rag;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 @SpringBootApplication
+@EnableConfigurationProperties(RagProperties.class)
 public class DemoRagApplication {
     public static void main(String[] args) {
         SpringApplication.run(DemoRagApplication.class, args);
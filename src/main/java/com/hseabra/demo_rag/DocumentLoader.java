@@ -0,0 +1,215 @@
+package com.hseabra.demo_rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TemporaryResources;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.microsoft.OfficeParserConfig;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Service;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads a document of any supported format for ingestion, dispatching on its detected content type.
+ * PDFs go to {@link PdfService}, page by page. DOCX, HTML, Markdown and plain text are parsed by Tika
+ * as a stream of SAX events, and the text is emitted in section-sized {@link Document}s while parsing
+ * goes on. A section ends at a heading once it has {@link #MIN_SECTION_CHARS}, or at
+ * {@link #MAX_SECTION_CHARS}. So memory use depends on the section size, not the file size. DOCX
+ * files are read with Tika's SAX extractor rather than a full document model.
+ * <p>
+ * Files and URLs are read as one stream, and this is the only place URLs are fetched; Tika spools
+ * the stream to a temporary file when the format needs random access, as DOCX and a downloaded PDF do.
+ */
+@Slf4j
+@Service
+public class DocumentLoader {
+    static final int MIN_SECTION_CHARS = 2 * 1024;
+    static final int MAX_SECTION_CHARS = 16 * 1024;
+    private static final MediaType PDF = MediaType.application("pdf");
+    private static final Set<MediaType> SECTIONED = Set.of(
+            MediaType.application("vnd.openxmlformats-officedocument.wordprocessingml.document"),
+            MediaType.TEXT_HTML,
+            MediaType.application("xhtml+xml"),
+            MediaType.text("x-web-markdown"),
+            MediaType.TEXT_PLAIN);
+
+    private final PdfService pdfs;
+    private final AutoDetectParser parser = new AutoDetectParser();
+
+    public DocumentLoader(PdfService pdfs) {
+        this.pdfs = pdfs;
+    }
+
+    /**
+     * Pages or sections extracted from a document, and the SHA-256 of its content.
+     */
+    public record Loaded(int parts, String checksum) {
+    }
+
+    /**
+     * Extracts the document's pages (PDF) or sections (other formats) and hands them to the sink in
+     * order. The normalizer and parallelism apply to PDFs only; its page-oriented rules, such as
+     * repeated headers and trailing page numbers, do not fit sections.
+     * <p>
+     * The checksum is computed from the stream the document is read from, so a URL is fetched once.
+     * PDFBox reads a local PDF by random access, so the rest of that stream is drained through the
+     * digest afterwards instead.
+     *
+     * @return the number of pages or sections extracted and the document's checksum
+     * @throws IOException if the file cannot be read or its format is not supported
+     */
+    public Loaded stream(String path, int parallelism, PageNormalizer normalizer, PdfService.PageSink sink)
+            throws IOException, InterruptedException {
+        MessageDigest digest = IngestionManifest.sha256();
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, resourceName(path));
+        InputStream source = isUrl(path) ? URI.create(path).toURL().openStream() : Files.newInputStream(Path.of(path));
+        try (TikaInputStream input = TikaInputStream.get(new DigestInputStream(source, digest), new TemporaryResources(), metadata)) {
+            int parts = parse(path, input, metadata, parallelism, normalizer, sink);
+            input.transferTo(OutputStream.nullOutputStream());
+            return new Loaded(parts, HexFormat.of().formatHex(digest.digest()));
+        }
+    }
+
+    private int parse(String path, TikaInputStream input, Metadata metadata, int parallelism, PageNormalizer normalizer,
+                      PdfService.PageSink sink) throws IOException, InterruptedException {
+        MediaType type = parser.getDetector().detect(input, metadata).getBaseType();
+        if (type.equals(PDF)) {
+            // PDFBox needs random access: a URL is spooled to a temporary file, a local file is read in place
+            return pdfs.streamPdf(isUrl(path) ? input.getPath().toString() : path, parallelism, normalizer, sink);
+        }
+        if (!SECTIONED.contains(type)) {
+            throw new IOException("Unsupported content type " + type + " of " + path);
+        }
+        log.info("Parsing {} as {}", path, type);
+        metadata.set(Metadata.CONTENT_TYPE, type.toString());
+        SectionHandler handler = new SectionHandler(sink);
+        try {
+            parser.parse(input, handler, metadata, parseContext());
+        } catch (SAXException | TikaException e) {
+            // the handler wraps an interrupted hand-over in an InterruptedIOException
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+                    Thread.interrupted();
+                    InterruptedException interrupted = new InterruptedException("Interrupted while parsing " + path);
+                    interrupted.initCause(e);
+                    throw interrupted;
+                }
+            }
+            throw new IOException("Failed to parse " + path, e);
+        }
+        return handler.sections;
+    }
+
+    private static String resourceName(String path) {
+        String name = isUrl(path) ? URI.create(path).getPath() : String.valueOf(Path.of(path).getFileName());
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    private static ParseContext parseContext() {
+        OfficeParserConfig office = new OfficeParserConfig();
+        office.setUseSAXDocxExtractor(true);
+        ParseContext context = new ParseContext();
+        context.set(OfficeParserConfig.class, office);
+        return context;
+    }
+
+    private static boolean isUrl(String path) {
+        return path.startsWith("http://") || path.startsWith("https://");
+    }
+
+    /**
+     * Collects the text of the XHTML events Tika produces, which already carry a line break after
+     * each block element, and emits it in sections.
+     */
+    private static class SectionHandler extends DefaultHandler {
+        private static final Set<String> HEADINGS = Set.of("h1", "h2", "h3", "h4", "h5", "h6");
+
+        private final PdfService.PageSink sink;
+        private final StringBuilder text = new StringBuilder(MAX_SECTION_CHARS + 1024);
+        private int sections;
+
+        // Times the parsing of the section being accumulated; restarted after each hand-over
+        private FlightEvents.SectionExtraction extraction = new FlightEvents.SectionExtraction();
+
+        SectionHandler(PdfService.PageSink sink) {
+            this.sink = sink;
+            extraction.begin();
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if (HEADINGS.contains(localName) && text.length() >= MIN_SECTION_CHARS) {
+                emit(text.length());
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            text.append(ch, start, length);
+            while (text.length() >= MAX_SECTION_CHARS) {
+                emit(breakBefore(MAX_SECTION_CHARS));
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            emit(text.length());
+        }
+
+        /**
+         * Position of the last line break, or else space, before {@code limit}, so sections end
+         * between words.
+         */
+        private int breakBefore(int limit) {
+            int at = text.lastIndexOf("\n", limit - 1);
+            if (at < MIN_SECTION_CHARS) {
+                at = text.lastIndexOf(" ", limit - 1);
+            }
+            return at < MIN_SECTION_CHARS ? limit : at + 1;
+        }
+
+        private void emit(int end) throws SAXException {
+            String section = text.substring(0, end).strip();
+            text.delete(0, end);
+            if (section.isEmpty()) {
+                return;
+            }
+            sections++;
+            extraction.finish(sections, section.length());
+            try {
+                sink.accept(new Document(section, Map.of("section", String.valueOf(sections))));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException(new InterruptedIOException("Interrupted while handing over section " + sections));
+            }
+            extraction = new FlightEvents.SectionExtraction();
+            extraction.begin();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.hseabra.demo_rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * The process-wide concurrency limiters in front of the external services. With virtual threads the
+ * number of threads no longer bounds the load we put on Azure OpenAI or Elasticsearch; these do.
+ */
+@Component
+public class DownstreamLimiters implements MeterBinder {
+    private final AdaptiveConcurrencyLimiter embeddings;
+    private final AdaptiveConcurrencyLimiter elasticsearch;
+
+    public DownstreamLimiters(RagProperties ragProperties) {
+        RagProperties.Limits limits = ragProperties.getLimits();
+        this.embeddings = create("embeddings", limits.getEmbeddings());
+        this.elasticsearch = create("elasticsearch", limits.getElasticsearch());
+    }
+
+    private static AdaptiveConcurrencyLimiter create(String name, RagProperties.Limit limit) {
+        return new AdaptiveConcurrencyLimiter(name, limit.getInitial(), limit.getMin(), limit.getMax(),
+                limit.getLatencyTolerance(), limit.getInteractiveReserve());
+    }
+
+    public AdaptiveConcurrencyLimiter embeddings() {
+        return embeddings;
+    }
+
+    public AdaptiveConcurrencyLimiter elasticsearch() {
+        return elasticsearch;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        embeddings.bindTo(registry);
+        elasticsearch.bindTo(registry);
+    }
+}
@@ -1,22 +1,40 @@
 package com.hseabra.demo_rag;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.Header;
+import org.apache.http.HttpHost;
 import org.apache.http.message.BasicHeader;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.model.azure.openai.autoconfigure.AzureOpenAIClientBuilderCustomizer;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.elasticsearch.ElasticsearchVectorStore;
 import org.springframework.ai.vectorstore.elasticsearch.ElasticsearchVectorStoreOptions;
+import org.springframework.ai.vectorstore.elasticsearch.SimilarityFunction;
 import org.springframework.ai.vectorstore.elasticsearch.autoconfigure.ElasticsearchVectorStoreProperties;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 @Configuration
 @AllArgsConstructor
@@ -26,31 +44,176 @@ public class ElasticConfig {
     public RestClient restClient(@Value("${spring.ai.vectorstore.elasticsearch.cloudId}") String cloudId,
                                  @Value("${spring.ai.vectorstore.elasticsearch.apiKey}") String apiKey) {
         log.info("Creating elastic search rest client instance: cloudId={}", cloudId);
-        return RestClient.builder(cloudId)
+        // a URL instead of a cloud id points at a self-managed cluster, e.g. a local one or the load-test stand-in
+        RestClientBuilder builder = cloudId.startsWith("http://") || cloudId.startsWith("https://")
+                ? RestClient.builder(HttpHost.create(cloudId))
+                : RestClient.builder(cloudId);
+        return builder
                 .setDefaultHeaders(new Header[]{
                         new BasicHeader("Authorization", "ApiKey " + apiKey)
                 })
                 .build();
     }
 
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression("${rag.embedding-cache.enabled:true} and '${rag.embedding-cache.directory:}' != ''")
+    public EmbeddingCacheFile embeddingCacheFile(RagProperties ragProperties, ElasticsearchVectorStoreProperties properties) throws IOException {
+        Path file = Path.of(ragProperties.getEmbeddingCache().getDirectory(), "embeddings-" + properties.getDimensions() + ".bin");
+        return new EmbeddingCacheFile(file, properties.getDimensions());
+    }
+
+    @Bean(destroyMethod = "close")
+    public ParentChunkStore parentChunkStore(RagProperties ragProperties) throws IOException {
+        return new ParentChunkStore(Path.of(ragProperties.getParentStore().getDirectory(), "parents.bin"));
+    }
+
+    @Bean
+    public VectorStoreFactory vectorStoreFactory(RestClient restClient, EmbeddingModel embeddingModel, ElasticsearchVectorStoreProperties properties,
+                                                 RagProperties ragProperties, ObjectProvider<EmbeddingCacheFile> embeddingCacheFile,
+                                                 @Value("${spring.ai.azure.openai.embedding.options.deployment-name}") String embeddingDeployment) {
+        // The concurrency limit is applied per HTTP attempt by the EmbeddingLimitPolicy, below the cache
+        RagProperties.EmbeddingCache cache = ragProperties.getEmbeddingCache();
+        if (cache.isEnabled()) {
+            embeddingModel = new CachingEmbeddingModel(embeddingModel, embeddingDeployment, cache.getMemoryEntries(),
+                    embeddingCacheFile.getIfAvailable());
+        }
+        return new VectorStoreFactory(restClient, embeddingModel, properties, ragProperties.getVectorStore(),
+                ragProperties.getVectorMapping());
+    }
+
+    @Bean
+    public EmbeddingLimitPolicy embeddingLimitPolicy(DownstreamLimiters limiters) {
+        return new EmbeddingLimitPolicy(limiters.embeddings());
+    }
+
+    /**
+     * Adds the embeddings concurrency limit to the Azure OpenAI client pipeline, after its retry policy.
+     */
+    @Bean
+    public AzureOpenAIClientBuilderCustomizer embeddingLimitCustomizer(EmbeddingLimitPolicy embeddingLimitPolicy) {
+        return builder -> builder.addPolicy(embeddingLimitPolicy);
+    }
+
+    /**
+     * Publishes the embedding cache hit/miss counters when a meter registry is present.
+     */
     @Bean
-    public VectorStoreFactory vectorStoreFactory(RestClient restClient, EmbeddingModel embeddingModel, ElasticsearchVectorStoreProperties properties) {
-        return new VectorStoreFactory(restClient, embeddingModel, properties);
+    public MeterBinder embeddingCacheMetrics(VectorStoreFactory vectorStoreFactory) {
+        return registry -> {
+            if (vectorStoreFactory.getEmbeddingModel() instanceof CachingEmbeddingModel cache) {
+                cache.bindTo(registry);
+            }
+        };
     }
 
     /**
-     * Factory for creating VectorStore instances with different index names
+     * Factory for creating VectorStore instances with different index names. Each index is backed by
+     * Elasticsearch or by an in-process {@link HnswVectorStore}, as configured under
+     * {@code rag.vector-store}. Elasticsearch indexes are created with the mapping profile configured
+     * under {@code rag.vector-mapping}.
      */
-    public static class VectorStoreFactory {
+    public static class VectorStoreFactory implements AutoCloseable {
         private final RestClient restClient;
         private final EmbeddingModel embeddingModel;
+        // what the stores embed through, so batched writes can hand them vectors computed beforehand
+        private final PrecomputedEmbeddingModel storeEmbeddingModel;
         private final ElasticsearchVectorStoreProperties properties;
+        private final RagProperties.VectorStoreSettings settings;
+        private final RagProperties.VectorMapping mapping;
+        private final ElasticsearchClient elasticsearchClient;
+        private final VectorIndexInitializer indexInitializer;
         private final Map<String, VectorStore> vectorStoreCache = new ConcurrentHashMap<>();
 
         public VectorStoreFactory(RestClient restClient, EmbeddingModel embeddingModel, ElasticsearchVectorStoreProperties properties) {
+            this(restClient, embeddingModel, properties, new RagProperties.VectorStoreSettings(), new RagProperties.VectorMapping());
+        }
+
+        public VectorStoreFactory(RestClient restClient, EmbeddingModel embeddingModel, ElasticsearchVectorStoreProperties properties,
+                                  RagProperties.VectorStoreSettings settings, RagProperties.VectorMapping mapping) {
             this.restClient = restClient;
             this.embeddingModel = embeddingModel;
+            this.storeEmbeddingModel = new PrecomputedEmbeddingModel(embeddingModel);
             this.properties = properties;
+            this.settings = settings;
+            this.mapping = mapping;
+            this.elasticsearchClient = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper()));
+            this.indexInitializer = new VectorIndexInitializer(elasticsearchClient, getEmbeddingFieldName(),
+                    properties.getDimensions(), properties.getSimilarity());
+        }
+
+        /**
+         * Mapping and kNN search settings of an Elasticsearch index
+         */
+        public RagProperties.MappingProfile getMappingProfile(String indexName) {
+            return mapping.forIndex(indexName);
+        }
+
+        /**
+         * Reindexes an Elasticsearch index into a new index with its configured mapping profile and
+         * swaps the name over; see {@link VectorIndexInitializer#migrate}.
+         */
+        public VectorIndexInitializer.Migration migrateIndex(String indexName) throws IOException {
+            if (getBackend(indexName) != VectorBackend.ELASTICSEARCH) {
+                throw new IllegalArgumentException("Index " + indexName + " is not stored in Elasticsearch");
+            }
+            return indexInitializer.migrate(indexName, getMappingProfile(indexName));
+        }
+
+        public VectorBackend getBackend(String indexName) {
+            return settings.forIndex(indexName);
+        }
+
+        /**
+         * Client for requests the VectorStore API does not cover, such as searching with a precomputed vector
+         */
+        public ElasticsearchClient getElasticsearchClient() {
+            return elasticsearchClient;
+        }
+
+        public SimilarityFunction getSimilarity() {
+            return properties.getSimilarity();
+        }
+
+        public String getEmbeddingFieldName() {
+            return new ElasticsearchVectorStoreOptions().getEmbeddingFieldName();
+        }
+
+        /**
+         * The embedding model shared by every store, including the cache in front of it if enabled
+         */
+        public EmbeddingModel getEmbeddingModel() {
+            return embeddingModel;
+        }
+
+        /**
+         * Runs a write with the vectors of the texts already computed, so the stores do not embed them
+         * again; see {@link PrecomputedEmbeddingModel}.
+         */
+        public void withEmbeddings(List<String> texts, List<float[]> vectors, Runnable write) {
+            storeEmbeddingModel.withEmbeddings(texts, vectors, write);
+        }
+
+        /**
+         * Names of the indexes stored in process: those configured for the HNSW backend and, if it is
+         * the default backend, every index with a directory under the HNSW data directory.
+         */
+        public Set<String> getHnswIndexNames() throws IOException {
+            Set<String> names = new TreeSet<>();
+            settings.getIndexes().forEach((name, backend) -> {
+                if (backend == VectorBackend.HNSW) {
+                    names.add(name);
+                }
+            });
+            Path directory = Path.of(settings.getHnsw().getDirectory());
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> entries = Files.list(directory)) {
+                    entries.filter(Files::isDirectory)
+                            .map(entry -> entry.getFileName().toString())
+                            .filter(name -> getBackend(name) == VectorBackend.HNSW)
+                            .forEach(names::add);
+                }
+            }
+            return names;
         }
 
         /**
@@ -58,17 +221,45 @@ public class ElasticConfig {
          */
         public VectorStore getVectorStore(String indexName) {
             return vectorStoreCache.computeIfAbsent(indexName, key -> {
-                log.info("Creating VectorStore for index: {}", indexName);
+                log.info("Creating {} VectorStore for index: {}", getBackend(indexName), indexName);
+                if (getBackend(indexName) == VectorBackend.HNSW) {
+                    try {
+                        return new HnswVectorStore(indexName, Path.of(settings.getHnsw().getDirectory(), indexName),
+                                storeEmbeddingModel, properties.getDimensions(), settings.getHnsw());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                if (properties.isInitializeSchema()) {
+                    try {
+                        indexInitializer.ensureIndex(indexName, getMappingProfile(indexName));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
                 ElasticsearchVectorStoreOptions options = new ElasticsearchVectorStoreOptions();
                 options.setIndexName(indexName);
                 options.setDimensions(properties.getDimensions());
                 options.setSimilarity(properties.getSimilarity());
-                return ElasticsearchVectorStore.builder(restClient, embeddingModel)
+                return ElasticsearchVectorStore.builder(restClient, storeEmbeddingModel)
                         .options(options)
-                        .initializeSchema(properties.isInitializeSchema())
+                        // the index is created above with its mapping profile
+                        .initializeSchema(false)
                         .batchingStrategy(new TokenCountBatchingStrategy())
                         .build();
             });
         }
+
+        /**
+         * Closes the in-process stores, writing their graph snapshots.
+         */
+        @Override
+        public void close() throws IOException {
+            for (VectorStore store : vectorStoreCache.values()) {
+                if (store instanceof HnswVectorStore hnsw) {
+                    hnsw.close();
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,170 @@
+package com.hseabra.demo_rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Append-only, memory-mapped file of fixed-width embedding records addressed by a SHA-256 key.
+ * <p>
+ * Layout: a 16-byte header (magic, version, dimensions, record count) followed by records of
+ * {@code 32 + 4 * dimensions} bytes (key, then the float vector). The file is mapped in segments
+ * of {@link #RECORDS_PER_SEGMENT} records. The record count is written after the record itself,
+ * so a crash can lose at most the record being appended. Only the key-to-slot index lives on heap.
+ */
+@Slf4j
+public class EmbeddingCacheFile implements Closeable {
+    private static final int MAGIC = 0x454d4243; // "EMBC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int KEY_BYTES = 32;
+    private static final int RECORDS_PER_SEGMENT = 4096;
+
+    private final FileChannel channel;
+    private final int dimensions;
+    private final int recordBytes;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final Map<Key, Integer> slots = new ConcurrentHashMap<>();
+    private int count;
+
+    public EmbeddingCacheFile(Path file, int dimensions) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.dimensions = dimensions;
+        this.recordBytes = KEY_BYTES + 4 * dimensions;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = channel.size() < HEADER_BYTES;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+
+        if (!fresh && (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != dimensions)) {
+            log.warn("Embedding cache {} has an incompatible layout (dimensions={}), starting empty", file, header.getInt(8));
+            channel.truncate(HEADER_BYTES);
+            fresh = true;
+        }
+        if (fresh) {
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, dimensions).putInt(12, 0);
+            header.force();
+        }
+
+        int stored = header.getInt(12);
+        byte[] keyBytes = new byte[KEY_BYTES];
+        for (int slot = 0; slot < stored; slot++) {
+            ByteBuffer segment = segmentFor(slot);
+            segment.get(offsetInSegment(slot), keyBytes);
+            slots.put(Key.of(keyBytes), slot);
+        }
+        this.count = stored;
+        log.info("Opened embedding cache {} with {} vectors of {} dimensions", file, stored, dimensions);
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns a copy of the stored vector, or null if the key is unknown.
+     */
+    public float[] get(Key key) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            return null;
+        }
+        float[] vector = new float[dimensions];
+        segments.get(slot / RECORDS_PER_SEGMENT)
+                .slice(offsetInSegment(slot) + KEY_BYTES, 4 * dimensions)
+                .asFloatBuffer()
+                .get(vector);
+        return vector;
+    }
+
+    /**
+     * Appends a vector unless the key is already present. Vectors of the wrong width are ignored.
+     */
+    public synchronized void put(Key key, float[] vector) throws IOException {
+        if (vector.length != dimensions || slots.containsKey(key)) {
+            return;
+        }
+        int slot = count;
+        ByteBuffer segment = segmentFor(slot);
+        int offset = offsetInSegment(slot);
+        segment.slice(offset + KEY_BYTES, 4 * dimensions).asFloatBuffer().put(vector);
+        key.writeTo(segment, offset);
+        count = slot + 1;
+        header.putInt(12, count);
+        slots.put(key, slot);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        channel.close();
+    }
+
+    private int offsetInSegment(int slot) {
+        return (slot % RECORDS_PER_SEGMENT) * recordBytes;
+    }
+
+    private ByteBuffer segmentFor(int slot) throws IOException {
+        int index = slot / RECORDS_PER_SEGMENT;
+        while (segments.size() <= index) {
+            long position = HEADER_BYTES + (long) segments.size() * RECORDS_PER_SEGMENT * recordBytes;
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) RECORDS_PER_SEGMENT * recordBytes));
+        }
+        return segments.get(index);
+    }
+
+    /**
+     * 256-bit content hash identifying one embedding.
+     */
+    public record Key(long h0, long h1, long h2, long h3) {
+        private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        /**
+         * Hashes the model name and text; the model is part of the key because vectors from
+         * different models or deployments are not interchangeable.
+         */
+        public static Key of(String model, String text) {
+            MessageDigest digest = SHA_256.get();
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return of(digest.digest());
+        }
+
+        static Key of(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new Key(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+
+        void writeTo(ByteBuffer buffer, int offset) {
+            buffer.putLong(offset, h0).putLong(offset + 8, h1).putLong(offset + 16, h2).putLong(offset + 24, h3);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.hseabra.demo_rag;
+
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpPipelineNextSyncPolicy;
+import com.azure.core.http.HttpPipelinePosition;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import reactor.core.publisher.Mono;
+
+/**
+ * Azure OpenAI pipeline policy that runs every attempt of an embeddings request under an
+ * {@link AdaptiveConcurrencyLimiter}, so ingestion and queries together never exceed the number of
+ * concurrent requests the embedding deployment currently accepts. It runs after the SDK's retry policy:
+ * a permit covers one HTTP attempt, not the SDK's backoff between attempts, and every 429 the SDK
+ * retries reaches the limiter. Chat requests pass through.
+ * <p>
+ * Spring AI's embedding model uses the synchronous client; asynchronous requests are not limited.
+ */
+public class EmbeddingLimitPolicy implements HttpPipelinePolicy {
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public EmbeddingLimitPolicy(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public HttpResponse processSync(HttpPipelineCallContext context, HttpPipelineNextSyncPolicy next) {
+        if (!isEmbeddings(context)) {
+            return next.processSync();
+        }
+        return limiter.execute(next::processSync, response -> response.getStatusCode() == TOO_MANY_REQUESTS);
+    }
+
+    @Override
+    public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+        return next.process();
+    }
+
+    @Override
+    public HttpPipelinePosition getPipelinePosition() {
+        return HttpPipelinePosition.PER_RETRY;
+    }
+
+    private static boolean isEmbeddings(HttpPipelineCallContext context) {
+        return context.getHttpRequest().getUrl().getPath().endsWith("/embeddings");
+    }
+}
@@ -0,0 +1,221 @@
+package com.hseabra.demo_rag;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * JDK Flight Recorder events for the ingestion and query hot paths. They cost next to nothing while
+ * not enabled; {@code src/main/resources/jfr/rag.jfc} enables them together with a low-overhead set
+ * of JDK events for continuous recording. Each event is created and begun before the work and
+ * finished with its sizes after it; fields are only filled in when the event will be committed.
+ */
+public final class FlightEvents {
+    private static final String CATEGORY = "RAG";
+
+    private FlightEvents() {
+    }
+
+    @Name("com.hseabra.rag.PageExtraction")
+    @Label("PDF Page Extraction")
+    @Description("Text extraction of one PDF page; includes normalization when pages are extracted sequentially")
+    @Category({CATEGORY, "Ingestion"})
+    @StackTrace(false)
+    public static class PageExtraction extends Event {
+        @Label("Page")
+        int page;
+
+        @Label("Characters")
+        int characters;
+
+        public void finish(int page, int characters) {
+            end();
+            if (shouldCommit()) {
+                this.page = page;
+                this.characters = characters;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.hseabra.rag.SectionExtraction")
+    @Label("Section Extraction")
+    @Description("Tika parsing of one section of a non-PDF document, up to its hand-over to the chunker; "
+            + "time blocked on the hand-over is not included")
+    @Category({CATEGORY, "Ingestion"})
+    @StackTrace(false)
+    public static class SectionExtraction extends Event {
+        @Label("Section")
+        int section;
+
+        @Label("Characters")
+        int characters;
+
+        public void finish(int section, int characters) {
+            end();
+            if (shouldCommit()) {
+                this.section = section;
+                this.characters = characters;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.hseabra.rag.ChunkSplit")
+    @Label("Chunk Split")
+    @Description("Split of one window of page text into chunks")
+    @Category({CATEGORY, "Ingestion"})
+    @StackTrace(false)
+    public static class ChunkSplit extends Event {
+        @Label("Index")
+        String index;
+
+        @Label("Chunking Mode")
+        String mode;
+
+        @Label("Input Characters")
+        int characters;
+
+        @Label("Chunks")
+        int chunks;
+
+        public void finish(String index, ChunkingMode mode, int characters, int chunks) {
+            end();
+            if (shouldCommit()) {
+                this.index = index;
+                this.mode = mode.name();
+                this.characters = characters;
+                this.chunks = chunks;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.hseabra.rag.EmbeddingBatch")
+    @Label("Embedding Batch")
+    @Description("One embedding call for a batch of texts")
+    @Category({CATEGORY})
+    @StackTrace(false)
+    public static class EmbeddingBatch extends Event {
+        @Label("Index")
+        String index;
+
+        @Label("Texts")
+        int texts;
+
+        @Label("Estimated Tokens")
+        int tokens;
+
+        public void finish(String index, int texts, int tokens) {
+            end();
+            if (shouldCommit()) {
+                this.index = index;
+                this.texts = texts;
+                this.tokens = tokens;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.hseabra.rag.VectorStoreAdd")
+    @Label("Vector Store Add")
+    @Description("Write of a batch of chunks to one index")
+    @Category({CATEGORY, "Ingestion"})
+    @StackTrace(false)
+    public static class VectorStoreAdd extends Event {
+        @Label("Index")
+        String index;
+
+        @Label("Backend")
+        String backend;
+
+        @Label("Documents")
+        int documents;
+
+        @Label("Characters")
+        long characters;
+
+        public void finish(String index, VectorBackend backend, List<Document> documents) {
+            end();
+            if (shouldCommit()) {
+                this.index = index;
+                this.backend = backend.name();
+                this.documents = documents.size();
+                for (Document document : documents) {
+                    characters += document.getText().length();
+                }
+                commit();
+            }
+        }
+    }
+
+    @Name("com.hseabra.rag.SimilaritySearch")
+    @Label("Similarity Search")
+    @Description("kNN, BM25 or multi-search request")
+    @Category({CATEGORY, "Query"})
+    @StackTrace(false)
+    public static class SimilaritySearch extends Event {
+        @Label("Index")
+        String index;
+
+        @Label("Kind")
+        String kind;
+
+        @Label("Searches")
+        int searches;
+
+        @Label("Requested Hits")
+        int size;
+
+        @Label("Hits")
+        int hits;
+
+        public void finish(String index, String kind, int searches, int size, int hits) {
+            end();
+            if (shouldCommit()) {
+                this.index = index;
+                this.kind = kind;
+                this.searches = searches;
+                this.size = size;
+                this.hits = hits;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.hseabra.rag.ChatCall")
+    @Label("Chat Call")
+    @Description("Blocking answer generation by the chat model")
+    @Category({CATEGORY, "Query"})
+    @StackTrace(false)
+    public static class ChatCall extends Event {
+        @Label("Index")
+        String index;
+
+        @Label("Prompt Characters")
+        int promptCharacters;
+
+        @Label("Prompt Tokens")
+        int promptTokens;
+
+        @Label("Completion Tokens")
+        int completionTokens;
+
+        public void finish(String index, int promptCharacters, int promptTokens, int completionTokens) {
+            end();
+            if (shouldCommit()) {
+                this.index = index;
+                this.promptCharacters = promptCharacters;
+                this.promptTokens = promptTokens;
+                this.completionTokens = completionTokens;
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,889 @@
+package com.hseabra.demo_rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * In-process vector store for one index: vectors live in memory-mapped float segments, an HNSW graph
+ * over them answers approximate kNN queries. Vectors are normalized on insert and compared by dot
+ * product, so scores are cosine similarities, like the {@code cosine} Elasticsearch indexes.
+ * <p>
+ * Files in the index directory:
+ * <ul>
+ *   <li>{@code vectors.bin}: a 16-byte header (magic, version, dimensions, node count) and one vector
+ *   per node, in segments of {@link #SEGMENT_BYTES}.</li>
+ *   <li>{@code documents.log}: append-only log of added documents (node, id, text, metadata) and
+ *   deleted ids, replayed on open.</li>
+ *   <li>{@code graph.bin}: snapshot of the graph written on close. Nodes added after the last snapshot,
+ *   e.g. before a crash, are inserted again on open.</li>
+ * </ul>
+ * Deletes only tombstone a node: it stays in the graph to keep it navigable but is never returned.
+ * Re-adding an id tombstones its previous node. Once tombstones reach
+ * {@code rag.vector-store.hnsw.compaction-ratio} of the nodes, the index is rebuilt from its live
+ * documents, which shrinks both files and the graph.
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore, Closeable {
+    private static final int MAGIC = 0x56454353; // "VECS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int GRAPH_MAGIC = 0x484e5357; // "HNSW"
+    private static final byte ADDED = 1;
+    private static final byte DELETED = 2;
+    private static final String COMPACTED_SUFFIX = ".compact";
+    private static final String REPLACED_SUFFIX = ".replaced";
+    private static final int COMPACTION_BATCH = 1024;
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final SpelExpressionParser SPEL = new SpelExpressionParser();
+
+    private final String name;
+    private final EmbeddingModel embeddingModel;
+    private final RagProperties.Hnsw config;
+    private final int dimensions;
+    private final int maxConnections;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final int nodesPerSegment;
+    private final Path directory;
+    private final Path graphFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random random = new Random(42);
+
+    // Replaced when the index is compacted
+    private FileChannel vectorChannel;
+    private FileChannel logChannel;
+    private MappedByteBuffer header;
+    private List<FloatBuffer> segments;
+
+    // Per node: neighbor lists by level, document id, text and metadata (null for nodes never logged)
+    private List<int[][]> links;
+    private List<String> ids;
+    private List<String> texts;
+    private List<Map<String, Object>> metadata;
+    private Map<String, Integer> nodeById;
+    private BitSet deleted;
+    private int entryPoint;
+    private int maxLevel;
+
+    public HnswVectorStore(String name, Path directory, EmbeddingModel embeddingModel, int dimensions,
+                           RagProperties.Hnsw config) throws IOException {
+        this.name = name;
+        this.embeddingModel = embeddingModel;
+        this.config = config;
+        this.dimensions = dimensions;
+        this.maxConnections = config.getMaxConnections();
+        this.efConstruction = config.getEfConstruction();
+        this.efSearch = config.getEfSearch();
+        this.levelMultiplier = 1 / Math.log(maxConnections);
+        this.nodesPerSegment = SEGMENT_BYTES / (dimensions * Float.BYTES);
+        this.directory = directory;
+        this.graphFile = directory.resolve("graph.bin");
+
+        recoverCompaction();
+        open();
+    }
+
+    /**
+     * Maps the index files and restores the documents and graph from them.
+     */
+    private void open() throws IOException {
+        segments = new ArrayList<>();
+        links = new ArrayList<>();
+        ids = new ArrayList<>();
+        texts = new ArrayList<>();
+        metadata = new ArrayList<>();
+        nodeById = new HashMap<>();
+        deleted = new BitSet();
+        entryPoint = -1;
+        maxLevel = -1;
+
+        Files.createDirectories(directory);
+        Path vectorFile = directory.resolve("vectors.bin");
+        Path logFile = directory.resolve("documents.log");
+        this.vectorChannel = FileChannel.open(vectorFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = vectorChannel.size() < HEADER_BYTES;
+        this.header = vectorChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+
+        if (!fresh && (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != dimensions)) {
+            log.warn("Vector store {} has an incompatible layout or dimensions, starting empty", directory);
+            vectorChannel.truncate(HEADER_BYTES);
+            logChannel.truncate(0);
+            Files.deleteIfExists(graphFile);
+            fresh = true;
+        }
+        if (fresh) {
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, dimensions).putInt(12, 0);
+            header.force();
+        }
+
+        int count = header.getInt(12);
+        if (count > 0) {
+            segmentFor(count - 1);
+        }
+        for (int node = 0; node < count; node++) {
+            ids.add(null);
+            texts.add(null);
+            metadata.add(null);
+        }
+        replayLog(count);
+        int restored = loadGraph(count);
+        for (int node = restored; node < count; node++) {
+            links.add(null);
+            insert(node, randomLevel());
+        }
+        log.info("Opened vector store {} with {} nodes ({} restored from snapshot, {} live documents)",
+                name, count, restored, nodeById.size());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        List<String> contents = documents.stream().map(Document::getText).toList();
+        addEmbedded(documents, embeddingModel.embed(contents));
+    }
+
+    /**
+     * Adds documents whose embeddings were already computed, in the same order.
+     */
+    public synchronized void addEmbedded(List<Document> documents, List<float[]> embeddings) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                float[] vector = normalized(embeddings.get(i));
+                int node = ids.size();
+                writeVector(node, vector);
+                appendAdded(node, document);
+                Integer previous = nodeById.put(document.getId(), node);
+                if (previous != null) {
+                    deleted.set(previous);
+                }
+                ids.add(document.getId());
+                texts.add(document.getText());
+                metadata.add(new HashMap<>(document.getMetadata()));
+                links.add(null);
+                insert(node, randomLevel());
+                header.putInt(12, node + 1);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfMostlyDeleted();
+    }
+
+    @Override
+    public synchronized void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    deleted.set(node);
+                    appendDeleted(id);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfMostlyDeleted();
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        Predicate<Map<String, Object>> filter = compile(filterExpression);
+        List<String> matching = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int node : nodeById.values()) {
+                if (filter.test(metadata.get(node))) {
+                    matching.add(ids.get(node));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        delete(matching);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        return search(query, request.getTopK(), request.getSimilarityThreshold(),
+                request.hasFilterExpression() ? request.getFilterExpression() : null);
+    }
+
+    /**
+     * Approximate kNN search with a precomputed query vector. Hits are mapped like
+     * {@code VectorSearchService} maps Elasticsearch hits: cosine score and {@code distance} metadata.
+     * With a filter, documents are matched while walking the graph; if that finds fewer than
+     * {@code topK}, the filtered documents are scanned exactly.
+     */
+    public List<Document> search(float[] queryVector, int topK, double similarityThreshold, Filter.Expression filterExpression) {
+        float[] query = normalized(queryVector);
+        Predicate<Map<String, Object>> filter = filterExpression == null ? null : compile(filterExpression);
+        lock.readLock().lock();
+        try {
+            if (entryPoint == -1) {
+                return List.of();
+            }
+            float[] scratch = new float[dimensions];
+            int ep = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                ep = greedyClosest(query, ep, level, scratch);
+            }
+            int ef = Math.max(efSearch, topK);
+            if (filter != null) {
+                ef = Math.max(ef, topK * 4);
+            }
+            List<Candidate> candidates = searchLayer(query, List.of(new Candidate(ep, similarity(query, ep, scratch))), ef, 0, scratch);
+
+            List<Document> results = collect(candidates, topK, similarityThreshold, filter);
+            if (filter != null && results.size() < topK) {
+                results = exactSearch(query, topK, similarityThreshold, filter, scratch);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stored (normalized) embeddings of the live documents among the ids; unknown ids are left out.
+     */
+    public Map<String, float[]> getEmbeddings(Collection<String> documentIds) {
+        Map<String, float[]> embeddings = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (String id : documentIds) {
+                Integer node = nodeById.get(id);
+                if (node != null) {
+                    float[] vector = new float[dimensions];
+                    readVector(node, vector);
+                    embeddings.put(id, vector);
+                }
+            }
+            return embeddings;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a graph snapshot and flushes the files, so the next open does not re-insert anything.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            writeGraph();
+            closeFiles();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        header.force();
+        vectorChannel.force(false);
+        logChannel.force(false);
+        vectorChannel.close();
+        logChannel.close();
+    }
+
+    // --- compaction ---
+
+    /**
+     * Rebuilds the index without its deleted nodes once they make up {@code compactionRatio} of all
+     * nodes: the live documents and vectors are added to a new index in a sibling directory, which is
+     * closed, so its graph snapshot is written, and then replaces this one. Writers are held off by
+     * the monitor for the whole rebuild; searches continue on the current index until the swap.
+     */
+    private void compactIfMostlyDeleted() {
+        int nodes = ids.size();
+        int dead = nodes - nodeById.size();
+        if (dead == 0 || dead < nodes * config.getCompactionRatio()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Path target = sibling(COMPACTED_SUFFIX);
+        try {
+            deleteDirectory(target);
+            try (HnswVectorStore compacted = new HnswVectorStore(name, target, embeddingModel, dimensions, config)) {
+                copyLiveDocuments(compacted);
+            }
+            lock.writeLock().lock();
+            try {
+                closeFiles();
+                Path replaced = sibling(REPLACED_SUFFIX);
+                Files.move(directory, replaced, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(target, directory, StandardCopyOption.ATOMIC_MOVE);
+                deleteDirectory(replaced);
+                open();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Compaction of vector store " + name + " failed", e);
+        }
+        log.info("Compacted vector store {}: {} of {} nodes were deleted, rebuilt in {}ms",
+                name, dead, nodes, System.currentTimeMillis() - start);
+    }
+
+    private void copyLiveDocuments(HnswVectorStore compacted) {
+        List<Document> documents = new ArrayList<>(COMPACTION_BATCH);
+        List<float[]> vectors = new ArrayList<>(COMPACTION_BATCH);
+        lock.readLock().lock();
+        try {
+            for (int node = 0; node < ids.size(); node++) {
+                if (!isLive(node)) {
+                    continue;
+                }
+                float[] vector = new float[dimensions];
+                readVector(node, vector);
+                documents.add(Document.builder().id(ids.get(node)).text(texts.get(node)).metadata(metadata.get(node)).build());
+                vectors.add(vector);
+                if (documents.size() == COMPACTION_BATCH) {
+                    compacted.addEmbedded(documents, vectors);
+                    documents.clear();
+                    vectors.clear();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!documents.isEmpty()) {
+            compacted.addEmbedded(documents, vectors);
+        }
+    }
+
+    /**
+     * Finishes or discards a compaction cut short by a crash. The rebuilt directory is complete
+     * once the index directory has been moved aside, so it is moved in if the index directory is
+     * missing; otherwise it is deleted.
+     */
+    private void recoverCompaction() throws IOException {
+        Path compacted = sibling(COMPACTED_SUFFIX);
+        Path replaced = sibling(REPLACED_SUFFIX);
+        if (Files.isDirectory(compacted)) {
+            if (!Files.exists(directory) && Files.isDirectory(replaced)) {
+                log.warn("Vector store {}: completing an interrupted compaction", name);
+                Files.move(compacted, directory, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                deleteDirectory(compacted);
+            }
+        }
+        deleteDirectory(replaced);
+    }
+
+    private Path sibling(String suffix) {
+        return directory.resolveSibling(directory.getFileName() + suffix);
+    }
+
+    private static void deleteDirectory(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(path);
+    }
+
+    // --- HNSW ---
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? 2 * maxConnections : maxConnections;
+    }
+
+    private void insert(int node, int level) {
+        links.set(node, new int[level + 1][]);
+        for (int l = 0; l <= level; l++) {
+            links.get(node)[l] = new int[0];
+        }
+        if (entryPoint == -1) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        float[] vector = new float[dimensions];
+        float[] scratch = new float[dimensions];
+        readVector(node, vector);
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(vector, ep, l, scratch);
+        }
+        List<Candidate> entryPoints = List.of(new Candidate(ep, similarity(vector, ep, scratch)));
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(vector, entryPoints, efConstruction, l, scratch);
+            int[] neighbors = selectNeighbors(candidates, maxConnections(l), scratch);
+            links.get(node)[l] = neighbors;
+            for (int neighbor : neighbors) {
+                connect(neighbor, node, l, vector, scratch);
+            }
+            entryPoints = candidates;
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * Adds a back link from {@code node} to the new node, pruning {@code node}'s neighbors with the
+     * selection heuristic when it exceeds the connection limit.
+     */
+    private void connect(int node, int newNode, int level, float[] newVector, float[] scratch) {
+        int[] current = links.get(node)[level];
+        int[] extended = new int[current.length + 1];
+        System.arraycopy(current, 0, extended, 0, current.length);
+        extended[current.length] = newNode;
+        if (extended.length <= maxConnections(level)) {
+            links.get(node)[level] = extended;
+            return;
+        }
+        float[] vector = new float[dimensions];
+        readVector(node, vector);
+        List<Candidate> candidates = new ArrayList<>(extended.length);
+        for (int neighbor : extended) {
+            candidates.add(new Candidate(neighbor, neighbor == newNode ? dot(vector, newVector) : similarity(vector, neighbor, scratch)));
+        }
+        candidates.sort(Candidate.BEST_FIRST);
+        links.get(node)[level] = selectNeighbors(candidates, maxConnections(level), scratch);
+    }
+
+    /**
+     * Neighbor selection heuristic of the HNSW paper: a candidate is kept only if it is closer to the
+     * base node than to any neighbor kept so far, which spreads links across directions. Remaining
+     * slots are filled with the closest pruned candidates. {@code candidates} is sorted best first.
+     */
+    private int[] selectNeighbors(List<Candidate> candidates, int limit, float[] scratch) {
+        int[] selected = new int[Math.min(limit, candidates.size())];
+        int count = 0;
+        List<Candidate> pruned = new ArrayList<>();
+        float[] candidateVector = new float[dimensions];
+        for (Candidate candidate : candidates) {
+            if (count == selected.length) {
+                break;
+            }
+            readVector(candidate.node, candidateVector);
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (similarity(candidateVector, selected[i], scratch) > candidate.similarity) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate.node;
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; count < selected.length && i < pruned.size(); i++) {
+            selected[count++] = pruned.get(i).node;
+        }
+        return selected;
+    }
+
+    private int greedyClosest(float[] query, int entry, int level, float[] scratch) {
+        int best = entry;
+        float bestSimilarity = similarity(query, entry, scratch);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbor : links.get(best)[level]) {
+                float s = similarity(query, neighbor, scratch);
+                if (s > bestSimilarity) {
+                    best = neighbor;
+                    bestSimilarity = s;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Best-first search of one layer; returns up to {@code ef} nodes sorted best first.
+     */
+    private List<Candidate> searchLayer(float[] query, List<Candidate> entryPoints, int ef, int level, float[] scratch) {
+        BitSet visited = new BitSet(links.size());
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(Candidate.BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Candidate.BEST_FIRST.reversed());
+        for (Candidate entry : entryPoints) {
+            visited.set(entry.node);
+            frontier.add(entry);
+            results.add(entry);
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+        while (!frontier.isEmpty()) {
+            Candidate current = frontier.poll();
+            if (results.size() >= ef && current.similarity < results.peek().similarity) {
+                break;
+            }
+            for (int neighbor : links.get(current.node)[level]) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float s = similarity(query, neighbor, scratch);
+                if (results.size() < ef || s > results.peek().similarity) {
+                    Candidate candidate = new Candidate(neighbor, s);
+                    frontier.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Candidate.BEST_FIRST);
+        return sorted;
+    }
+
+    private List<Document> collect(List<Candidate> candidates, int topK, double threshold,
+                                   Predicate<Map<String, Object>> filter) {
+        List<Document> documents = new ArrayList<>(topK);
+        for (Candidate candidate : candidates) {
+            if (documents.size() == topK || candidate.similarity < threshold) {
+                break;
+            }
+            if (isLive(candidate.node) && (filter == null || filter.test(metadata.get(candidate.node)))) {
+                documents.add(toDocument(candidate));
+            }
+        }
+        return documents;
+    }
+
+    private List<Document> exactSearch(float[] query, int topK, double threshold, Predicate<Map<String, Object>> filter,
+                                       float[] scratch) {
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Candidate.BEST_FIRST.reversed());
+        for (int node : nodeById.values()) {
+            if (!filter.test(metadata.get(node))) {
+                continue;
+            }
+            float s = similarity(query, node, scratch);
+            if (s >= threshold) {
+                best.add(new Candidate(node, s));
+                if (best.size() > topK) {
+                    best.poll();
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(best);
+        sorted.sort(Candidate.BEST_FIRST);
+        return sorted.stream().map(this::toDocument).toList();
+    }
+
+    private boolean isLive(int node) {
+        return !deleted.get(node) && ids.get(node) != null;
+    }
+
+    private Document toDocument(Candidate candidate) {
+        Map<String, Object> documentMetadata = new HashMap<>(metadata.get(candidate.node));
+        documentMetadata.put("distance", 1 - candidate.similarity);
+        return Document.builder()
+                .id(ids.get(candidate.node))
+                .text(texts.get(candidate.node))
+                .metadata(documentMetadata)
+                .score((double) candidate.similarity)
+                .build();
+    }
+
+    private static Predicate<Map<String, Object>> compile(Filter.Expression filterExpression) {
+        Expression expression = SPEL.parseExpression(new SimpleVectorStoreFilterExpressionConverter().convertExpression(filterExpression));
+        return documentMetadata -> {
+            if (documentMetadata == null) {
+                return false;
+            }
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setVariable("metadata", documentMetadata);
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private record Candidate(int node, float similarity) {
+        static final Comparator<Candidate> BEST_FIRST = Comparator.comparingDouble((Candidate c) -> c.similarity).reversed();
+    }
+
+    // --- vectors ---
+
+    private float[] normalized(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] unit = new float[dimensions];
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            unit[i] = vector[i] * scale;
+        }
+        return unit;
+    }
+
+    private float similarity(float[] query, int node, float[] scratch) {
+        readVector(node, scratch);
+        return dot(query, scratch);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private void readVector(int node, float[] target) {
+        segments.get(node / nodesPerSegment).get((node % nodesPerSegment) * dimensions, target);
+    }
+
+    private void writeVector(int node, float[] vector) throws IOException {
+        segmentFor(node).put((node % nodesPerSegment) * dimensions, vector);
+    }
+
+    private FloatBuffer segmentFor(int node) throws IOException {
+        int index = node / nodesPerSegment;
+        while (segments.size() <= index) {
+            long start = HEADER_BYTES + (long) segments.size() * nodesPerSegment * dimensions * Float.BYTES;
+            MappedByteBuffer mapped = vectorChannel.map(FileChannel.MapMode.READ_WRITE, start, (long) nodesPerSegment * dimensions * Float.BYTES);
+            segments.add(mapped.asFloatBuffer());
+        }
+        return segments.get(index);
+    }
+
+    // --- documents log ---
+
+    private void appendAdded(int node, Document document) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ADDED);
+        out.writeInt(node);
+        writeBytes(out, document.getId().getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, document.getText().getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, JSON.writeValueAsBytes(document.getMetadata()));
+        append(bytes);
+    }
+
+    private void appendDeleted(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DELETED);
+        writeBytes(out, id.getBytes(StandardCharsets.UTF_8));
+        append(bytes);
+    }
+
+    private void append(ByteArrayOutputStream bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long position = logChannel.size();
+        while (buffer.hasRemaining()) {
+            position += logChannel.write(buffer, position);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Restores ids, texts and metadata of nodes below {@code count}. The log is truncated at a record
+     * cut short by a crash, or at the first record of a node whose vector count was never committed
+     * to the header, since that node number will be reused.
+     */
+    private void replayLog(int count) throws IOException {
+        long valid = 0;
+        InputStream stream = Channels.newInputStream(logChannel.position(0));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == ADDED) {
+                    int node = in.readInt();
+                    byte[] id = readBytes(in);
+                    byte[] text = readBytes(in);
+                    byte[] json = readBytes(in);
+                    if (node >= count) {
+                        break;
+                    }
+                    valid += 1 + 4 + 12 + id.length + text.length + json.length;
+                    String documentId = new String(id, StandardCharsets.UTF_8);
+                    ids.set(node, documentId);
+                    texts.set(node, new String(text, StandardCharsets.UTF_8));
+                    metadata.set(node, JSON.readValue(json, new TypeReference<Map<String, Object>>() {
+                    }));
+                    Integer previous = nodeById.put(documentId, node);
+                    if (previous != null) {
+                        deleted.set(previous);
+                    }
+                } else if (type == DELETED) {
+                    byte[] id = readBytes(in);
+                    valid += 1 + 4 + id.length;
+                    Integer node = nodeById.remove(new String(id, StandardCharsets.UTF_8));
+                    if (node != null) {
+                        deleted.set(node);
+                    }
+                } else {
+                    throw new EOFException("Unknown record type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // end of log, or a record cut short
+        }
+        if (valid < logChannel.size()) {
+            log.warn("Vector store {}: dropping {} bytes of incomplete log records", name, logChannel.size() - valid);
+            logChannel.truncate(valid);
+        }
+        // nodes whose vector was written but whose record was not logged are unreachable as results
+        for (int node = 0; node < count; node++) {
+            if (ids.get(node) == null) {
+                deleted.set(node);
+                metadata.set(node, Map.of());
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // --- graph snapshot ---
+
+    private void writeGraph() throws IOException {
+        Path temp = graphFile.resolveSibling(graphFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(GRAPH_MAGIC);
+            out.writeInt(links.size());
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int[][] levels : links) {
+                out.writeByte(levels.length);
+                for (int[] neighbors : levels) {
+                    out.writeShort(neighbors.length);
+                    for (int neighbor : neighbors) {
+                        out.writeInt(neighbor);
+                    }
+                }
+            }
+        }
+        Files.move(temp, graphFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the graph snapshot if it matches the vector file.
+     *
+     * @return number of nodes restored
+     */
+    private int loadGraph(int count) throws IOException {
+        if (!Files.exists(graphFile)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graphFile)))) {
+            int nodes = in.readInt() == GRAPH_MAGIC ? in.readInt() : Integer.MAX_VALUE;
+            if (nodes > count) {
+                log.warn("Vector store {}: graph snapshot does not match the vectors, rebuilding", name);
+                return 0;
+            }
+            int snapshotEntry = in.readInt();
+            int snapshotMaxLevel = in.readInt();
+            for (int node = 0; node < nodes; node++) {
+                int[][] levels = new int[in.readUnsignedByte()][];
+                for (int level = 0; level < levels.length; level++) {
+                    levels[level] = new int[in.readUnsignedShort()];
+                    for (int i = 0; i < levels[level].length; i++) {
+                        levels[level][i] = in.readInt();
+                    }
+                }
+                links.add(levels);
+            }
+            entryPoint = snapshotEntry;
+            maxLevel = snapshotMaxLevel;
+            return nodes;
+        } catch (EOFException e) {
+            log.warn("Vector store {}: graph snapshot is truncated, rebuilding", name);
+            links.clear();
+            entryPoint = -1;
+            maxLevel = -1;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.hseabra.demo_rag;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An asynchronous ingestion of one or more files into an index. Progress is tracked per file and
+ * reported through {@link #status()}; {@link #cancel()} stops queued files and interrupts running ones.
+ */
+public class IngestionJob {
+
+    public enum State {QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED}
+
+    public enum Stage {QUEUED, LOADING, CHUNKING, INDEXING, DONE, UNCHANGED, FAILED, CANCELLED}
+
+    private final String id = UUID.randomUUID().toString();
+    private final String indexName;
+    private final Instant createdAt = Instant.now();
+    private final List<FileProgress> files = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    public IngestionJob(String indexName, List<String> paths) {
+        this.indexName = indexName;
+        for (String path : paths) {
+            files.add(new FileProgress(this, path));
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public List<FileProgress> getFiles() {
+        return files;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Marks the job cancelled. Files that have not started are skipped when their turn comes;
+     * running files are interrupted, which stops their pipeline before the next batch is sent.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (FileProgress file : files) {
+            if (file.stage == Stage.QUEUED) {
+                file.stage(Stage.CANCELLED);
+            } else if (file.task != null) {
+                file.task.cancel(true);
+            }
+        }
+    }
+
+    public State getState() {
+        int queued = 0;
+        int running = 0;
+        int failed = 0;
+        for (FileProgress file : files) {
+            switch (file.stage) {
+                case QUEUED -> queued++;
+                case FAILED -> failed++;
+                case DONE, UNCHANGED, CANCELLED -> {
+                }
+                default -> running++;
+            }
+        }
+        if (running > 0 || (queued > 0 && queued < files.size())) {
+            return State.RUNNING;
+        }
+        if (queued > 0) {
+            return State.QUEUED;
+        }
+        if (cancelled) {
+            return State.CANCELLED;
+        }
+        return failed > 0 ? State.FAILED : State.COMPLETED;
+    }
+
+    public boolean isFinished() {
+        State state = getState();
+        return state != State.QUEUED && state != State.RUNNING;
+    }
+
+    public JobStatus status() {
+        return new JobStatus(id, indexName, getState(), createdAt, files.stream().map(FileProgress::status).toList());
+    }
+
+    /**
+     * Progress of a single file. Written by the ingestion pipeline, read by status requests.
+     */
+    public static class FileProgress {
+        private final IngestionJob job;
+        private final String path;
+        private final AtomicInteger pages = new AtomicInteger();
+        private final AtomicInteger chunksCreated = new AtomicInteger();
+        private final AtomicInteger chunksIndexed = new AtomicInteger();
+        private final AtomicInteger chunksUnchanged = new AtomicInteger();
+        private final AtomicInteger chunksDeleted = new AtomicInteger();
+        private volatile Stage stage = Stage.QUEUED;
+        private volatile boolean chunkingFinished;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile String error;
+        volatile Future<?> task;
+
+        FileProgress(IngestionJob job, String path) {
+            this.job = job;
+            this.path = path;
+        }
+
+        /**
+         * Progress holder for ingestions that are not tracked by a job.
+         */
+        public static FileProgress untracked(String path) {
+            return new IngestionJob(null, List.of(path)).getFiles().get(0);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public boolean isCancelled() {
+            return job.cancelled;
+        }
+
+        public void stage(Stage stage) {
+            if (stage == Stage.LOADING) {
+                startedAt = Instant.now();
+            }
+            if (stage == Stage.DONE || stage == Stage.UNCHANGED || stage == Stage.FAILED || stage == Stage.CANCELLED) {
+                finishedAt = Instant.now();
+            }
+            this.stage = stage;
+        }
+
+        public void failed(Throwable t) {
+            error = t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName();
+            stage(Stage.FAILED);
+        }
+
+        public void pageLoaded() {
+            pages.incrementAndGet();
+        }
+
+        public void chunksCreated(int count) {
+            chunksCreated.addAndGet(count);
+        }
+
+        public void chunkingFinished() {
+            chunkingFinished = true;
+        }
+
+        public void chunksIndexed(int count) {
+            chunksIndexed.addAndGet(count);
+        }
+
+        public void chunksUnchanged(int count) {
+            chunksUnchanged.addAndGet(count);
+        }
+
+        public void chunksDeleted(int count) {
+            chunksDeleted.addAndGet(count);
+        }
+
+        FileStatus status() {
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            Double throughput = null;
+            if (startedAt != null) {
+                long millis = Math.max(1, Duration.between(startedAt, end).toMillis());
+                throughput = chunksIndexed.get() * 1000.0 / millis;
+            }
+            return new FileStatus(path, stage, pages.get(), chunksCreated.get(), chunkingFinished ? chunksCreated.get() : null,
+                    chunksIndexed.get(), chunksUnchanged.get(), chunksDeleted.get(), throughput, startedAt, finishedAt, error);
+        }
+    }
+
+    @Schema(description = "Status of an ingestion job")
+    public record JobStatus(
+            @Schema(description = "Job id") String jobId,
+            @Schema(description = "Target index") String indexName,
+            @Schema(description = "Overall job state") State state,
+            @Schema(description = "Submission time") Instant createdAt,
+            @Schema(description = "Per-file progress") List<FileStatus> files) {
+    }
+
+    @Schema(description = "Progress of one file of an ingestion job")
+    public record FileStatus(
+            @Schema(description = "File path or URL") String path,
+            @Schema(description = "Latest pipeline stage reached") Stage stage,
+            @Schema(description = "Pages extracted so far") int pages,
+            @Schema(description = "Chunks produced so far") int chunksCreated,
+            @Schema(description = "Total chunks, known once chunking has finished") Integer chunksTotal,
+            @Schema(description = "Chunks written to the index") int chunksIndexed,
+            @Schema(description = "Chunks already indexed by a previous ingestion of the file, not written again") int chunksUnchanged,
+            @Schema(description = "Chunks of a previous ingestion of the file that no longer exist, deleted from the index") int chunksDeleted,
+            @Schema(description = "Indexed chunks per second since the file started") Double chunksPerSecond,
+            @Schema(description = "Start time") Instant startedAt,
+            @Schema(description = "End time") Instant finishedAt,
+            @Schema(description = "Error message if the file failed") String error) {
+    }
+}
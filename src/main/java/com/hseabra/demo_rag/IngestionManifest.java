@@ -0,0 +1,146 @@
+package com.hseabra.demo_rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Record of what was last indexed for each (index, path): the file's size, modification time and
+ * checksum, the settings the chunks were produced with, and the ids of the indexed chunks and their
+ * stored parents. Chunk ids are derived from the
+ * index, the path and the chunk content, so re-ingesting a file yields the same id for an
+ * unchanged chunk; comparing against the manifest tells which chunks are new and which are gone.
+ * <p>
+ * One small JSON file per (index, path) under {@code rag.manifest.directory}, replaced atomically
+ * after each successful ingestion.
+ */
+@Slf4j
+@Component
+public class IngestionManifest {
+    /**
+     * Chunk metadata identifying the ingestion run that wrote a file without a manifest entry, so the
+     * file's older chunks can be told apart once the run has written its own.
+     */
+    public static final String INGESTION_RUN = "ingestion_run";
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Path directory;
+
+    public IngestionManifest(RagProperties ragProperties) {
+        this.directory = Path.of(ragProperties.getManifest().getDirectory());
+    }
+
+    public Optional<Entry> get(String indexName, String path) {
+        Path file = fileFor(indexName, path);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(JSON.readValue(file.toFile(), Entry.class));
+        } catch (IOException e) {
+            log.warn("Unreadable manifest {} for {}, treating {} as new", file, indexName, path, e);
+            return Optional.empty();
+        }
+    }
+
+    public void put(String indexName, String path, Entry entry) throws IOException {
+        Path file = fileFor(indexName, path);
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        JSON.writeValue(temp.toFile(), entry);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deterministic chunk id: a name-based UUID of the index, path and content hash.
+     */
+    public static String chunkId(String indexName, String path, String content) {
+        String name = indexName + '\0' + path + '\0' + sha256(content.getBytes(StandardCharsets.UTF_8));
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Size and modification time of a local file, or null for a URL, which cannot be checked without
+     * downloading it.
+     */
+    public static Stamp stamp(String path) throws IOException {
+        if (path.startsWith("http://") || path.startsWith("https://")) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(Path.of(path), BasicFileAttributes.class);
+        return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Fingerprint of the settings chunks are produced with. Each setting is named explicitly, so it
+     * changes only when a setting's value does, not when the configuration classes are refactored.
+     */
+    public static String settings(ChunkingMode chunkingMode, RagProperties.NormalizationRules rules) {
+        return "chunking=" + chunkingMode
+                + ";removeDotLeaders=" + rules.isRemoveDotLeaders()
+                + ";removeTrailingPageNumber=" + rules.isRemoveTrailingPageNumber()
+                + ";dehyphenate=" + rules.isDehyphenate()
+                + ";stripRepeatedLines=" + rules.isStripRepeatedLines()
+                + ";edgeLines=" + rules.getEdgeLines()
+                + ";repeatThreshold=" + rules.getRepeatThreshold();
+    }
+
+    private Path fileFor(String indexName, String path) {
+        return directory.resolve(indexName).resolve(sha256(path.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes));
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * File size and modification time, compared before the file is read.
+     */
+    public record Stamp(long size, long lastModified) {
+    }
+
+    /**
+     * @param checksum SHA-256 of the file content as last read, null if unknown
+     * @param stamp    size and modification time of the file before it was last read, null for a URL
+     * @param settings fingerprint of the chunking mode and normalization rules the chunks were produced
+     *                 with (see {@link #settings}); a file is only skipped if they are unchanged too
+     * @param chunkIds ids of every chunk indexed for the path
+     * @param parentIds ids of the path's parents in the {@link ParentChunkStore}, empty unless the
+     *                  path was ingested in parent/child mode
+     */
+    public record Entry(String path, String checksum, Stamp stamp, String settings, Set<String> chunkIds,
+                        Set<String> parentIds) {
+        public Entry {
+            // manifests written before parents were tracked have none
+            parentIds = parentIds == null ? Set.of() : parentIds;
+        }
+
+        /**
+         * Whether the file can be skipped without reading it: same stamp and same settings.
+         */
+        public boolean isUnchanged(Stamp current, String currentSettings) {
+            return current != null && current.equals(stamp) && currentSettings.equals(settings);
+        }
+    }
+}
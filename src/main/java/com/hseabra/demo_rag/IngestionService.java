@@ -1,101 +1,526 @@
 package com.hseabra.demo_rag;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.observation.Observation;
+import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import com.hseabra.demo_rag.RagProperties.NormalizationRules;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @Service
 @AllArgsConstructor
-public class IngestionService {
+public class IngestionService implements MeterBinder {
+    // Chunks handed to the shared write batcher at a time; it merges them across documents
     private static final int BATCH_SIZE = 50;
     private static final int PARALLELISM = 10;
     private static final String DEFAULT_INDEX = "test_hugo_index";
-    private final PdfService pdfs;
+    // Pages or sections buffered between the document reader and the chunker
+    private static final int PAGE_QUEUE_CAPACITY = 16;
+    // Batches allowed in flight towards the vector store for a single document; the shared
+    // downstream limiters decide how many of them actually run at once
+    private static final int MAX_IN_FLIGHT_BATCHES = PARALLELISM;
+    // Characters of page text accumulated before they are handed to the splitter
+    private static final int CHUNK_WINDOW_CHARS = 32 * 1024;
+    private static final Document END_OF_PAGES = new Document("end-of-pages");
+    // Files accepted (queued or running) across all jobs before new jobs are rejected
+    private static final int MAX_QUEUED_FILES = 64;
+    // Files parsed and chunked at the same time; bounds CPU and heap, not downstream calls
+    private static final int MAX_RUNNING_FILES = 8;
+    // Finished jobs kept for status queries
+    private static final int MAX_RETAINED_JOBS = 500;
+    private final DocumentLoader loader;
     private final TopicClassifier topics;
     private final ChunkingService chunkingService;
     private final ElasticConfig.VectorStoreFactory vectorStoreFactory;
-    private final Executor executor = Executors.newFixedThreadPool(8);
-    private final ForkJoinPool forkJoinPool = new ForkJoinPool(PARALLELISM);
+    private final RetrievalCache retrievalCache;
+    private final VectorWriteBatcher writeBatcher;
+    private final RagProperties ragProperties;
+    private final ParentChunkStore parentStore;
+    private final IngestionManifest manifest;
+    private final RagMetrics metrics;
+    // Virtual threads throughout: pipeline stages spend most of their time blocked on queues,
+    // permits and network calls, and concurrency is bounded by the semaphores and limiters
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore admission = new Semaphore(MAX_QUEUED_FILES);
+    private final Semaphore runningFiles = new Semaphore(MAX_RUNNING_FILES);
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
 
     public void ingest(String path, String indexName) {
+        ingest(path, indexName, 1);
+    }
+
+    /**
+     * Ingests a document as a pipeline: pages (PDF) or sections (DOCX, HTML, Markdown, plain text, see
+     * {@link DocumentLoader}) are extracted on a reader thread into a bounded queue,
+     * chunked in windows as they arrive and written to the vector store in batches while later
+     * pages are still being parsed. Heap use is bounded by the queue, the chunking window and
+     * the number of in-flight batches rather than by the size of the document.
+     * <p>
+     * Re-ingestion is incremental: a local file whose size, modification time and chunking settings
+     * match the {@link IngestionManifest} is skipped without being read, otherwise only chunks not
+     * indexed before are embedded and written, and chunks that disappeared from the file are deleted
+     * once the new ones are written.
+     *
+     * @param extractionParallelism number of workers extracting PDF pages; 1 keeps the sequential reader
+     */
+    public void ingest(String path, String indexName, int extractionParallelism) {
+        ingest(path, indexName, extractionParallelism, ChunkingMode.FLAT, IngestionJob.FileProgress.untracked(path));
+    }
+
+    private void ingest(String path, String indexName, int extractionParallelism, ChunkingMode chunkingMode,
+                        IngestionJob.FileProgress progress) {
+        Observation observation = metrics.startIngestion(indexName);
+        try (Observation.Scope ignored = observation.openScope()) {
+            ingest(path, indexName, extractionParallelism, chunkingMode, progress, observation);
+        } finally {
+            observation.lowCardinalityKeyValue("outcome", progress.getStage().name().toLowerCase(Locale.ROOT));
+            observation.stop();
+        }
+    }
+
+    private void ingest(String path, String indexName, int extractionParallelism, ChunkingMode chunkingMode,
+                        IngestionJob.FileProgress progress, Observation file) {
         long start = System.currentTimeMillis();
         log.info("Starting ingestion process for path: {}", path);
+        progress.stage(IngestionJob.Stage.LOADING);
 
-        List<Document> pages;
+        NormalizationRules rules = ragProperties.getNormalization().forIndex(indexName);
+        String settings = IngestionManifest.settings(chunkingMode, rules);
+        Optional<IngestionManifest.Entry> previous = manifest.get(indexName, path);
+        IngestionManifest.Stamp stamp;
         try {
-            pages = pdfs.loadPdf(path);
+            stamp = IngestionManifest.stamp(path);
         } catch (IOException e) {
-            log.error("Failed to load PDF from path: {}", path, e);
+            log.error("Failed to read file: {}", path, e);
+            progress.failed(e);
+            return;
+        }
+        if (previous.isPresent() && previous.get().isUnchanged(stamp, settings)) {
+            log.info("{} is unchanged since it was last ingested into {}, skipping", path, indexName);
+            progress.chunksUnchanged(previous.get().chunkIds().size());
+            metrics.chunks(indexName, "unchanged", previous.get().chunkIds().size());
+            progress.stage(IngestionJob.Stage.UNCHANGED);
             return;
         }
-        log.info("PDF with '{}' pages loaded in {}ms", pages.size(), System.currentTimeMillis() - start);
 
-        start = System.currentTimeMillis();
-        String topic = topics.detectTopic(pages);
-        log.info("Topic '{}' detected in {}ms", topic, System.currentTimeMillis() - start);
+        BlockingQueue<Document> pages = new ArrayBlockingQueue<>(PAGE_QUEUE_CAPACITY);
+        PageNormalizer normalizer = new TextNormalizer(rules);
+        Future<DocumentLoader.Loaded> extraction = executor.submit(() -> {
+            Observation load;
+            try (Observation.Scope ignored = file.openScope()) {
+                load = metrics.start(RagMetrics.Stage.PDF_LOAD, indexName);
+            }
+            try {
+                DocumentLoader.Loaded loaded = loader.stream(path, extractionParallelism, normalizer, page -> {
+                    pages.put(page);
+                    progress.pageLoaded();
+                });
+                log.info("Document with '{}' pages loaded in {}ms", loaded.parts(), System.currentTimeMillis() - start);
+                return loaded;
+            } catch (Exception e) {
+                load.error(e);
+                throw e;
+            } finally {
+                load.stop();
+                pages.put(END_OF_PAGES);
+            }
+        });
 
-        start = System.currentTimeMillis();
-        String fullContent = "";
-        for (Document page : pages) {
-            if (page.getText() != null) {
-                fullContent = fullContent.concat(page.getText()).concat(" ");
+        try {
+            BatchWriter indexed = runPipeline(path, indexName, chunkingMode, pages, extraction, progress, previous);
+            // the pipeline has drained the pages, so extraction has completed
+            String checksum = extraction.resultNow().checksum();
+            manifest.put(indexName, path,
+                    new IngestionManifest.Entry(path, checksum, stamp, settings, indexed.seenIds, indexed.parentIds));
+            boolean sameContent = previous.isPresent() && checksum.equals(previous.get().checksum())
+                    && settings.equals(previous.get().settings());
+            progress.stage(sameContent ? IngestionJob.Stage.UNCHANGED : IngestionJob.Stage.DONE);
+        } catch (IOException e) {
+            log.error("Failed to load document from path: {}", path, e);
+            progress.failed(e);
+        } catch (InterruptedException | CancellationException e) {
+            if (progress.isCancelled()) {
+                log.info("Ingestion of {} cancelled", path);
+                progress.stage(IngestionJob.Stage.CANCELLED);
+            } else {
+                log.warn("Ingestion of {} interrupted", path);
+                progress.failed(e);
             }
+        } catch (RuntimeException e) {
+            log.error("Ingestion of {} failed", path, e);
+            progress.failed(e);
+        } finally {
+            extraction.cancel(true);
+            // Once per file, also after a failure that left some batches written, rather than per batch:
+            // queries keep their cached results while the file is being indexed
+            retrievalCache.invalidate(indexName);
+        }
+    }
+
+    /**
+     * Queues the files for ingestion and returns immediately with a job that reports their progress.
+     *
+     * @throws RejectedExecutionException if accepting the files would exceed {@link #MAX_QUEUED_FILES}
+     */
+    public IngestionJob submit(List<String> filesPath, String indexName, int extractionParallelism, ChunkingMode chunkingMode) {
+        if (filesPath.size() > MAX_QUEUED_FILES) {
+            throw new IllegalArgumentException("A job may contain at most " + MAX_QUEUED_FILES + " files");
+        }
+        if (!admission.tryAcquire(filesPath.size())) {
+            throw new RejectedExecutionException("Ingestion queue is full, retry later");
+        }
+        String index = indexName == null ? DEFAULT_INDEX : indexName;
+        IngestionJob job = new IngestionJob(index, filesPath);
+        evictFinishedJobs();
+        jobs.put(job.getId(), job);
+
+        for (IngestionJob.FileProgress file : job.getFiles()) {
+            file.task = executor.submit(() -> {
+                try {
+                    runningFiles.acquire();
+                    try {
+                        if (!file.isCancelled()) {
+                            ingest(file.getPath(), index, extractionParallelism, chunkingMode, file);
+                        }
+                    } finally {
+                        runningFiles.release();
+                    }
+                } catch (InterruptedException e) {
+                    file.stage(IngestionJob.Stage.CANCELLED);
+                } finally {
+                    admission.release();
+                }
+            });
         }
+        log.info("Ingestion job {} accepted with {} file(s) for index {}", job.getId(), filesPath.size(), index);
+        return job;
+    }
 
-        Map<String, Object> metadata = Map.of("topic", topic, "path", path);
-        List<Document> chunks = chunkingService.createChunks(new Document(fullContent, metadata));
-        log.info("'{}' chunks created in {}ms", chunks.size(), System.currentTimeMillis() - start);
-        start = System.currentTimeMillis();
-        AtomicLong timeSum = new AtomicLong(0);
-        AtomicInteger count = new AtomicInteger(0);
+    public Optional<IngestionJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
 
-        // Get the VectorStore for the specific index
-        VectorStore vectorStore = vectorStoreFactory.getVectorStore(indexName);
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
 
-        // Parallelize batch insertion to vector store
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("rag.ingest.files.queued", admission, s -> MAX_QUEUED_FILES - s.availablePermits())
+                .description("Files accepted and not finished, running or waiting")
+                .register(registry);
+        Gauge.builder("rag.ingest.files.running", runningFiles, s -> MAX_RUNNING_FILES - s.availablePermits())
+                .register(registry);
+    }
 
-        for (int i = 0; i < chunks.size(); i += BATCH_SIZE) {
-            final int batchStart = i;
-            final int batchEnd = Math.min(i + BATCH_SIZE, chunks.size());
-            final List<Document> batch = new ArrayList<>(chunks.subList(batchStart, batchEnd));
+    private void evictFinishedJobs() {
+        if (jobs.size() >= MAX_RETAINED_JOBS) {
+            jobs.values().removeIf(IngestionJob::isFinished);
+        }
+    }
 
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                try {
-                    long l = System.currentTimeMillis();
-                    vectorStore.add(batch);
-                    timeSum.updateAndGet(v -> v + (System.currentTimeMillis() - l));
-                    count.addAndGet(1);
-                } catch (Exception e) {
-                    log.error("Error adding batch {}-{} to vector store", batchStart, batchEnd, e);
-                    throw new RuntimeException("Failed to add batch to vector store", e);
-                }
-            }, forkJoinPool);
+    /**
+     * @return the writer, holding the ids of every chunk and parent of the file now indexed
+     */
+    private BatchWriter runPipeline(String path, String indexName, ChunkingMode chunkingMode, BlockingQueue<Document> pages,
+                                    Future<?> extraction, IngestionJob.FileProgress progress,
+                                    Optional<IngestionManifest.Entry> previous) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        // Without a manifest entry the file may have chunks from before manifests existed, which have
+        // random ids, or from an ingestion that did not finish. This run's chunks are marked, and the
+        // file's other chunks are deleted once they are all written, never before.
+        String run = previous.isEmpty() ? UUID.randomUUID().toString() : null;
+        Map<String, Object> metadata = run == null
+                ? Map.of("path", path)
+                : Map.of("path", path, IngestionManifest.INGESTION_RUN, run);
+        BatchWriter writer = new BatchWriter(indexName, path, progress, previous.map(IngestionManifest.Entry::chunkIds).orElse(Set.of()));
+        progress.stage(IngestionJob.Stage.CHUNKING);
+        StringBuilder window = new StringBuilder(CHUNK_WINDOW_CHARS + 4096);
 
-            futures.add(future);
+        Document page;
+        while ((page = nextPage(pages, extraction)) != null) {
+            appendPage(window, page);
+            if (window.length() >= CHUNK_WINDOW_CHARS) {
+                chunkWindow(window, metadata, chunkingMode, writer, false);
+            }
         }
+        chunkWindow(window, metadata, chunkingMode, writer, true);
+        progress.chunkingFinished();
+        progress.stage(IngestionJob.Stage.INDEXING);
+        writer.finish();
+        String topic = writer.topic.join();
 
-        // Wait for all batches to complete
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-        log.info("Ingestion completed in {}s successfully. Index: {}, Topic: {}, Total chunks: {}, ES calls: {}, AVG time per call: {}ms",
-                (System.currentTimeMillis() - start) / 1000, indexName, topic, chunks.size(), count.get(), timeSum.get() / Math.max(1, count.get()));
+        if (run != null) {
+            writeBatcher.deleteOtherRuns(indexName, path, run);
+        }
+        Set<String> removed = new HashSet<>(writer.previousIds);
+        removed.removeAll(writer.seenIds);
+        if (!removed.isEmpty()) {
+            writeBatcher.delete(indexName, removed);
+            progress.chunksDeleted(removed.size());
+            metrics.chunks(indexName, "deleted", removed.size());
+        }
+        // after the children, so no indexed child points to a removed parent
+        Set<String> removedParents = new HashSet<>(previous.map(IngestionManifest.Entry::parentIds).orElse(Set.of()));
+        removedParents.removeAll(writer.parentIds);
+        parentStore.removeAll(removedParents);
+
+        log.info("Ingestion completed in {}s successfully. Index: {}, Topic: {}, Total chunks: {}, Unchanged: {}, Deleted: {}, Batches written: {}",
+                (System.currentTimeMillis() - start) / 1000, indexName, topic, writer.chunks, writer.unchanged, removed.size(),
+                writer.batches.get());
+        return writer;
+    }
+
+    /**
+     * Takes the next page from the reader, or returns null once the document is exhausted.
+     * A failure on the reader side is rethrown here so the pipeline stops.
+     */
+    private Document nextPage(BlockingQueue<Document> pages, Future<?> extraction) throws IOException, InterruptedException {
+        Document page = pages.take();
+        if (page != END_OF_PAGES) {
+            return page;
+        }
+        try {
+            extraction.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IllegalStateException("Document extraction failed", e.getCause());
+        }
+        return null;
     }
 
-    public void ingest(List<String> filesPath, String indexName) {
-        filesPath.forEach(x -> executor.execute(() -> ingest(x, indexName == null ? DEFAULT_INDEX : indexName)));
+    static void appendPage(StringBuilder window, Document page) {
+        if (page.getText() != null) {
+            window.append(page.getText()).append(' ');
+        }
+    }
+
+    /**
+     * Splits the accumulated window and writes its chunks. Unless this is the last window the
+     * final chunk (in parent/child mode, the final parent) is carried over, since it may end
+     * mid-sentence and should be re-split together with the following pages. Parents are stored
+     * before their children are queued, so a retrieved child can always be expanded.
+     * <p>
+     * Chunks get ids derived from their content (see {@link IngestionManifest#chunkId}); a child's
+     * id also covers its parent's id, so children of a changed parent are rewritten.
+     */
+    private void chunkWindow(StringBuilder window, Map<String, Object> metadata, ChunkingMode chunkingMode,
+                             BatchWriter writer, boolean last) throws IOException, InterruptedException {
+        if (window.isEmpty()) {
+            return;
+        }
+        Document document = new Document(window.toString(), metadata);
+        window.setLength(0);
+        List<Document> toIndex;
+        Observation observation = metrics.start(RagMetrics.Stage.CHUNKING, writer.indexName);
+        FlightEvents.ChunkSplit event = new FlightEvents.ChunkSplit();
+        event.begin();
+        try {
+            toIndex = split(document, window, chunkingMode, writer, last);
+            event.finish(writer.indexName, chunkingMode, document.getText().length(), toIndex.size());
+        } catch (IOException | RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+        writer.progress.chunksCreated(toIndex.size());
+        if (writer.topic == null && !toIndex.isEmpty()) {
+            writer.detectTopic(toIndex);
+        }
+        for (Document chunk : toIndex) {
+            writer.add(chunk);
+        }
+    }
+
+    /**
+     * Splits the window's text into the chunks to index, storing parents first in parent/child
+     * mode, and puts the carried-over text back into the window.
+     */
+    private List<Document> split(Document document, StringBuilder window, ChunkingMode chunkingMode,
+                                 BatchWriter writer, boolean last) throws IOException {
+        List<Document> toIndex;
+        if (chunkingMode == ChunkingMode.PARENT_CHILD) {
+            List<ChunkingService.ParentChunk> parents = chunkingService.createParentChunks(document);
+            int emit = parents.size();
+            if (!last && emit > 1) {
+                emit--;
+                window.append(parents.get(emit).parent().getText()).append(' ');
+            }
+            Map<String, String> parentTexts = new LinkedHashMap<>();
+            toIndex = new ArrayList<>();
+            for (int i = 0; i < emit; i++) {
+                String parentText = parents.get(i).parent().getText();
+                String parentId = IngestionManifest.chunkId(writer.indexName, writer.path, parentText);
+                writer.parentIds.add(parentId);
+                if (!parentStore.contains(parentId)) {
+                    parentTexts.put(parentId, parentText);
+                }
+                for (Document child : parents.get(i).children()) {
+                    Map<String, Object> childMetadata = new HashMap<>(child.getMetadata());
+                    childMetadata.put(ChunkingService.PARENT_ID, parentId);
+                    toIndex.add(withId(child, IngestionManifest.chunkId(writer.indexName, writer.path, parentId + '\0' + child.getText()),
+                            childMetadata));
+                }
+            }
+            parentStore.putAll(parentTexts);
+        } else {
+            List<Document> chunks = chunkingService.createChunks(document);
+            int emit = chunks.size();
+            if (!last && emit > 1) {
+                emit--;
+                window.append(chunks.get(emit).getText()).append(' ');
+            }
+            toIndex = new ArrayList<>(emit);
+            for (Document chunk : chunks.subList(0, emit)) {
+                toIndex.add(withId(chunk, IngestionManifest.chunkId(writer.indexName, writer.path, chunk.getText()),
+                        chunk.getMetadata()));
+            }
+        }
+        return toIndex;
+    }
+
+    private static Document withId(Document chunk, String id, Map<String, Object> metadata) {
+        return Document.builder().id(id).text(chunk.getText()).metadata(metadata).build();
+    }
+
+    /**
+     * Groups chunks and hands them to the {@link VectorWriteBatcher}, allowing at most
+     * {@link #MAX_IN_FLIGHT_BATCHES} outstanding groups so the chunker blocks instead of
+     * queueing unbounded work. Chunks indexed by the previous ingestion of the file, and repeats
+     * of a chunk within the file, are not written.
+     * <p>
+     * The topic is detected from the first chunks while chunking goes on; batches get the
+     * {@code topic} metadata and are written once it is known.
+     */
+    private class BatchWriter {
+        private final String indexName;
+        private final String path;
+        private final IngestionJob.FileProgress progress;
+        private final Set<String> previousIds;
+        private final Set<String> seenIds = new HashSet<>();
+        private final Set<String> parentIds = new HashSet<>();
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_BATCHES);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger batches = new AtomicInteger(0);
+        private CompletableFuture<String> topic;
+        private List<Document> batch = new ArrayList<>(BATCH_SIZE);
+        private int chunks;
+        private int unchanged;
+
+        BatchWriter(String indexName, String path, IngestionJob.FileProgress progress, Set<String> previousIds) {
+            this.indexName = indexName;
+            this.path = path;
+            this.progress = progress;
+            this.previousIds = previousIds;
+            // Created up front so a missing index schema is set up before the first batch
+            vectorStoreFactory.getVectorStore(indexName);
+        }
+
+        void add(Document chunk) throws InterruptedException {
+            if (!seenIds.add(chunk.getId()) || previousIds.contains(chunk.getId())) {
+                unchanged++;
+                progress.chunksUnchanged(1);
+                metrics.chunks(indexName, "unchanged", 1);
+                return;
+            }
+            batch.add(chunk);
+            if (batch.size() == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void detectTopic(List<Document> chunks) {
+            topic = CompletableFuture.supplyAsync(metrics.inCurrentScope(() -> {
+                long start = System.currentTimeMillis();
+                String detected = metrics.observe(RagMetrics.Stage.TOPIC_DETECTION, indexName, () -> topics.detectTopic(chunks));
+                log.info("Topic '{}' detected in {}ms", detected, System.currentTimeMillis() - start);
+                return detected;
+            }), executor);
+        }
+
+        void finish() throws InterruptedException {
+            if (!batch.isEmpty()) {
+                flush();
+            }
+            if (topic == null) {
+                topic = CompletableFuture.completedFuture(TopicClassifier.OTHER);
+            }
+            // Wait for every outstanding batch by draining all permits
+            inFlight.acquire(MAX_IN_FLIGHT_BATCHES);
+            inFlight.release(MAX_IN_FLIGHT_BATCHES);
+            checkFailure();
+        }
+
+        private void flush() throws InterruptedException {
+            checkFailure();
+            final List<Document> toWrite = batch;
+            final int batchStart = chunks;
+            final int batchEnd = chunks + toWrite.size();
+            batch = new ArrayList<>(BATCH_SIZE);
+            chunks = batchEnd;
+
+            inFlight.acquire();
+            topic.thenCompose(detected -> {
+                toWrite.forEach(chunk -> chunk.getMetadata().put("topic", detected));
+                return writeBatcher.submit(indexName, toWrite);
+            }).whenComplete((ignored, e) -> {
+                try {
+                    if (e != null) {
+                        log.error("Error adding batch {}-{} to vector store", batchStart, batchEnd, e);
+                        failure.compareAndSet(null, e);
+                    } else {
+                        progress.chunksIndexed(toWrite.size());
+                        metrics.chunks(indexName, "indexed", toWrite.size());
+                        batches.incrementAndGet();
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        private void checkFailure() {
+            if (progress.isCancelled()) {
+                throw new CancellationException("Ingestion of " + progress.getPath() + " cancelled");
+            }
+            Throwable t = failure.get();
+            if (t != null) {
+                throw new RuntimeException("Failed to add batch to vector store", t);
+            }
+        }
     }
 }
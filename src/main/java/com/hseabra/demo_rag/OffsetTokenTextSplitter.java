@@ -0,0 +1,187 @@
+package com.hseabra.demo_rag;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token splitter with the chunking rules of {@code TokenTextSplitter} (chunk size in tokens, cut at the
+ * last sentence end past {@code minChunkSizeChars}), plus an overlap measured in tokens. The text is
+ * encoded once; chunk boundaries are computed as token offsets mapped back to character offsets, and
+ * each chunk, overlap included, is a single substring of the original text. Nothing is decoded or
+ * re-encoded and no overlap is concatenated.
+ */
+public class OffsetTokenTextSplitter extends TextSplitter {
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    // UTF-8 length of each token id, filled lazily; 0 means not computed yet. Benign races: every
+    // writer stores the same value.
+    private static final int[] TOKEN_BYTES = new int[1 << 17];
+
+    private final int chunkSize;
+    private final int chunkOverlap;
+    private final int minChunkSizeChars;
+    private final int minChunkLengthToEmbed;
+    private final int maxNumChunks;
+
+    public OffsetTokenTextSplitter(int chunkSize, int chunkOverlap) {
+        this(chunkSize, chunkOverlap, 350, 5, 10000);
+    }
+
+    public OffsetTokenTextSplitter(int chunkSize, int chunkOverlap, int minChunkSizeChars, int minChunkLengthToEmbed,
+                                   int maxNumChunks) {
+        if (chunkOverlap < 0 || chunkOverlap >= chunkSize) {
+            throw new IllegalArgumentException("chunkOverlap must be between 0 and chunkSize - 1");
+        }
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        this.minChunkSizeChars = minChunkSizeChars;
+        this.minChunkLengthToEmbed = minChunkLengthToEmbed;
+        this.maxNumChunks = maxNumChunks;
+    }
+
+    @Override
+    protected List<String> splitText(String text) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return chunks;
+        }
+        int[] tokens = ENCODING.encodeOrdinary(text).toArray();
+        int[] offsets = charOffsets(text, tokens);
+        int n = tokens.length;
+
+        // Each chunk covers chunkSize new tokens [start, end), preceded by up to chunkOverlap tokens
+        // of the previous chunk
+        int start = 0;
+        int previousStart = 0;
+        int numChunks = 0;
+        while (start < n && numChunks < maxNumChunks) {
+            int end = Math.min(start + chunkSize, n);
+            int from = offsets[start];
+            int to = offsets[end];
+            if (isBlank(text, from, to)) {
+                start = end;
+                continue;
+            }
+            int lastPunctuation = lastPunctuation(text, from, to);
+            if (lastPunctuation != -1 && lastPunctuation - from > minChunkSizeChars) {
+                // first token boundary at or after the punctuation mark
+                end = ceilingToken(offsets, start + 1, end, lastPunctuation + 1);
+            }
+            int overlapStart = numChunks == 0 ? start : Math.max(previousStart + 1, start - chunkOverlap);
+            addTrimmed(chunks, text, offsets[overlapStart], offsets[end]);
+            previousStart = start;
+            start = end;
+            numChunks++;
+        }
+        if (start < n) {
+            addTrimmed(chunks, text, offsets[start], text.length());
+        }
+        return chunks;
+    }
+
+    private void addTrimmed(List<String> chunks, String text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (to - from > minChunkLengthToEmbed) {
+            chunks.add(text.substring(from, to));
+        }
+    }
+
+    /**
+     * Character offset at which each token starts; {@code offsets[tokens.length]} is the text length.
+     * A character split across two tokens belongs to the token where it ends.
+     */
+    static int[] charOffsets(String text, int[] tokens) {
+        int[] offsets = new int[tokens.length + 1];
+        int charPos = 0;
+        long bytePos = 0;
+        long tokenEnd = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            offsets[i] = charPos;
+            tokenEnd += tokenBytes(tokens[i]);
+            while (charPos < text.length()) {
+                int codePoint = text.codePointAt(charPos);
+                int length = utf8Length(codePoint);
+                if (bytePos + length > tokenEnd) {
+                    break;
+                }
+                bytePos += length;
+                charPos += Character.charCount(codePoint);
+            }
+        }
+        offsets[tokens.length] = text.length();
+        return offsets;
+    }
+
+    private static int tokenBytes(int token) {
+        if (token >= 0 && token < TOKEN_BYTES.length) {
+            int length = TOKEN_BYTES[token];
+            if (length == 0) {
+                length = decodedLength(token);
+                TOKEN_BYTES[token] = length;
+            }
+            return length;
+        }
+        return decodedLength(token);
+    }
+
+    private static int decodedLength(int token) {
+        IntArrayList single = new IntArrayList(1);
+        single.add(token);
+        return ENCODING.decodeBytes(single).length;
+    }
+
+    private static int utf8Length(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        }
+        if (codePoint < 0x800) {
+            return 2;
+        }
+        if (Character.isSurrogate((char) codePoint)) {
+            // unpaired surrogate, encoded as '?'
+            return 1;
+        }
+        return codePoint < 0x10000 ? 3 : 4;
+    }
+
+    private static int ceilingToken(int[] offsets, int low, int high, int charOffset) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] < charOffset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean isBlank(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lastPunctuation(String text, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '?' || c == '!' || c == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,10 @@
+package com.hseabra.demo_rag;
+
+/**
+ * Turns the raw text of an extracted page into the text that is chunked and embedded. An instance
+ * serves one document and receives its pages in page order, so it may keep state across pages.
+ */
+@FunctionalInterface
+public interface PageNormalizer {
+    String normalize(String page);
+}
@@ -0,0 +1,285 @@
+package com.hseabra.demo_rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only, memory-mapped key-value file holding the text of parent chunks in parent/child
+ * indexing. Parents are never embedded; only their children go to the vector store, and retrieved
+ * children are expanded to their parents from here.
+ * <p>
+ * Layout: a 16-byte header (magic, version, bytes used) followed by records of
+ * {@code [int idLength][id][int textLength][text]} (UTF-8). The file is mapped in segments of
+ * {@link #SEGMENT_BYTES}; a record never spans two segments, a zero length marks the unused tail of
+ * a segment. Writing an existing id appends a new record that replaces the old one; removing an id
+ * appends a record with a text length of -1. Only the id-to-position index lives on heap.
+ * <p>
+ * Replaced and removed records are dead space. Once it is at least a segment and exceeds the live
+ * records, the live records are copied to a new file that atomically replaces this one.
+ */
+@Slf4j
+public class ParentChunkStore implements Closeable {
+    private static final int MAGIC = 0x50524e54; // "PRNT"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final int REMOVED = -1;
+    private static final int COMPACTION_BATCH = 256;
+
+    private final Path file;
+    // Readers hold the read lock; compaction takes the write lock only to swap in the new file
+    private final ReadWriteLock mapping = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private Map<String, Long> positions = new ConcurrentHashMap<>();
+    private long used;
+    // bytes of the records in positions; the rest of used is dead
+    private long live;
+
+    public ParentChunkStore(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = channel.size() < HEADER_BYTES;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+
+        // version 1 files have no removal records and are valid version 2 files
+        if (!fresh && (header.getInt(0) != MAGIC || (header.getInt(4) != VERSION && header.getInt(4) != 1))) {
+            log.warn("Parent store {} has an incompatible layout, starting empty", file);
+            channel.truncate(HEADER_BYTES);
+            fresh = true;
+        }
+        if (fresh) {
+            header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, 0);
+            header.force();
+        }
+        header.putInt(4, VERSION);
+
+        long stored = header.getLong(8);
+        long position = 0;
+        while (position < stored) {
+            ByteBuffer segment = segmentFor(position);
+            int offset = (int) (position % SEGMENT_BYTES);
+            int idLength = offset + 4 <= SEGMENT_BYTES ? segment.getInt(offset) : 0;
+            if (idLength == 0) {
+                position = (position / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+                continue;
+            }
+            byte[] id = new byte[idLength];
+            segment.get(offset + 4, id);
+            int textLength = segment.getInt(offset + 4 + idLength);
+            String key = new String(id, StandardCharsets.UTF_8);
+            Long previous = textLength == REMOVED ? positions.remove(key) : positions.put(key, position);
+            if (previous != null) {
+                live -= recordLength(previous);
+            }
+            int length = 8 + idLength + Math.max(textLength, 0);
+            if (textLength != REMOVED) {
+                live += length;
+            }
+            position += length;
+        }
+        this.used = stored;
+        log.info("Opened parent store {} with {} parents", file, positions.size());
+    }
+
+    public int size() {
+        mapping.readLock().lock();
+        try {
+            return positions.size();
+        } finally {
+            mapping.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String id) {
+        mapping.readLock().lock();
+        try {
+            return positions.containsKey(id);
+        } finally {
+            mapping.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the given parents, keyed by id.
+     */
+    public synchronized void putAll(Map<String, String> parents) throws IOException {
+        for (Map.Entry<String, String> parent : parents.entrySet()) {
+            if (parent.getKey().isEmpty()) {
+                throw new IllegalArgumentException("Parent id must not be empty");
+            }
+            byte[] id = parent.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] text = parent.getValue().getBytes(StandardCharsets.UTF_8);
+            long position = append(parent.getKey(), id, text);
+            Long previous = positions.put(parent.getKey(), position);
+            if (previous != null) {
+                live -= recordLength(previous);
+            }
+            live += 8 + id.length + text.length;
+        }
+        compactIfMostlyDead();
+    }
+
+    /**
+     * Removes the given parents; unknown ids are ignored.
+     */
+    public synchronized void removeAll(Collection<String> ids) throws IOException {
+        for (String id : ids) {
+            Long previous = positions.get(id);
+            if (previous == null) {
+                continue;
+            }
+            append(id, id.getBytes(StandardCharsets.UTF_8), null);
+            positions.remove(id);
+            live -= recordLength(previous);
+        }
+        compactIfMostlyDead();
+    }
+
+    /**
+     * Looks up several parents at once; unknown ids are left out of the result, which keeps the
+     * order of {@code ids}.
+     */
+    public Map<String, String> getAll(Collection<String> ids) {
+        mapping.readLock().lock();
+        try {
+            Map<String, String> parents = new LinkedHashMap<>();
+            for (String id : ids) {
+                Long position = positions.get(id);
+                if (position == null) {
+                    continue;
+                }
+                ByteBuffer segment = segments.get((int) (position / SEGMENT_BYTES));
+                int offset = (int) (position % SEGMENT_BYTES);
+                int idLength = segment.getInt(offset);
+                int textLength = segment.getInt(offset + 4 + idLength);
+                byte[] text = new byte[textLength];
+                segment.get(offset + 8 + idLength, text);
+                parents.put(id, new String(text, StandardCharsets.UTF_8));
+            }
+            return parents;
+        } finally {
+            mapping.readLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Writes a record at the end of the file and returns its position; a null text writes a removal.
+     */
+    private long append(String key, byte[] id, byte[] text) throws IOException {
+        int length = 8 + id.length + (text == null ? 0 : text.length);
+        if (length > SEGMENT_BYTES) {
+            throw new IOException("Parent chunk " + key + " is too large: " + length + " bytes");
+        }
+        long position = used;
+        if (position % SEGMENT_BYTES + length > SEGMENT_BYTES) {
+            // does not fit in the current segment: leave its tail unused (zero) and start the next one
+            position = (position / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+        }
+        ByteBuffer segment = segmentFor(position);
+        int offset = (int) (position % SEGMENT_BYTES);
+        segment.putInt(offset + 4 + id.length, text == null ? REMOVED : text.length);
+        segment.put(offset + 4, id);
+        if (text != null) {
+            segment.put(offset + 8 + id.length, text);
+        }
+        segment.putInt(offset, id.length);
+        used = position + length;
+        header.putLong(8, used);
+        return position;
+    }
+
+    private int recordLength(long position) {
+        ByteBuffer segment = segments.get((int) (position / SEGMENT_BYTES));
+        int offset = (int) (position % SEGMENT_BYTES);
+        int idLength = segment.getInt(offset);
+        return 8 + idLength + Math.max(segment.getInt(offset + 4 + idLength), 0);
+    }
+
+    /**
+     * Rewrites the live records to a new file once dead records take at least a segment and more
+     * space than the live ones. Lookups keep reading the current file while the copy is written.
+     */
+    private void compactIfMostlyDead() throws IOException {
+        long dead = used - live;
+        if (dead < SEGMENT_BYTES || dead <= live) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long before = used;
+        Path target = file.resolveSibling(file.getFileName() + ".compact");
+        Files.deleteIfExists(target);
+        ParentChunkStore compacted = new ParentChunkStore(target);
+        try {
+            List<String> ids = new ArrayList<>(positions.keySet());
+            for (int i = 0; i < ids.size(); i += COMPACTION_BATCH) {
+                compacted.putAll(getAll(ids.subList(i, Math.min(ids.size(), i + COMPACTION_BATCH))));
+            }
+            compacted.force();
+            Files.move(target, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            compacted.close();
+            Files.deleteIfExists(target);
+            throw e;
+        }
+
+        FileChannel previous = channel;
+        mapping.writeLock().lock();
+        try {
+            channel = compacted.channel;
+            header = compacted.header;
+            segments = compacted.segments;
+            positions = compacted.positions;
+            used = compacted.used;
+            live = compacted.live;
+        } finally {
+            mapping.writeLock().unlock();
+        }
+        previous.close();
+        log.info("Compacted parent store {} from {} to {} bytes in {}ms", file, before, used,
+                System.currentTimeMillis() - start);
+    }
+
+    private void force() {
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    private ByteBuffer segmentFor(long position) throws IOException {
+        int index = (int) (position / SEGMENT_BYTES);
+        while (segments.size() <= index) {
+            long start = HEADER_BYTES + (long) segments.size() * SEGMENT_BYTES;
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_BYTES));
+        }
+        return segments.get(index);
+    }
+}
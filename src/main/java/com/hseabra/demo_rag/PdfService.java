@@ -1,5 +1,6 @@
 package com.hseabra.demo_rag;
 
+import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pdfbox.Loader;
@@ -10,35 +11,112 @@ import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Service
 @AllArgsConstructor
 public class PdfService {
+    // Extracted pages each worker may run ahead of the consumer
+    private static final int PAGES_AHEAD_PER_WORKER = 4;
+    private final ExecutorService extractors = Executors.newVirtualThreadPerTaskExecutor();
 
     /**
-     * Helper method to load a PDDocument from either a URL or a local file path
+     * Receives extracted pages one at a time, in page order. Implementations may block
+     * (e.g. on a bounded queue) to throttle extraction.
      */
-    private PDDocument loadPDDocument(String path) throws IOException {
-        if (path.startsWith("http://") || path.startsWith("https://")) {
-            URL url = new URL(path);
-            try (InputStream inputStream = url.openStream()) {
-                return Loader.loadPDF(inputStream.readAllBytes());
-            }
-        } else {
-            return Loader.loadPDF(new File(path));
-        }
+    @FunctionalInterface
+    public interface PageSink {
+        void accept(Document page) throws InterruptedException;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        extractors.shutdownNow();
     }
 
     public List<Document> loadPdf(String path) throws IOException {
+        return loadPdf(path, 1);
+    }
+
+    public List<Document> loadPdf(String path, int parallelism) throws IOException {
         List<Document> pages = new ArrayList<>();
+        try {
+            streamPdf(path, parallelism, pages::add);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading " + path);
+        }
+        return pages;
+    }
+
+    /**
+     * Extracts the pages of a PDF and hands each one to the sink as soon as it is parsed,
+     * so callers never need to hold the whole document's text.
+     *
+     * @return the number of pages extracted
+     */
+    public int streamPdf(String path, PageSink sink) throws IOException, InterruptedException {
+        return streamPdf(path, 1, defaultNormalizer(), sink);
+    }
+
+    /**
+     * Same as {@link #streamPdf(String, int, PageNormalizer, PageSink)} with the default normalization rules.
+     */
+    public int streamPdf(String path, int parallelism, PageSink sink) throws IOException, InterruptedException {
+        return streamPdf(path, parallelism, defaultNormalizer(), sink);
+    }
 
-        try (PDDocument pdf = loadPDDocument(path)) {
+    /**
+     * Extracts the pages of a PDF, normalizes their text and hands each page to the sink in page order.
+     * With {@code parallelism > 1} the pages are extracted by several workers, each with its own
+     * {@link PDDocument} and {@link PDFTextStripper} since neither is thread-safe. Workers claim pages
+     * in ascending order and may run at most a few pages ahead of the sink. Normalization runs on the
+     * calling thread in page order, so the normalizer may track state across pages.
+     *
+     * @param path       a local file; {@link DocumentLoader} fetches URLs
+     * @param normalizer used for this document only
+     */
+    public int streamPdf(String path, int parallelism, PageNormalizer normalizer, PageSink sink)
+            throws IOException, InterruptedException {
+        if (parallelism <= 1) {
+            return extractSequentially(path, normalizer, sink);
+        }
+
+        List<PDDocument> handles = new ArrayList<>(parallelism);
+        try {
+            handles.add(Loader.loadPDF(new File(path)));
+            int count = handles.get(0).getNumberOfPages();
+            int workers = Math.min(parallelism, count);
+            for (int w = 1; w < workers; w++) {
+                handles.add(Loader.loadPDF(new File(path)));
+            }
+            extractInParallel(handles, count, normalizer, sink);
+            return count;
+        } finally {
+            for (PDDocument handle : handles) {
+                handle.close();
+            }
+        }
+    }
+
+    private static PageNormalizer defaultNormalizer() {
+        return new TextNormalizer(new RagProperties.NormalizationRules());
+    }
+
+    private int extractSequentially(String path, PageNormalizer normalizer, PageSink sink) throws IOException, InterruptedException {
+        try (PDDocument pdf = Loader.loadPDF(new File(path))) {
             PDFTextStripper stripper = new PDFTextStripper();
 
             int count = pdf.getNumberOfPages();
@@ -46,25 +124,91 @@ public class PdfService {
                 stripper.setStartPage(i);
                 stripper.setEndPage(i);
 
-                String text = clean(stripper.getText(pdf));
+                FlightEvents.PageExtraction event = new FlightEvents.PageExtraction();
+                event.begin();
+                String text = normalizer.normalize(stripper.getText(pdf));
+                event.finish(i, text.length());
 
-                Document page = new Document(text, Map.of("page", String.valueOf(i)));
-
-                pages.add(page);
+                sink.accept(new Document(text, Map.of("page", String.valueOf(i))));
             }
+            return count;
         }
-        return pages;
     }
 
-    private String clean(String text) {
-        if (text == null) return "";
-        return text
-                .replaceAll("\\s+", " ")
-                // Remove sequences of 3 or more dots (like ".....")
-                .replaceAll("\\.{3,}", "")
-                // Remove trailing numbers after a dot (page numbers)
-                .replaceAll("(?<=\\.)\\s*\\d+\\s*$", "")
-                .trim();
+    private void extractInParallel(List<PDDocument> handles, int count, PageNormalizer normalizer, PageSink sink)
+            throws IOException, InterruptedException {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<String>[] results = new CompletableFuture[count + 1];
+        for (int i = 1; i <= count; i++) {
+            results[i] = new CompletableFuture<>();
+        }
+        Semaphore ahead = new Semaphore(handles.size() * PAGES_AHEAD_PER_WORKER);
+        AtomicInteger nextPage = new AtomicInteger(1);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+
+        List<Future<?>> workers = new ArrayList<>(handles.size());
+        for (PDDocument handle : handles) {
+            workers.add(extractors.submit(() -> {
+                PDFTextStripper stripper = new PDFTextStripper();
+                while (true) {
+                    ahead.acquireUninterruptibly();
+                    int i = nextPage.getAndIncrement();
+                    if (stopped.get() || i > count) {
+                        ahead.release();
+                        return;
+                    }
+                    try {
+                        stripper.setStartPage(i);
+                        stripper.setEndPage(i);
+                        // normalization runs later on the consuming thread and is not included
+                        FlightEvents.PageExtraction event = new FlightEvents.PageExtraction();
+                        event.begin();
+                        String text = stripper.getText(handle);
+                        event.finish(i, text.length());
+                        results[i].complete(text);
+                    } catch (Exception e) {
+                        results[i].completeExceptionally(e);
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (int i = 1; i <= count; i++) {
+                String text;
+                try {
+                    text = results[i].get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw new IOException("Failed to extract page " + i, e.getCause());
+                }
+                results[i] = null;
+                ahead.release();
+                sink.accept(new Document(normalizer.normalize(text), Map.of("page", String.valueOf(i))));
+            }
+        } finally {
+            // Wake up any worker still waiting for room and let it see the stop flag
+            // before the document handles are closed underneath it
+            stopped.set(true);
+            ahead.release(handles.size());
+            boolean interrupted = false;
+            for (Future<?> worker : workers) {
+                while (!worker.isDone()) {
+                    try {
+                        worker.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException ignored) {
+                        // page failures are reported through the page results
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
 }
@@ -0,0 +1,66 @@
+package com.hseabra.demo_rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EmbeddingModel} decorator the vector stores embed through. While a {@link #withEmbeddings}
+ * call runs, requests made on its thread for texts whose vectors the caller already computed are
+ * answered with those vectors, so a store writing documents does not embed them a second time.
+ * Every other request goes to the delegate.
+ */
+public class PrecomputedEmbeddingModel implements EmbeddingModel {
+    private final EmbeddingModel delegate;
+    private final ThreadLocal<Map<String, float[]>> precomputed = new ThreadLocal<>();
+
+    public PrecomputedEmbeddingModel(EmbeddingModel delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Runs the call with the vectors of the texts, in the same order, available to this model.
+     */
+    public void withEmbeddings(List<String> texts, List<float[]> vectors, Runnable call) {
+        Map<String, float[]> byText = new HashMap<>(texts.size() * 2);
+        for (int i = 0; i < texts.size(); i++) {
+            byText.put(texts.get(i), vectors.get(i));
+        }
+        precomputed.set(byText);
+        try {
+            call.run();
+        } finally {
+            precomputed.remove();
+        }
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        Map<String, float[]> known = precomputed.get();
+        if (known == null || !known.keySet().containsAll(request.getInstructions())) {
+            return delegate.call(request);
+        }
+        List<Embedding> embeddings = new ArrayList<>(request.getInstructions().size());
+        for (String text : request.getInstructions()) {
+            embeddings.add(new Embedding(known.get(text), embeddings.size()));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
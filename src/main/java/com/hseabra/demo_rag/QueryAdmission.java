@@ -0,0 +1,101 @@
+package com.hseabra.demo_rag;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for query requests. Each priority class has a cap on requests in flight; a
+ * request over it is rejected at once rather than queued behind work the downstream services cannot
+ * absorb, so clients get a fast 503 with Retry-After instead of a timeout. Admitted requests run with
+ * their {@link RequestPriority}, which the downstream limiters schedule by.
+ * <p>
+ * A request holds its place until its answer has been generated, through retrieval and the chat
+ * call; a streamed answer holds it until the last token has been sent or the stream is cancelled.
+ */
+@Component
+public class QueryAdmission implements MeterBinder {
+    private final Map<RequestPriority, Semaphore> permits = new EnumMap<>(RequestPriority.class);
+    private final Map<RequestPriority, Integer> caps = new EnumMap<>(RequestPriority.class);
+    private final Map<RequestPriority, LongAdder> rejected = new EnumMap<>(RequestPriority.class);
+
+    public QueryAdmission(RagProperties ragProperties) {
+        RagProperties.Admission admission = ragProperties.getAdmission();
+        caps.put(RequestPriority.INTERACTIVE, admission.getMaxInteractive());
+        caps.put(RequestPriority.BATCH, admission.getMaxBatch());
+        caps.forEach((priority, cap) -> {
+            permits.put(priority, new Semaphore(cap));
+            rejected.put(priority, new LongAdder());
+        });
+    }
+
+    /**
+     * Runs the call with the given priority if the class is under its cap.
+     *
+     * @throws RejectedExecutionException if the class is at its cap
+     */
+    public <T> T call(RequestPriority priority, Supplier<T> call) {
+        try (Permit ignored = acquire(priority)) {
+            return priority.call(call);
+        }
+    }
+
+    /**
+     * Takes a place in the class for work that outlives a single call, such as a streamed answer; the
+     * caller must {@link Permit#close() close} it when the work ends.
+     *
+     * @throws RejectedExecutionException if the class is at its cap
+     */
+    public Permit acquire(RequestPriority priority) {
+        Semaphore semaphore = permits.get(priority);
+        if (!semaphore.tryAcquire()) {
+            rejected.get(priority).increment();
+            throw new RejectedExecutionException("Too many " + priority.name().toLowerCase(Locale.ROOT)
+                    + " requests in flight, retry later");
+        }
+        return new Permit(semaphore);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        permits.forEach((priority, semaphore) -> {
+            String tag = priority.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("rag.admission.in.flight", semaphore, s -> caps.get(priority) - s.availablePermits())
+                    .tag("priority", tag)
+                    .register(registry);
+            FunctionCounter.builder("rag.admission.rejected", rejected.get(priority), LongAdder::sum)
+                    .tag("priority", tag)
+                    .register(registry);
+        });
+    }
+
+    /**
+     * A place taken by {@link #acquire}; closing it more than once releases it once.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+    }
+}
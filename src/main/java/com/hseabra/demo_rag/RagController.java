@@ -8,19 +8,41 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @RestController
@@ -29,34 +51,93 @@ import java.util.List;
 @Tag(name = "RAG Operations", description = "Endpoints for RAG (Retrieval-Augmented Generation) operations")
 public class RagController {
 
+    private static final long STREAM_TIMEOUT_MS = 120_000;
+    private static final int INGEST_RETRY_AFTER_SECONDS = 30;
+    private static final int QUERY_RETRY_AFTER_SECONDS = 1;
+    private static final int MAX_BATCH_QUESTIONS = 500;
     private final RagInferenceService ragInferenceService;
     private final IngestionService ingestionService;
+    private final ElasticConfig.VectorStoreFactory vectorStoreFactory;
+    private final QueryAdmission admission;
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     @PostMapping("/inference")
     @Operation(
             summary = "Query the RAG system",
-            description = "Submit a question to the RAG system and receive an AI-generated answer based on the ingested documents. Optionally specify an index name."
+            description = "Submit a question to the RAG system and receive the documents retrieved for it. Optionally specify an index name, "
+                    + "or several index names and patterns (e.g. products_*) to search them all concurrently and merge their hits by score; "
+                    + "an index that fails or times out is listed in failedIndexes instead of failing the request."
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successfully retrieved documents",
                     content = @Content(mediaType = "application/json", schema = @Schema(implementation = InferenceResponse.class))),
-            @ApiResponse(responseCode = "400", description = "Invalid inference provided", content = @Content),
+            @ApiResponse(responseCode = "400", description = "Invalid inference provided, or too many index names, or patterns matching too many indexes; "
+                    + "the message says which",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = InferenceResponse.class))),
+            @ApiResponse(responseCode = "503", description = "Too many queries in flight; retry after the Retry-After delay", content = @Content),
             @ApiResponse(responseCode = "500", description = "Internal server error", content = @Content)
     })
     public ResponseEntity<InferenceResponse> inference(
             @Parameter(description = "The question to ask the RAG system and optional index name", required = true)
             @Valid @RequestBody InferenceRequest request) {
-        List<Document> documents;
+        List<String> indexNames = new ArrayList<>();
         if (request.getIndexName() != null && !request.getIndexName().isBlank()) {
-            documents = ragInferenceService.inference(request.getQuestion(), request.getIndexName());
-        } else {
-            documents = ragInferenceService.inference(request.getQuestion());
+            indexNames.add(request.getIndexName());
+        }
+        if (request.getIndexNames() != null) {
+            indexNames.addAll(request.getIndexNames());
         }
+        if (indexNames.size() > 1 || indexNames.stream().anyMatch(name -> name.contains("*"))) {
+            RagInferenceService.FederatedResult result;
+            try {
+                result = admission.call(RequestPriority.INTERACTIVE, () -> ragInferenceService.federatedInference(
+                        request.getQuestion(), indexNames, modeOrDefault(request.getRetrievalMode())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(new InferenceResponse(List.of(), List.of(), Map.of(), e.getMessage()));
+            }
+            return ResponseEntity.ok(new InferenceResponse(result.documents(), result.indexes(), result.failedIndexes(), null));
+        }
+
+        String indexName = indexNames.isEmpty() ? RagInferenceService.DEFAULT_INDEX : indexNames.get(0);
+        List<Document> documents = admission.call(RequestPriority.INTERACTIVE, () -> ragInferenceService.inference(
+                request.getQuestion(), indexName, modeOrDefault(request.getRetrievalMode())));
 
-        InferenceResponse response = new InferenceResponse(documents);
+        InferenceResponse response = new InferenceResponse(documents, List.of(indexName), Map.of(), null);
         return ResponseEntity.ok(response);
     }
 
+    @PostMapping("/inference/batch")
+    @Operation(
+            summary = "Query the RAG system with many questions",
+            description = "Batch variant of /inference for bulk callers. All questions are embedded in one call and searched in one "
+                    + "Elasticsearch multi-search. Results are returned in request order; a question that fails carries an error "
+                    + "instead of failing the batch."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Documents or error per question",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = BatchInferenceResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid or too many questions provided", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Too many batches in flight; retry after the Retry-After delay", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal server error", content = @Content)
+    })
+    public ResponseEntity<BatchInferenceResponse> inferenceBatch(
+            @Parameter(description = "The questions, each with an optional index name and retrieval mode", required = true)
+            @Valid @RequestBody BatchInferenceRequest request) {
+        List<RagInferenceService.BatchQuestion> questions = request.getQuestions().stream()
+                .map(q -> new RagInferenceService.BatchQuestion(q.getQuestion(), indexOrDefault(q.getIndexName()),
+                        modeOrDefault(q.getRetrievalMode())))
+                .toList();
+        List<RagInferenceService.BatchAnswer> answers = admission.call(RequestPriority.BATCH,
+                () -> ragInferenceService.inferenceBatch(questions));
+
+        List<BatchInferenceResult> results = new ArrayList<>(answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            results.add(new BatchInferenceResult(questions.get(i).question(), questions.get(i).indexName(),
+                    answers.get(i).documents(), answers.get(i).error()));
+        }
+        return ResponseEntity.ok(new BatchInferenceResponse(results));
+    }
+
     @PostMapping("/query")
     @Operation(
             summary = "Query the RAG system",
@@ -66,41 +147,219 @@ public class RagController {
             @ApiResponse(responseCode = "200", description = "Successfully retrieved answer",
                     content = @Content(mediaType = "application/json", schema = @Schema(implementation = QueryResponse.class))),
             @ApiResponse(responseCode = "400", description = "Invalid query provided", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Too many queries in flight; retry after the Retry-After delay", content = @Content),
             @ApiResponse(responseCode = "500", description = "Internal server error", content = @Content)
     })
     public ResponseEntity<QueryResponse> query(
             @Parameter(description = "The question to ask the RAG system and optional index name", required = true)
             @Valid @RequestBody QueryRequest request) {
-        String answer;
-        if (request.getIndexName() != null && !request.getIndexName().isBlank()) {
-            answer = ragInferenceService.query(request.getQuestion(), request.getIndexName());
-        } else {
-            answer = ragInferenceService.query(request.getQuestion());
-        }
+        String answer = admission.call(RequestPriority.INTERACTIVE, () -> ragInferenceService.query(request.getQuestion(),
+                indexOrDefault(request.getIndexName()), modeOrDefault(request.getRetrievalMode())));
 
         QueryResponse response = new QueryResponse(request.getQuestion(), answer);
         return ResponseEntity.ok(response);
     }
 
+    @PostMapping(value = "/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Query the RAG system with a streamed answer",
+            description = "Server-Sent Events variant of /query. Emits one 'sources' event with the metadata of the retrieved documents, "
+                    + "then 'token' events as the answer is generated, and a final 'done' event. An 'error' event is sent if retrieval or "
+                    + "generation fails. Closing the connection cancels the generation."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Event stream with sources and answer tokens",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE)),
+            @ApiResponse(responseCode = "400", description = "Invalid query provided", content = @Content)
+    })
+    public SseEmitter queryStream(
+            @Parameter(description = "The question to ask the RAG system and optional index name", required = true)
+            @Valid @RequestBody QueryRequest request) {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        AtomicReference<Disposable> generation = new AtomicReference<>();
+        Runnable cancel = () -> {
+            Disposable d = generation.getAndSet(Disposables.disposed());
+            if (d != null) {
+                d.dispose();
+            }
+        };
+        emitter.onCompletion(cancel);
+        emitter.onTimeout(cancel);
+        emitter.onError(e -> cancel.run());
+
+        streamExecutor.execute(() -> {
+            QueryAdmission.Permit permit = null;
+            try {
+                permit = admission.acquire(RequestPriority.INTERACTIVE);
+                RagInferenceService.StreamedAnswer answer = RequestPriority.INTERACTIVE.call(
+                        () -> ragInferenceService.queryStream(request.getQuestion(), indexOrDefault(request.getIndexName()),
+                                modeOrDefault(request.getRetrievalMode())));
+                emitter.send(SseEmitter.event().name("sources")
+                        .data(answer.sources().stream().map(StreamSource::of).toList(), MediaType.APPLICATION_JSON));
+
+                // the admission place is held, as on /query, until generation completes, fails or is cancelled
+                QueryAdmission.Permit held = permit;
+                Disposable subscription = answer.tokens().doFinally(signal -> held.close()).subscribe(
+                        token -> {
+                            try {
+                                emitter.send(SseEmitter.event().name("token").data(new StreamToken(token), MediaType.APPLICATION_JSON));
+                            } catch (IOException e) {
+                                // client went away; stop generating
+                                log.debug("Client disconnected from answer stream", e);
+                                cancel.run();
+                                emitter.completeWithError(e);
+                            }
+                        },
+                        error -> sendErrorAndComplete(emitter, error),
+                        () -> {
+                            try {
+                                emitter.send(SseEmitter.event().name("done").data(""));
+                                emitter.complete();
+                            } catch (IOException e) {
+                                emitter.completeWithError(e);
+                            }
+                        });
+                if (!generation.compareAndSet(null, subscription)) {
+                    // the emitter was completed while retrieval was running
+                    subscription.dispose();
+                }
+            } catch (Exception e) {
+                if (permit != null) {
+                    permit.close();
+                }
+                sendErrorAndComplete(emitter, e);
+            }
+        });
+        return emitter;
+    }
+
+    private static void sendErrorAndComplete(SseEmitter emitter, Throwable error) {
+        String message = "Failed to generate answer";
+        if (error instanceof RejectedExecutionException) {
+            log.warn("Streaming query rejected: {}", error.getMessage());
+            message = error.getMessage();
+        } else {
+            log.error("Streaming query failed", error);
+        }
+        try {
+            emitter.send(SseEmitter.event().name("error").data(message));
+            emitter.complete();
+        } catch (Exception e) {
+            emitter.completeWithError(error);
+        }
+    }
+
     @PostMapping("/ingest")
     @Operation(
-            summary = "Ingest a document",
-            description = "Ingest a PDF document into the RAG system's vector store. Optionally specify an index name."
+            summary = "Ingest documents",
+            description = "Queue PDF documents for ingestion into the RAG system's vector store. Optionally specify an index name. "
+                    + "Returns a job id whose progress can be followed at /api/rag/ingest/{jobId}."
     )
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Successfully ingested document",
+            @ApiResponse(responseCode = "202", description = "Ingestion job accepted",
                     content = @Content(mediaType = "application/json", schema = @Schema(implementation = IngestionResponse.class))),
             @ApiResponse(responseCode = "400", description = "Invalid file path provided", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Ingestion queue is full; retry after the Retry-After delay", content = @Content),
             @ApiResponse(responseCode = "500", description = "Internal server error", content = @Content)
     })
     public ResponseEntity<IngestionResponse> ingest(
-            @Parameter(description = "The path to the PDF file to ingest (local path or URL) and optional index name", required = true)
+            @Parameter(description = "The path to the document to ingest (local path or URL) and optional index name", required = true)
             @Valid @RequestBody IngestionRequest request) {
 
-        ingestionService.ingest(request.getFilePath(), request.getIndexName());
+        int parallelism = request.getExtractionParallelism() == null ? 1 : request.getExtractionParallelism();
+        ChunkingMode chunkingMode = request.getChunkingMode() == null ? ChunkingMode.FLAT : request.getChunkingMode();
+        IngestionJob job;
+        try {
+            job = ingestionService.submit(request.getFilePath(), request.getIndexName(), parallelism, chunkingMode);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new IngestionResponse(e.getMessage(), null));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(INGEST_RETRY_AFTER_SECONDS))
+                    .body(new IngestionResponse(e.getMessage(), null));
+        }
 
-        IngestionResponse response = new IngestionResponse("Document(s) ingested successfully");
-        return ResponseEntity.ok(response);
+        IngestionResponse response = new IngestionResponse("Ingestion job accepted", job.getId());
+        return ResponseEntity.accepted().body(response);
+    }
+
+    @GetMapping("/ingest/{jobId}")
+    @Operation(
+            summary = "Get ingestion job status",
+            description = "Per-file stage, pages and chunks processed, indexing throughput and errors of an ingestion job."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Job status",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = IngestionJob.JobStatus.class))),
+            @ApiResponse(responseCode = "404", description = "Unknown job id", content = @Content)
+    })
+    public ResponseEntity<IngestionJob.JobStatus> ingestStatus(@PathVariable String jobId) {
+        return ingestionService.getJob(jobId)
+                .map(job -> ResponseEntity.ok(job.status()))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping("/ingest/{jobId}")
+    @Operation(
+            summary = "Cancel an ingestion job",
+            description = "Skips the job's queued files and stops running ones before their next batch is written."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Job status after cancellation",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = IngestionJob.JobStatus.class))),
+            @ApiResponse(responseCode = "404", description = "Unknown job id", content = @Content)
+    })
+    public ResponseEntity<IngestionJob.JobStatus> cancelIngestion(@PathVariable String jobId) {
+        return ingestionService.getJob(jobId)
+                .map(job -> {
+                    job.cancel();
+                    return ResponseEntity.ok(job.status());
+                })
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/indexes/{indexName}/migrate")
+    @Operation(
+            summary = "Migrate an index to its vector mapping profile",
+            description = "Reindexes an Elasticsearch index into a new index created with its configured rag.vector-mapping profile (e.g. int8/int4/BBQ quantized HNSW), then points the index name at it as an alias and deletes the old index. Pause ingestion into the index while this runs."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Index migrated",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = MigrationResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Index is not stored in Elasticsearch", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Reindex failed; the old index is left untouched", content = @Content)
+    })
+    public ResponseEntity<MigrationResponse> migrateIndex(@PathVariable String indexName) throws IOException {
+        VectorIndexInitializer.Migration migration;
+        try {
+            migration = vectorStoreFactory.migrateIndex(indexName);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(new MigrationResponse(migration.sourceIndices(), migration.targetIndex(), migration.documents()));
+    }
+
+    /**
+     * Requests turned away by {@link QueryAdmission}; ingestion rejections are answered by {@link #ingest}.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<ProblemDetail> rejected(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(QUERY_RETRY_AFTER_SECONDS))
+                .body(ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    private static String indexOrDefault(String indexName) {
+        return indexName != null && !indexName.isBlank() ? indexName : RagInferenceService.DEFAULT_INDEX;
+    }
+
+    private static RetrievalMode modeOrDefault(RetrievalMode mode) {
+        return mode == null ? RetrievalMode.VECTOR : mode;
     }
 
     @Data
@@ -113,6 +372,12 @@ public class RagController {
         @Schema(description = "Name of the Elasticsearch index to query (optional, defaults to 'test_hugo_index')",
                 example = "custom_index_name")
         private String indexName;
+
+        @Schema(
+                description = "VECTOR runs kNN search only; HYBRID also runs BM25 full-text search and fuses both rankings (optional, defaults to VECTOR)",
+                example = "HYBRID"
+        )
+        private RetrievalMode retrievalMode;
     }
 
     @Data
@@ -126,12 +391,38 @@ public class RagController {
         private String answer;
     }
 
+    @Data
+    @AllArgsConstructor
+    @Schema(description = "Metadata of a document retrieved for a streamed answer")
+    public static class StreamSource {
+        @Schema(description = "Document id")
+        private String id;
+
+        @Schema(description = "Similarity score")
+        private Double score;
+
+        @Schema(description = "Document metadata (path, topic, ...)")
+        private Map<String, Object> metadata;
+
+        static StreamSource of(Document document) {
+            return new StreamSource(document.getId(), document.getScore(), document.getMetadata());
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    @Schema(description = "Answer fragment of a streamed answer")
+    public static class StreamToken {
+        @Schema(description = "Generated text, to be appended to the previous fragments")
+        private String text;
+    }
+
     @Data
     @Schema(description = "Request body for ingesting a document")
     public static class IngestionRequest {
         @NotEmpty(message = "File path cannot be blank")
         @Schema(
-                description = "Path to the PDF file to ingest (supports both local file paths and URLs)",
+                description = "Path to the document to ingest: PDF, DOCX, HTML, Markdown or plain text (supports both local file paths and URLs)",
                 example = "https://bitcoin.org/bitcoin.pdf"
         )
         private List<String> filePath;
@@ -141,6 +432,20 @@ public class RagController {
                 example = "custom_index_name"
         )
         private String indexName;
+
+        @Min(value = 1, message = "Extraction parallelism must be at least 1")
+        @Max(value = 32, message = "Extraction parallelism must be at most 32")
+        @Schema(
+                description = "Number of workers extracting PDF pages in parallel (optional, defaults to 1)",
+                example = "4"
+        )
+        private Integer extractionParallelism;
+
+        @Schema(
+                description = "FLAT embeds 400-token chunks; PARENT_CHILD embeds 400-token children and answers with their 1200-token parents (optional, defaults to FLAT)",
+                example = "PARENT_CHILD"
+        )
+        private ChunkingMode chunkingMode;
     }
 
     @Data
@@ -149,6 +454,23 @@ public class RagController {
     public static class IngestionResponse {
         @Schema(description = "Status message")
         private String message;
+
+        @Schema(description = "Id of the ingestion job, to query with GET /api/rag/ingest/{jobId}")
+        private String jobId;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @Schema(description = "Result of an index migration")
+    public static class MigrationResponse {
+        @Schema(description = "Indexes the documents were copied from; they have been deleted")
+        private List<String> sourceIndices;
+
+        @Schema(description = "New index the requested name now points to as an alias")
+        private String targetIndex;
+
+        @Schema(description = "Number of documents copied")
+        private long documents;
     }
 
     @Data
@@ -161,15 +483,69 @@ public class RagController {
         @Schema(description = "Name of the Elasticsearch index to query (optional, defaults to 'test_hugo_index')",
                 example = "custom_index_name")
         private String indexName;
+
+        @Schema(description = "Further index names or patterns to search together with indexName, at most rag.federation.max-indexes "
+                + "in all; /inference only, ignored in batches (optional)",
+                example = "[\"products_*\", \"manuals\"]")
+        private List<@NotBlank String> indexNames;
+
+        @Schema(
+                description = "VECTOR runs kNN search only; HYBRID also runs BM25 full-text search and fuses both rankings (optional, defaults to VECTOR)",
+                example = "HYBRID"
+        )
+        private RetrievalMode retrievalMode;
     }
 
     @Data
     @AllArgsConstructor
     @Schema(description = "Response containing the documents from the RAG system")
     public static class InferenceResponse {
-        @Schema(description = "Documents retrieved for the inference")
+        @Schema(description = "Documents retrieved for the inference; from a multi-index search, each names its index in the 'index' metadata")
+        private List<Document> documents;
+
+        @Schema(description = "Indexes searched, with patterns expanded")
+        private List<String> indexes;
+
+        @Schema(description = "Why the search of an index failed or timed out, by index, or why a pattern could not be resolved, "
+                + "by pattern; their hits are missing from documents")
+        private Map<String, String> failedIndexes;
+
+        @Schema(description = "Why the request was rejected, such as too many indexes; only set on a 400")
+        private String message;
+    }
+
+    @Data
+    @Schema(description = "Request body for batch inference")
+    public static class BatchInferenceRequest {
+        @NotEmpty(message = "Questions cannot be empty")
+        @Size(max = MAX_BATCH_QUESTIONS, message = "At most " + MAX_BATCH_QUESTIONS + " questions per batch")
+        @Schema(description = "Questions to retrieve documents for, each with an optional index name and retrieval mode")
+        private List<@Valid InferenceRequest> questions;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @Schema(description = "Documents retrieved for one question of a batch")
+    public static class BatchInferenceResult {
+        @Schema(description = "The question")
+        private String question;
+
+        @Schema(description = "Index the question was run against")
+        private String indexName;
+
+        @Schema(description = "Documents retrieved for the question; empty if it failed")
         private List<Document> documents;
 
+        @Schema(description = "Why retrieval failed for this question, null on success")
+        private String error;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @Schema(description = "Response to a batch inference, with one result per question in request order")
+    public static class BatchInferenceResponse {
+        @Schema(description = "Results in the order of the questions")
+        private List<BatchInferenceResult> results;
     }
 }
 
@@ -1,14 +1,45 @@
 package com.hseabra.demo_rag;
 
+import io.micrometer.observation.Observation;
+import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
 import org.springframework.stereotype.Service;
+import reactor.core.observability.DefaultSignalListener;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -16,30 +47,428 @@ import java.util.stream.Collectors;
 @Slf4j
 public class RagInferenceService {
 
-    private static final String DEFAULT_INDEX = "test_hugo_index";
+    public static final String DEFAULT_INDEX = "test_hugo_index";
+    private static final int TOP_K = 3;
+    private static final double SIMILARITY_THRESHOLD = 0.6;
+    // Metadata key naming the index a document of a federated search came from
+    public static final String SOURCE_INDEX = "index";
     private final ElasticConfig.VectorStoreFactory vectorStoreFactory;
+    private final VectorSearchService vectorSearch;
+    private final RetrievalCache retrievalCache;
     private final ChatModel chat;
+    private final ParentChunkStore parentStore;
+    private final RagProperties ragProperties;
+    private final RagMetrics metrics;
+    private final ContextBuilder contextBuilder;
+    // Runs the BM25 leg of hybrid retrieval while the calling thread runs the kNN leg, and the
+    // per-index searches of federated retrieval
+    private final ExecutorService searchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final TokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+    // Retrievals running now, so identical concurrent questions share one embedding call and search
+    private final Map<RetrievalCache.ResultKey, CompletableFuture<List<Document>>> inFlightRetrievals = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    void shutdown() {
+        searchExecutor.shutdownNow();
+    }
 
     public List<Document> inference(String query) {
         return inference(query, DEFAULT_INDEX);
     }
 
     public List<Document> inference(String query, String indexName) {
-        log.info("Received query: {} for index: {}", query, indexName);
+        return inference(query, indexName, RetrievalMode.VECTOR);
+    }
+
+    /**
+     * Retrieves the top documents for a question. Repeated questions are answered from the
+     * {@link RetrievalCache}; on a result miss a cached query embedding still saves the embedding call,
+     * and a question identical to one being retrieved waits for that retrieval instead of repeating it.
+     * Child chunks of parent/child ingestions are replaced by their parents.
+     */
+    public List<Document> inference(String query, String indexName, RetrievalMode mode) {
+        return expandToParents(retrieve(query, indexName, mode, TOP_K));
+    }
+
+    /**
+     * Documents for the answer prompt: more candidates than {@link #inference} returns, reordered by
+     * maximal marginal relevance over their stored embeddings with near-duplicates dropped, expanded
+     * to parents, and packed into the context token budget with overlapping text removed. The
+     * diversified candidates are cached with the retrieval results, so a repeated question makes no
+     * embedding call, search or embeddings lookup.
+     */
+    private List<Document> promptContext(String query, String indexName, RetrievalMode mode) {
+        RetrievalCache.ResultKey key = resultKey(query, indexName, mode, Math.max(TOP_K, ragProperties.getContext().getCandidates()));
+        List<Document> candidates = retrievalCache.getContext(key);
+        if (candidates == null) {
+            long generation = retrievalCache.generation(indexName);
+            candidates = retrieve(query, key);
+            if (candidates.size() > 1) {
+                float[] queryVector = embed(RetrievalCache.embeddingText(query), indexName);
+                Map<String, float[]> embeddings = vectorSearch.getEmbeddings(indexName,
+                        candidates.stream().map(Document::getId).toList());
+                candidates = contextBuilder.diversify(queryVector, candidates, embeddings);
+            }
+            retrievalCache.putContext(key, generation, candidates);
+        }
+        return contextBuilder.pack(expandToParents(candidates));
+    }
+
+    private static RetrievalCache.ResultKey resultKey(String query, String indexName, RetrievalMode mode, int topK) {
+        return new RetrievalCache.ResultKey(indexName, RetrievalCache.normalize(query), topK, SIMILARITY_THRESHOLD, mode);
+    }
+
+    private List<Document> retrieve(String query, String indexName, RetrievalMode mode, int topK) {
+        return retrieve(query, resultKey(query, indexName, mode, topK));
+    }
+
+    private List<Document> retrieve(String query, RetrievalCache.ResultKey key) {
+        String indexName = key.indexName();
+        RetrievalMode mode = key.mode();
+        int topK = key.topK();
+        log.info("Received {} query: {} for index: {}", mode, query, indexName);
+        long start = System.currentTimeMillis();
+        List<Document> documents = retrieveOnce(key, () -> mode == RetrievalMode.HYBRID
+                ? hybridSearch(query, () -> embed(RetrievalCache.embeddingText(query), indexName), indexName, topK)
+                : vectorSearch.search(indexName, embed(RetrievalCache.embeddingText(query), indexName), topK, SIMILARITY_THRESHOLD));
+        if (log.isDebugEnabled()
+                && ThreadLocalRandom.current().nextDouble() < ragProperties.getDiagnostics().getDocumentLogSampleRate()) {
+            for (Document document : documents) {
+                log.debug("Retrieved doc with metadata={}\n{}", document.getMetadata(), document.getText());
+            }
+        }
+        log.info("Inference took {}ms return {} docs", System.currentTimeMillis() - start, documents.size());
+        return documents;
+    }
+
+    /**
+     * Results for the key from the {@link RetrievalCache}, or from an identical retrieval already
+     * running, which this one waits for; otherwise runs {@code search}, caches its results and shares
+     * them with identical retrievals that start meanwhile.
+     */
+    private List<Document> retrieveOnce(RetrievalCache.ResultKey key, Supplier<List<Document>> search) {
+        List<Document> documents = retrievalCache.getResults(key);
+        if (documents != null) {
+            log.debug("Returning {} cached docs for {}", documents.size(), key.indexName());
+            return documents;
+        }
+
+        CompletableFuture<List<Document>> retrieval = new CompletableFuture<>();
+        CompletableFuture<List<Document>> running = inFlightRetrievals.putIfAbsent(key, retrieval);
+        if (running != null) {
+            try {
+                documents = running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+            log.debug("Returning {} docs of a concurrent identical query for {}", documents.size(), key.indexName());
+            return documents;
+        }
+        try {
+            long generation = retrievalCache.generation(key.indexName());
+            documents = search.get();
+            retrievalCache.putResults(key, generation, documents);
+            retrieval.complete(documents);
+        } catch (RuntimeException e) {
+            retrieval.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRetrievals.remove(key, retrieval);
+        }
+        return documents;
+    }
+
+    /**
+     * Retrieves the top documents for a question from several indexes at once; index patterns such as
+     * {@code products_*} are expanded first. The question is embedded once and searched in every index
+     * concurrently, each search bounded by {@code rag.federation.leg-timeout}, so the call takes as long
+     * as the slowest index answering in time rather than the sum of all. An index whose search fails or
+     * times out, and a pattern that could not be resolved, is reported in the result instead of failing
+     * the request. Each index's search shares the {@link RetrievalCache} and in-flight retrievals with
+     * {@link #inference}.
+     * <p>
+     * kNN scores are normalized similarities and fused hybrid scores depend on rank only, so the hits
+     * of all indexes are merged by score as they are. Each carries its index in {@link #SOURCE_INDEX}.
+     *
+     * @throws IllegalArgumentException if more than {@code rag.federation.max-indexes} names are given
+     *                                  or they match more indexes than that
+     */
+    public FederatedResult federatedInference(String query, List<String> indexNames, RetrievalMode mode) {
         long start = System.currentTimeMillis();
-        SearchRequest request = SearchRequest.builder()
-                .query(query)
-                .topK(3)
-                .similarityThreshold(0.6)
+        RagProperties.Federation config = ragProperties.getFederation();
+        if (indexNames.size() > config.getMaxIndexes()) {
+            throw new IllegalArgumentException(indexNames.size() + " index names given, at most "
+                    + config.getMaxIndexes() + " may be searched at once");
+        }
+        VectorSearchService.ResolvedIndexes resolved = vectorSearch.resolveIndexes(indexNames);
+        List<String> indexes = resolved.indexes();
+        if (indexes.size() > config.getMaxIndexes()) {
+            throw new IllegalArgumentException(indexNames + " match " + indexes.size() + " indexes, at most "
+                    + config.getMaxIndexes() + " may be searched at once");
+        }
+        log.info("Received federated {} query: {} for indexes: {}", mode, query, indexes);
+        Map<String, String> failed = new LinkedHashMap<>(resolved.failed());
+        if (indexes.isEmpty()) {
+            return new FederatedResult(List.of(), indexes, failed);
+        }
+        String normalized = RetrievalCache.normalize(query);
+        float[] queryVector = embed(RetrievalCache.embeddingText(query), indexes.size() == 1 ? indexes.get(0) : RagMetrics.MULTIPLE_INDEXES);
+
+        Map<String, Future<List<Document>>> legs = new LinkedHashMap<>();
+        for (String indexName : indexes) {
+            Supplier<List<Document>> leg = metrics.inCurrentScope(RequestPriority.inCurrent(
+                    () -> searchIndex(query, normalized, queryVector, indexName, mode)));
+            legs.put(indexName, searchExecutor.submit(leg::get));
+        }
+        long deadline = System.nanoTime() + config.getLegTimeout().toNanos();
+        List<Document> merged = new ArrayList<>();
+        for (Map.Entry<String, Future<List<Document>>> leg : legs.entrySet()) {
+            try {
+                for (Document document : leg.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    merged.add(withSourceIndex(document, leg.getKey()));
+                }
+            } catch (TimeoutException e) {
+                leg.getValue().cancel(true);
+                log.warn("Search of {} did not finish within {}", leg.getKey(), config.getLegTimeout());
+                failed.put(leg.getKey(), "Timed out after " + config.getLegTimeout().toMillis() + "ms");
+            } catch (ExecutionException e) {
+                log.warn("Search of {} failed", leg.getKey(), e.getCause());
+                failed.put(leg.getKey(), "Search failed: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                legs.values().forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while searching " + indexes);
+            }
+        }
+        merged.sort(Comparator.comparingDouble((Document document) -> document.getScore() == null ? 0 : document.getScore())
+                .reversed());
+        List<Document> documents = expandToParents(merged.subList(0, Math.min(TOP_K, merged.size())));
+        log.info("Federated inference over {} indexes ({} failed) took {}ms return {} docs", indexes.size(), failed.size(),
+                System.currentTimeMillis() - start, documents.size());
+        return new FederatedResult(documents, indexes, failed);
+    }
+
+    /**
+     * One leg of a federated search: the cached results of the index, those of an identical retrieval
+     * running now, or a search with the shared query vector.
+     */
+    private List<Document> searchIndex(String query, String normalized, float[] queryVector, String indexName, RetrievalMode mode) {
+        RetrievalCache.ResultKey key = new RetrievalCache.ResultKey(indexName, normalized, TOP_K, SIMILARITY_THRESHOLD, mode);
+        return retrieveOnce(key, () -> mode == RetrievalMode.HYBRID
+                ? hybridSearch(query, () -> queryVector, indexName, TOP_K)
+                : vectorSearch.search(indexName, queryVector, TOP_K, SIMILARITY_THRESHOLD));
+    }
+
+    private static Document withSourceIndex(Document document, String indexName) {
+        Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+        metadata.put(SOURCE_INDEX, indexName);
+        return Document.builder()
+                .id(document.getId())
+                .text(document.getText())
+                .metadata(metadata)
+                .score(document.getScore())
                 .build();
+    }
+
+    /**
+     * Runs the BM25 search on a virtual thread while this thread gets the query vector and runs the kNN
+     * search, then fuses both rankings. The similarity threshold applies to the kNN leg only; BM25
+     * scores have no fixed scale.
+     */
+    private List<Document> hybridSearch(String query, Supplier<float[]> queryVector, String indexName, int topK) {
+        RagProperties.HybridWeights weights = ragProperties.getHybrid().forIndex(indexName);
+        int candidates = Math.max(topK, weights.getCandidates());
+        CompletableFuture<List<Document>> lexical = CompletableFuture.supplyAsync(
+                metrics.inCurrentScope(RequestPriority.inCurrent(() -> vectorSearch.lexicalSearch(indexName, query, candidates))),
+                searchExecutor);
+        List<Document> vector;
+        try {
+            vector = vectorSearch.search(indexName, queryVector.get(), candidates, SIMILARITY_THRESHOLD);
+        } catch (RuntimeException e) {
+            lexical.cancel(true);
+            throw e;
+        }
+        try {
+            return fuse(vector, lexical.join(), weights, topK);
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private static List<Document> fuse(List<Document> vector, List<Document> lexical, RagProperties.HybridWeights weights, int topK) {
+        List<Document> fused = ReciprocalRankFusion.fuse(List.of(vector, lexical),
+                new double[]{weights.getVectorWeight(), weights.getLexicalWeight()}, weights.getRankConstant(), topK);
+        log.debug("Fused {} vector and {} lexical hits into {}", vector.size(), lexical.size(), fused.size());
+        return fused;
+    }
+
+    /**
+     * Retrieves the documents for many questions at once. Questions not in the {@link RetrievalCache}
+     * are embedded with one embedding call and searched with one multi-search (kNN and, for HYBRID,
+     * BM25 searches together), so bulk callers pay the per-request overhead once per batch. Answers are
+     * in request order; a question whose search fails gets an error without failing the others.
+     */
+    public List<BatchAnswer> inferenceBatch(List<BatchQuestion> questions) {
+        long start = System.currentTimeMillis();
+        int count = questions.size();
+        List<List<Document>> documents = new ArrayList<>(Collections.nCopies(count, null));
+        String[] errors = new String[count];
+        RetrievalCache.ResultKey[] keys = new RetrievalCache.ResultKey[count];
+        long[] generations = new long[count];
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BatchQuestion question = questions.get(i);
+            keys[i] = new RetrievalCache.ResultKey(question.indexName(), RetrievalCache.normalize(question.question()),
+                    TOP_K, SIMILARITY_THRESHOLD, question.mode());
+            List<Document> cached = retrievalCache.getResults(keys[i]);
+            if (cached != null) {
+                documents.set(i, cached);
+            } else {
+                generations[i] = retrievalCache.generation(question.indexName());
+                misses.add(i);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            Map<String, float[]> embeddings = new HashMap<>();
+            try {
+                embeddings = embedAll(misses.stream().map(questions::get).toList());
+            } catch (RuntimeException e) {
+                log.error("Embedding {} questions failed", misses.size(), e);
+                for (int i : misses) {
+                    errors[i] = "Embedding failed: " + e.getMessage();
+                }
+            }
+
+            List<VectorSearchService.BatchSearch> searches = new ArrayList<>();
+            int[] vectorSlots = new int[count];
+            int[] lexicalSlots = new int[count];
+            for (int i : misses) {
+                BatchQuestion question = questions.get(i);
+                float[] embedding = embeddings.get(RetrievalCache.embeddingText(question.question()));
+                if (embedding == null) {
+                    continue;
+                }
+                int candidates = question.mode() == RetrievalMode.HYBRID
+                        ? Math.max(TOP_K, ragProperties.getHybrid().forIndex(question.indexName()).getCandidates())
+                        : TOP_K;
+                vectorSlots[i] = searches.size();
+                searches.add(VectorSearchService.BatchSearch.knn(question.indexName(), embedding, candidates, SIMILARITY_THRESHOLD));
+                if (question.mode() == RetrievalMode.HYBRID) {
+                    lexicalSlots[i] = searches.size();
+                    searches.add(VectorSearchService.BatchSearch.lexical(question.indexName(), question.question(), candidates));
+                }
+            }
 
-        VectorStore vectorStore = vectorStoreFactory.getVectorStore(indexName);
-        List<Document> documents = vectorStore.similaritySearch(request);
+            List<VectorSearchService.BatchResult> results = searches.isEmpty() ? List.of() : vectorSearch.multiSearch(searches);
+            for (int i : misses) {
+                if (errors[i] != null) {
+                    continue;
+                }
+                BatchQuestion question = questions.get(i);
+                VectorSearchService.BatchResult vector = results.get(vectorSlots[i]);
+                VectorSearchService.BatchResult lexical = question.mode() == RetrievalMode.HYBRID ? results.get(lexicalSlots[i]) : null;
+                if (vector.error() != null || (lexical != null && lexical.error() != null)) {
+                    errors[i] = "Search failed: " + (vector.error() != null ? vector.error() : lexical.error());
+                    continue;
+                }
+                List<Document> found = lexical == null ? vector.documents()
+                        : fuse(vector.documents(), lexical.documents(), ragProperties.getHybrid().forIndex(question.indexName()), TOP_K);
+                retrievalCache.putResults(keys[i], generations[i], found);
+                documents.set(i, found);
+            }
+        }
+
+        List<BatchAnswer> answers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            answers.add(errors[i] != null
+                    ? new BatchAnswer(List.of(), errors[i])
+                    : new BatchAnswer(expandToParents(documents.get(i)), null));
+        }
+        log.info("Batch inference of {} questions ({} cached, {} failed) took {}ms", count, count - misses.size(),
+                Arrays.stream(errors).filter(Objects::nonNull).count(), System.currentTimeMillis() - start);
+        return answers;
+    }
+
+    /**
+     * Embeddings of the questions by {@link RetrievalCache#embeddingText}; those not in the cache are
+     * embedded in one call.
+     */
+    private Map<String, float[]> embedAll(List<BatchQuestion> questions) {
+        Map<String, float[]> embeddings = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (BatchQuestion question : questions) {
+            String text = RetrievalCache.embeddingText(question.question());
+            float[] embedding = retrievalCache.getEmbedding(text);
+            if (embedding != null) {
+                embeddings.put(text, embedding);
+            } else {
+                missing.add(text);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<String> indexes = questions.stream().map(BatchQuestion::indexName).distinct().toList();
+            List<String> texts = new ArrayList<>(missing);
+            List<float[]> computed = metrics.embedding(indexes.size() == 1 ? indexes.get(0) : RagMetrics.MULTIPLE_INDEXES,
+                    texts.size(), texts.stream().mapToInt(tokenCounter::estimate).sum(),
+                    () -> vectorStoreFactory.getEmbeddingModel().embed(texts));
+            int i = 0;
+            for (String text : missing) {
+                float[] embedding = computed.get(i++);
+                retrievalCache.putEmbedding(text, embedding);
+                embeddings.put(text, embedding);
+            }
+        }
+        return embeddings;
+    }
+
+    /**
+     * @param text the {@link RetrievalCache#embeddingText} of the question, which the embedding is also
+     *             cached under
+     */
+    private float[] embed(String text, String indexName) {
+        float[] embedding = retrievalCache.getEmbedding(text);
+        if (embedding == null) {
+            embedding = metrics.embedding(indexName, 1, tokenCounter.estimate(text),
+                    () -> vectorStoreFactory.getEmbeddingModel().embed(text));
+            retrievalCache.putEmbedding(text, embedding);
+        }
+        return embedding;
+    }
+
+    /**
+     * Replaces child chunks by their parent, once per parent, at the rank of its best child. All
+     * parents are read in one lookup; chunks without a parent, or whose parent is missing, are kept.
+     */
+    private List<Document> expandToParents(List<Document> documents) {
+        Set<String> parentIds = new LinkedHashSet<>();
         for (Document document : documents) {
-            log.info("Retrieved doc with metadata={}\n{}", document.getMetadata(), document.getText());
+            if (document.getMetadata().get(ChunkingService.PARENT_ID) instanceof String parentId) {
+                parentIds.add(parentId);
+            }
         }
-        log.info("Inference took {}ms return {} docs", System.currentTimeMillis() - start, documents.size());
-        return documents;
+        if (parentIds.isEmpty()) {
+            return documents;
+        }
+        Map<String, String> parents = parentStore.getAll(parentIds);
+        List<Document> expanded = new ArrayList<>(documents.size());
+        Set<String> added = new HashSet<>();
+        for (Document document : documents) {
+            Object parentId = document.getMetadata().get(ChunkingService.PARENT_ID);
+            String parentText = parentId == null ? null : parents.get(parentId);
+            if (parentText == null) {
+                expanded.add(document);
+            } else if (added.add((String) parentId)) {
+                expanded.add(Document.builder()
+                        .id((String) parentId)
+                        .text(parentText)
+                        .metadata(document.getMetadata())
+                        .score(document.getScore())
+                        .build());
+            }
+        }
+        log.debug("Expanded {} retrieved chunks to {} documents", documents.size(), expanded.size());
+        return expanded;
     }
 
     public String query(String query) {
@@ -47,13 +476,60 @@ public class RagInferenceService {
     }
 
     public String query(String query, String indexName) {
-        List<Document> documents = inference(query, indexName);
+        return query(query, indexName, RetrievalMode.VECTOR);
+    }
+
+    public String query(String query, String indexName, RetrievalMode mode) {
+        List<Document> documents = promptContext(query, indexName, mode);
+
+        // 6️⃣ Generate answer
+        String prompt = buildPrompt(query, documents);
+        FlightEvents.ChatCall event = new FlightEvents.ChatCall();
+        event.begin();
+        ChatResponse response = metrics.observe(RagMetrics.Stage.GENERATION, indexName,
+                () -> chat.call(new Prompt(prompt)));
+        Usage usage = response.getMetadata().getUsage();
+        int promptTokens = 0;
+        int completionTokens = 0;
+        if (usage != null && usage.getPromptTokens() != null && usage.getCompletionTokens() != null) {
+            promptTokens = usage.getPromptTokens();
+            completionTokens = usage.getCompletionTokens();
+            metrics.tokens(indexName, "prompt", promptTokens);
+            metrics.tokens(indexName, "completion", completionTokens);
+        }
+        event.finish(indexName, prompt.length(), promptTokens, completionTokens);
+        return response.getResult().getOutput().getText().trim();
+    }
+
+    public StreamedAnswer queryStream(String query) {
+        return queryStream(query, DEFAULT_INDEX);
+    }
+
+    public StreamedAnswer queryStream(String query, String indexName) {
+        return queryStream(query, indexName, RetrievalMode.VECTOR);
+    }
+
+    /**
+     * Retrieves the documents for a question and returns them with a lazily started stream of
+     * answer tokens. Generation begins on subscription and stops when the subscription is disposed.
+     */
+    public StreamedAnswer queryStream(String query, String indexName, RetrievalMode mode) {
+        List<Document> documents = promptContext(query, indexName, mode);
+        Flux<String> tokens = chat.stream(new Prompt(buildPrompt(query, documents)))
+                // generation is timed from subscription until the stream ends, fails or is cancelled
+                .tap(() -> new GenerationListener(indexName))
+                .mapNotNull(response -> response.getResult() == null ? null : response.getResult().getOutput().getText())
+                .filter(text -> !text.isEmpty());
+        return new StreamedAnswer(documents, tokens);
+    }
+
+    private String buildPrompt(String query, List<Document> documents) {
         String context = documents.stream()
                 .map(Document::getText)
                 .collect(Collectors.joining("\n\n"));
 
         // 5️⃣ Build final prompt
-        String prompt = """
+        return """
                 You are a helpful assistant that answers user questions using ONLY the information in the Documents.
                 
                 RULES (read carefully):
@@ -70,8 +546,48 @@ public class RagInferenceService {
                 
                 Answer:
                 """.formatted(context, query);
+    }
 
-        // 6️⃣ Generate answer
-        return chat.call(prompt).trim();
+    public record StreamedAnswer(List<Document> sources, Flux<String> tokens) {
+    }
+
+    private class GenerationListener extends DefaultSignalListener<ChatResponse> {
+        private final String indexName;
+        private Observation observation;
+
+        GenerationListener(String indexName) {
+            this.indexName = indexName;
+        }
+
+        @Override
+        public void doFirst() {
+            observation = metrics.start(RagMetrics.Stage.GENERATION, indexName);
+        }
+
+        @Override
+        public void doOnError(Throwable error) {
+            observation.error(error);
+        }
+
+        @Override
+        public void doFinally(SignalType terminationType) {
+            observation.stop();
+        }
+    }
+
+    /**
+     * Documents of a federated search, the indexes searched, and why the search of an index, or the
+     * resolution of a pattern, failed.
+     */
+    public record FederatedResult(List<Document> documents, List<String> indexes, Map<String, String> failedIndexes) {
+    }
+
+    public record BatchQuestion(String question, String indexName, RetrievalMode mode) {
+    }
+
+    /**
+     * Documents retrieved for one question of a batch, or why retrieval failed.
+     */
+    public record BatchAnswer(List<Document> documents, String error) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,127 @@
+package com.hseabra.demo_rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * Timing, counting and tracing of the ingestion and query stages. Each stage runs as an
+ * {@link Observation} named {@value #STAGE}, which records a timer tagged by index and stage (with
+ * a histogram, see {@code management.metrics.distribution}) and, with tracing on, a span under the
+ * current one: the HTTP request for queries, the file for ingestion.
+ */
+@Component
+public class RagMetrics {
+    public static final String STAGE = "rag.stage";
+    public static final String INGESTION = "rag.ingestion";
+    // Index tag of a call that served several indexes at once
+    public static final String MULTIPLE_INDEXES = "multiple";
+
+    private final ObservationRegistry observations;
+    private final MeterRegistry meters;
+
+    public RagMetrics(ObservationRegistry observations, MeterRegistry meters) {
+        this.observations = observations;
+        this.meters = meters;
+    }
+
+    public <T> T observe(Stage stage, String indexName, Supplier<T> call) {
+        return observation(stage, indexName).observe(call);
+    }
+
+    public void observe(Stage stage, String indexName, Runnable call) {
+        observation(stage, indexName).observe(call);
+    }
+
+    /**
+     * Runs an embedding model call as the {@link Stage#EMBEDDING} stage and records it as a
+     * {@link FlightEvents.EmbeddingBatch} event.
+     *
+     * @param tokens estimated tokens of the texts
+     */
+    public <T> T embedding(String indexName, int texts, int tokens, Supplier<T> call) {
+        FlightEvents.EmbeddingBatch event = new FlightEvents.EmbeddingBatch();
+        event.begin();
+        try {
+            return observe(Stage.EMBEDDING, indexName, call);
+        } finally {
+            event.finish(indexName, texts, tokens);
+        }
+    }
+
+    /**
+     * Starts a stage that cannot be wrapped in {@link #observe}, for example because it throws checked
+     * exceptions or ends in a callback. The caller must {@link Observation#stop() stop} it.
+     */
+    public Observation start(Stage stage, String indexName) {
+        return observation(stage, indexName).start();
+    }
+
+    /**
+     * Starts the observation of one file's ingestion; its stages become its children while its scope is open.
+     */
+    public Observation startIngestion(String indexName) {
+        return Observation.createNotStarted(INGESTION, observations)
+                .contextualName("rag ingestion")
+                .lowCardinalityKeyValue("index", indexName)
+                .start();
+    }
+
+    /**
+     * Wraps a call to run on another thread so its stages are children of the observation current on
+     * this one.
+     */
+    public <T> Supplier<T> inCurrentScope(Supplier<T> call) {
+        Observation parent = observations.getCurrentObservation();
+        if (parent == null) {
+            return call;
+        }
+        return () -> {
+            try (Observation.Scope ignored = parent.openScope()) {
+                return call.get();
+            }
+        };
+    }
+
+    /**
+     * @param outcome indexed, unchanged or deleted
+     */
+    public void chunks(String indexName, String outcome, int count) {
+        meters.counter("rag.ingest.chunks", "index", indexName, "outcome", outcome).increment(count);
+    }
+
+    /**
+     * @param type embedding, prompt or completion
+     */
+    public void tokens(String indexName, String type, long count) {
+        meters.counter("rag.tokens", "index", indexName, "type", type).increment(count);
+    }
+
+    private Observation observation(Stage stage, String indexName) {
+        return Observation.createNotStarted(STAGE, observations)
+                .contextualName("rag " + stage.tag)
+                .lowCardinalityKeyValue("index", indexName)
+                .lowCardinalityKeyValue("stage", stage.tag);
+    }
+
+    public enum Stage {
+        PDF_LOAD("pdf_load"),
+        TOPIC_DETECTION("topic_detection"),
+        CHUNKING("chunking"),
+        EMBEDDING("embedding"),
+        BULK_WRITE("bulk_write"),
+        KNN_SEARCH("knn_search"),
+        LEXICAL_SEARCH("lexical_search"),
+        MULTI_SEARCH("multi_search"),
+        GENERATION("generation");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.hseabra.demo_rag;
+
+import co.elastic.clients.elasticsearch._types.mapping.DenseVectorIndexOptionsType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Application settings under the {@code rag} prefix.
+ */
+@Data
+@ConfigurationProperties(prefix = "rag")
+public class RagProperties {
+
+    private EmbeddingCache embeddingCache = new EmbeddingCache();
+
+    private RetrievalCache retrievalCache = new RetrievalCache();
+
+    private Limits limits = new Limits();
+
+    private Admission admission = new Admission();
+
+    private Batching batching = new Batching();
+
+    private Normalization normalization = new Normalization();
+
+    private ParentStore parentStore = new ParentStore();
+
+    private Manifest manifest = new Manifest();
+
+    private Hybrid hybrid = new Hybrid();
+
+    private Context context = new Context();
+
+    private Federation federation = new Federation();
+
+    private Topics topics = new Topics();
+
+    private VectorStoreSettings vectorStore = new VectorStoreSettings();
+
+    private VectorMapping vectorMapping = new VectorMapping();
+
+    private Diagnostics diagnostics = new Diagnostics();
+
+    @Data
+    public static class EmbeddingCache {
+        /**
+         * Serve repeated chunk/query texts from the cache instead of calling the embedding model.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Directory of the memory-mapped vector file; blank keeps the cache in memory only.
+         */
+        private String directory = "data/embedding-cache";
+
+        /**
+         * Maximum number of vectors held in the in-memory LRU tier.
+         */
+        private int memoryEntries = 20_000;
+    }
+
+    @Data
+    public static class RetrievalCache {
+        /**
+         * Cache query embeddings and search results on the inference/query path.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Time after which a cached embedding or result set is recomputed.
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+
+        /**
+         * Maximum number of cached query embeddings.
+         */
+        private int maxEmbeddings = 2_000;
+
+        /**
+         * Maximum number of cached result sets across all indexes.
+         */
+        private int maxResults = 2_000;
+    }
+
+    @Data
+    public static class Limits {
+        /**
+         * Concurrent embedding calls to Azure OpenAI, shared by ingestion and queries.
+         */
+        private Limit embeddings = new Limit(4, 1, 32);
+
+        /**
+         * Concurrent bulk/search requests to Elasticsearch.
+         */
+        private Limit elasticsearch = new Limit(8, 1, 64);
+    }
+
+    @Data
+    public static class Admission {
+        /**
+         * Interactive requests (/query, /query/stream, /inference) in flight before further ones are
+         * rejected with 503. A request counts until its answer has been generated; a streamed one until
+         * its last token has been sent.
+         */
+        private int maxInteractive = 64;
+
+        /**
+         * Batch inference requests running at once before further ones are rejected with 503.
+         */
+        private int maxBatch = 4;
+    }
+
+    @Data
+    public static class Limit {
+        /**
+         * Limit used until latency and throttling feedback has been observed.
+         */
+        private int initial;
+
+        /**
+         * Floor the limit is never cut below.
+         */
+        private int min;
+
+        /**
+         * Ceiling the limit never grows above.
+         */
+        private int max;
+
+        /**
+         * Latency, as a multiple of the observed no-load latency, above which the limit is reduced.
+         */
+        private double latencyTolerance = 2.0;
+
+        /**
+         * Fraction of the limit, rounded down, kept for interactive queries; batch inference and
+         * ingestion wait once the rest is in use.
+         */
+        private double interactiveReserve = 0.25;
+
+        public Limit() {
+        }
+
+        public Limit(int initial, int min, int max) {
+            this.initial = initial;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    @Data
+    public static class Batching {
+        /**
+         * Token budget a batch starts with before latency feedback is available.
+         */
+        private int initialTokens = 4_000;
+
+        /**
+         * Lower bound of the adaptive token budget.
+         */
+        private int minTokens = 1_000;
+
+        /**
+         * Upper bound of the adaptive token budget; keep below the embedding API's per-request token limit.
+         * Larger submissions are split.
+         */
+        private int maxTokens = 8_000;
+
+        /**
+         * Maximum chunks per batch, bounding both the embedding input count and the bulk request size;
+         * larger submissions are split.
+         */
+        private int maxChunks = 16;
+
+        /**
+         * How long the first submission of a batch waits for others to join it.
+         */
+        private Duration linger = Duration.ofMillis(50);
+
+        /**
+         * Embed-and-index latency above which the token budget is reduced.
+         */
+        private Duration targetLatency = Duration.ofSeconds(5);
+
+        /**
+         * Wait before a batch that failed on throttling or a transport error is queued again; doubled
+         * on each further attempt.
+         */
+        private Duration retryBackoff = Duration.ofSeconds(1);
+
+        /**
+         * Attempts at writing a submission before it fails on throttling or transport errors.
+         */
+        private int maxAttempts = 4;
+    }
+
+    @Data
+    public static class ParentStore {
+        /**
+         * Directory of the memory-mapped file holding parent chunks of PARENT_CHILD ingestions.
+         */
+        private String directory = "data/parent-store";
+    }
+
+    @Data
+    public static class Manifest {
+        /**
+         * Directory of the per-file manifests of indexed chunks used for incremental re-ingestion.
+         */
+        private String directory = "data/manifests";
+    }
+
+    @Data
+    public static class Diagnostics {
+        /**
+         * Fraction of queries whose retrieved documents are logged in full at DEBUG.
+         */
+        private double documentLogSampleRate = 0.01;
+    }
+
+    @Data
+    public static class Context {
+        /**
+         * Chunks retrieved for the answer prompt before diversification and packing.
+         */
+        private int candidates = 10;
+
+        /**
+         * Estimated tokens of document text the answer prompt may contain.
+         */
+        private int tokenBudget = 3_000;
+
+        /**
+         * MMR trade-off between relevance to the question (1) and novelty against the chunks already selected (0).
+         */
+        private double mmrLambda = 0.7;
+
+        /**
+         * Cosine similarity at or above which a chunk is dropped as a near-duplicate of one already selected.
+         */
+        private double duplicateSimilarity = 0.97;
+
+        /**
+         * Shortest shared span, in characters, trimmed as overlap between neighbouring chunks.
+         */
+        private int minOverlapChars = 20;
+    }
+
+    @Data
+    public static class Federation {
+        /**
+         * Time each index of a federated search has to answer; slower indexes are left out of the result.
+         */
+        private Duration legTimeout = Duration.ofSeconds(2);
+
+        /**
+         * Most index names and patterns one federated search may list, and most indexes it may fan out
+         * to after patterns are expanded.
+         */
+        private int maxIndexes = 32;
+    }
+
+    @Data
+    public static class Topics {
+        /**
+         * Topic set: each topic name with descriptions whose embeddings make up its centroid. Empty
+         * leaves the topic entirely to the chat model.
+         */
+        private Map<String, List<String>> labels = new LinkedHashMap<>();
+
+        /**
+         * Leading chunks of a document whose mean embedding is compared with the centroids.
+         */
+        private int sampleChunks = 8;
+
+        /**
+         * Lowest cosine similarity to the closest centroid accepted without asking the chat model.
+         */
+        private double minSimilarity = 0.3;
+
+        /**
+         * Lowest lead of the closest centroid over the next accepted without asking the chat model.
+         */
+        private double minMargin = 0.02;
+
+        /**
+         * Whether unclear documents are classified by the chat model; otherwise the closest topic
+         * above min-similarity is taken, or "other".
+         */
+        private boolean llmFallback = true;
+
+        /**
+         * Documents whose topic is remembered, by a hash of the sampled text.
+         */
+        private int cacheEntries = 1_000;
+    }
+
+    @Data
+    public static class Hybrid {
+        /**
+         * Fusion settings of every index without its own entry.
+         */
+        private HybridWeights defaults = new HybridWeights();
+
+        /**
+         * Fusion settings per index name; an entry replaces the defaults entirely for that index.
+         */
+        private Map<String, HybridWeights> indexes = new HashMap<>();
+
+        public HybridWeights forIndex(String indexName) {
+            return indexes.getOrDefault(indexName, defaults);
+        }
+    }
+
+    @Data
+    public static class HybridWeights {
+        /**
+         * Weight of the kNN ranking in reciprocal rank fusion.
+         */
+        private double vectorWeight = 1.0;
+
+        /**
+         * Weight of the BM25 ranking in reciprocal rank fusion.
+         */
+        private double lexicalWeight = 1.0;
+
+        /**
+         * Rank constant k of reciprocal rank fusion; larger values flatten the advantage of top ranks.
+         */
+        private int rankConstant = 60;
+
+        /**
+         * Results fetched from each leg before fusion.
+         */
+        private int candidates = 10;
+    }
+
+    @Data
+    public static class VectorStoreSettings {
+        /**
+         * Backend of every index without its own entry.
+         */
+        private VectorBackend defaultBackend = VectorBackend.ELASTICSEARCH;
+
+        /**
+         * Backend per index name.
+         */
+        private Map<String, VectorBackend> indexes = new HashMap<>();
+
+        private Hnsw hnsw = new Hnsw();
+
+        public VectorBackend forIndex(String indexName) {
+            return indexes.getOrDefault(indexName, defaultBackend);
+        }
+    }
+
+    @Data
+    public static class Hnsw {
+        /**
+         * Directory holding one subdirectory of vector, document and graph files per HNSW index.
+         */
+        private String directory = "data/hnsw";
+
+        /**
+         * Links per node on the upper graph layers (twice as many on the bottom layer); higher
+         * improves recall at the cost of memory and insert time.
+         */
+        private int maxConnections = 16;
+
+        /**
+         * Candidate list size while inserting; higher builds a better graph, more slowly.
+         */
+        private int efConstruction = 100;
+
+        /**
+         * Candidate list size while searching (at least topK); higher improves recall, more slowly.
+         */
+        private int efSearch = 64;
+
+        /**
+         * Share of deleted nodes at which an index is rebuilt without them.
+         */
+        private double compactionRatio = 0.3;
+    }
+
+    @Data
+    public static class VectorMapping {
+        /**
+         * Mapping and search settings of every Elasticsearch index without its own entry.
+         */
+        private MappingProfile defaults = new MappingProfile();
+
+        /**
+         * Settings per index name; an entry replaces the defaults entirely for that index.
+         */
+        private Map<String, MappingProfile> indexes = new HashMap<>();
+
+        public MappingProfile forIndex(String indexName) {
+            return indexes.getOrDefault(indexName, defaults);
+        }
+    }
+
+    @Data
+    public static class MappingProfile {
+        /**
+         * dense_vector index type of new indexes: hnsw (float32), int8_hnsw, int4_hnsw, bbq_hnsw, or
+         * their flat variants. Quantized types keep the float vectors on disk for rescoring and only
+         * the quantized ones in memory.
+         */
+        private DenseVectorIndexOptionsType indexType = DenseVectorIndexOptionsType.Int8Hnsw;
+
+        /**
+         * HNSW links per node of new indexes.
+         */
+        private int m = 16;
+
+        /**
+         * HNSW candidate list size while indexing new indexes.
+         */
+        private int efConstruction = 100;
+
+        /**
+         * Quantile used to clip vectors before int8/int4 quantization; unset lets Elasticsearch pick it.
+         */
+        private Float confidenceInterval;
+
+        /**
+         * num_candidates of kNN searches as a multiple of topK; higher improves recall, more slowly.
+         */
+        private double numCandidatesFactor = 1.5;
+
+        /**
+         * Rescore topK * oversample quantized hits with the float vectors; unset or below 1 disables
+         * rescoring. Needs Elasticsearch 8.18 or later.
+         */
+        private Float oversample;
+    }
+
+    @Data
+    public static class Normalization {
+        /**
+         * Rules applied to extracted pages of every index without its own entry.
+         */
+        private NormalizationRules defaults = new NormalizationRules();
+
+        /**
+         * Rules per index name; an entry replaces the defaults entirely for that index.
+         */
+        private Map<String, NormalizationRules> indexes = new HashMap<>();
+
+        public NormalizationRules forIndex(String indexName) {
+            return indexes.getOrDefault(indexName, defaults);
+        }
+    }
+
+    @Data
+    public static class NormalizationRules {
+        /**
+         * Drop runs of three or more dots, such as table-of-contents leaders.
+         */
+        private boolean removeDotLeaders = true;
+
+        /**
+         * Drop a page number that follows the last sentence of a page.
+         */
+        private boolean removeTrailingPageNumber = true;
+
+        /**
+         * Join words hyphenated across a line break ("configu-\nração" becomes "configuração").
+         */
+        private boolean dehyphenate = true;
+
+        /**
+         * Strip header/footer lines that repeat at the top or bottom of pages.
+         */
+        private boolean stripRepeatedLines = true;
+
+        /**
+         * Non-blank lines at the top and at the bottom of each page considered header/footer candidates.
+         */
+        private int edgeLines = 2;
+
+        /**
+         * Pages a candidate line must appear on (digits ignored) before it is stripped.
+         */
+        private int repeatThreshold = 3;
+    }
+}
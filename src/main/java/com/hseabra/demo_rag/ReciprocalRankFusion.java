@@ -0,0 +1,53 @@
+package com.hseabra.demo_rag;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges ranked result lists by reciprocal rank fusion: a document scores
+ * {@code sum(weight / (rankConstant + rank))} over the lists it appears in (rank starting at 1).
+ * Only ranks are used, so lists with incomparable scores (cosine, BM25) can be combined.
+ */
+public final class ReciprocalRankFusion {
+
+    private ReciprocalRankFusion() {
+    }
+
+    /**
+     * @return at most {@code topK} documents by descending fused score, which replaces their score;
+     * documents are matched across lists by id
+     */
+    public static List<Document> fuse(List<List<Document>> rankings, double[] weights, int rankConstant, int topK) {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Document> documents = new LinkedHashMap<>();
+        for (int list = 0; list < rankings.size(); list++) {
+            List<Document> ranking = rankings.get(list);
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                scores.merge(document.getId(), weights[list] / (rankConstant + rank + 1), Double::sum);
+                documents.putIfAbsent(document.getId(), document);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(documents.keySet());
+        // stable sort: ties keep first-seen order, i.e. the order of the first list
+        ids.sort(Comparator.comparingDouble((String id) -> scores.get(id)).reversed());
+        List<Document> fused = new ArrayList<>(Math.min(topK, ids.size()));
+        for (String id : ids.subList(0, Math.min(topK, ids.size()))) {
+            Document document = documents.get(id);
+            fused.add(Document.builder()
+                    .id(id)
+                    .text(document.getText())
+                    .metadata(document.getMetadata())
+                    .score(scores.get(id))
+                    .build());
+        }
+        return fused;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hseabra.demo_rag;
+
+import java.util.function.Supplier;
+
+/**
+ * Priority class of work sharing the downstream services, highest first. The class is carried by the
+ * calling thread, set with {@link #call}, so the {@link AdaptiveConcurrencyLimiter}s deep in the call
+ * stack see it without it being passed through every signature. Threads that never set one, such as
+ * the ingestion pipeline and the write batcher, run as {@link #INGESTION}.
+ */
+public enum RequestPriority {
+    /**
+     * A user waiting on /query or /inference.
+     */
+    INTERACTIVE,
+    /**
+     * Bulk callers of /inference/batch.
+     */
+    BATCH,
+    /**
+     * Background indexing.
+     */
+    INGESTION;
+
+    private static final ThreadLocal<RequestPriority> CURRENT = new ThreadLocal<>();
+
+    public static RequestPriority current() {
+        RequestPriority priority = CURRENT.get();
+        return priority == null ? INGESTION : priority;
+    }
+
+    public <T> T call(Supplier<T> call) {
+        RequestPriority previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Wraps a call to run on another thread with the priority current on this one.
+     */
+    public static <T> Supplier<T> inCurrent(Supplier<T> call) {
+        RequestPriority priority = current();
+        return () -> priority.call(call);
+    }
+}
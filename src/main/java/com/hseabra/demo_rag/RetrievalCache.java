@@ -0,0 +1,155 @@
+package com.hseabra.demo_rag;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Query-side cache for retrieval: query embeddings by the exact text embedded, and top-K results by
+ * (index, normalized question, topK, threshold, retrieval mode), along with the answer prompt's
+ * diversified candidates under the same key. Writes to an index invalidate its results; each
+ * index has a generation number so a search that overlapped a write cannot repopulate the cache
+ * with results from before the write.
+ */
+@Slf4j
+@Component
+public class RetrievalCache implements MeterBinder {
+    private final boolean enabled;
+    private final TtlCache<String, float[]> embeddings;
+    private final TtlCache<ResultKey, List<Document>> results;
+    private final TtlCache<ResultKey, List<Document>> contexts;
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final LongAdder resultHits = new LongAdder();
+    private final LongAdder resultMisses = new LongAdder();
+    private final LongAdder embeddingHits = new LongAdder();
+    private final LongAdder contextHits = new LongAdder();
+    private final LongAdder contextMisses = new LongAdder();
+
+    public RetrievalCache(RagProperties ragProperties) {
+        RagProperties.RetrievalCache config = ragProperties.getRetrievalCache();
+        this.enabled = config.isEnabled();
+        this.embeddings = new TtlCache<>(config.getMaxEmbeddings(), config.getTtl());
+        this.results = new TtlCache<>(config.getMaxResults(), config.getTtl());
+        this.contexts = new TtlCache<>(config.getMaxResults(), config.getTtl());
+    }
+
+    /**
+     * Text a question is embedded as: trimmed and whitespace collapsed, with its case kept, since
+     * codes such as part numbers mean something else in another case.
+     */
+    public static String embeddingText(String query) {
+        return query.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Result key form of a question: its {@link #embeddingText} lower-cased.
+     */
+    public static String normalize(String query) {
+        return embeddingText(query).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param text the {@link #embeddingText} of the question
+     */
+    public float[] getEmbedding(String text) {
+        if (!enabled) {
+            return null;
+        }
+        float[] embedding = embeddings.get(text);
+        if (embedding != null) {
+            embeddingHits.increment();
+        }
+        return embedding;
+    }
+
+    public void putEmbedding(String text, float[] embedding) {
+        if (enabled) {
+            embeddings.put(text, embedding);
+        }
+    }
+
+    public List<Document> getResults(ResultKey key) {
+        if (!enabled) {
+            return null;
+        }
+        List<Document> documents = results.get(key);
+        (documents != null ? resultHits : resultMisses).increment();
+        return documents;
+    }
+
+    /**
+     * Current write generation of an index; pass it back to {@link #putResults} so results computed
+     * across an invalidation are dropped.
+     */
+    public long generation(String indexName) {
+        return generations.computeIfAbsent(indexName, k -> new AtomicLong()).get();
+    }
+
+    public void putResults(ResultKey key, long generation, List<Document> documents) {
+        if (enabled && generation(key.indexName()) == generation) {
+            results.put(key, List.copyOf(documents));
+        }
+    }
+
+    /**
+     * Answer prompt candidates of a retrieval, already diversified, so a repeated question needs
+     * neither the search nor the stored chunk embeddings that diversifying reads.
+     */
+    public List<Document> getContext(ResultKey key) {
+        if (!enabled) {
+            return null;
+        }
+        List<Document> documents = contexts.get(key);
+        (documents != null ? contextHits : contextMisses).increment();
+        return documents;
+    }
+
+    public void putContext(ResultKey key, long generation, List<Document> documents) {
+        if (enabled && generation(key.indexName()) == generation) {
+            contexts.put(key, List.copyOf(documents));
+        }
+    }
+
+    /**
+     * Drops every cached result and context for the index; called once a file's writes and deletes are done.
+     */
+    public void invalidate(String indexName) {
+        generations.computeIfAbsent(indexName, k -> new AtomicLong()).incrementAndGet();
+        results.removeIf(key -> key.indexName().equals(indexName));
+        contexts.removeIf(key -> key.indexName().equals(indexName));
+        log.debug("Retrieval cache invalidated for index {}", indexName);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("rag.retrieval.cache.requests", resultHits, LongAdder::sum)
+                .tag("cache", "results").tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("rag.retrieval.cache.requests", resultMisses, LongAdder::sum)
+                .tag("cache", "results").tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("rag.retrieval.cache.requests", embeddingHits, LongAdder::sum)
+                .tag("cache", "embeddings").tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("rag.retrieval.cache.requests", contextHits, LongAdder::sum)
+                .tag("cache", "contexts").tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("rag.retrieval.cache.requests", contextMisses, LongAdder::sum)
+                .tag("cache", "contexts").tag("result", "miss")
+                .register(registry);
+    }
+
+    public record ResultKey(String indexName, String normalizedQuery, int topK, double similarityThreshold,
+                            RetrievalMode mode) {
+    }
+}
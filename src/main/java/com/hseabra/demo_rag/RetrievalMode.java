@@ -0,0 +1,16 @@
+package com.hseabra.demo_rag;
+
+/**
+ * How documents are retrieved for a question.
+ */
+public enum RetrievalMode {
+    /**
+     * kNN search on the question embedding only.
+     */
+    VECTOR,
+    /**
+     * kNN and BM25 full-text search run concurrently, merged with reciprocal rank fusion. Helps with
+     * exact terms such as part numbers and error codes that embeddings match poorly.
+     */
+    HYBRID
+}
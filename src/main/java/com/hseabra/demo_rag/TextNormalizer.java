@@ -0,0 +1,218 @@
+package com.hseabra.demo_rag;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link PageNormalizer} that cleans a page in a single scan into a reused buffer: whitespace runs
+ * (line breaks included) become one space, dot leaders (three or more dots) become a space as well,
+ * words hyphenated across a line break are joined and a page number after the last sentence is
+ * removed. Lines at the top and bottom
+ * of a page that have already been seen on {@code repeatThreshold} pages (ignoring digits, so
+ * "Page 12" matches "Page 13") are treated as headers/footers and skipped.
+ * <p>
+ * Not thread-safe; use one instance per document.
+ */
+public class TextNormalizer implements PageNormalizer {
+    private static final int MAX_EDGE_LINES = 8;
+
+    private final RagProperties.NormalizationRules rules;
+    private final StringBuilder buffer = new StringBuilder(4096);
+    private final StringBuilder key = new StringBuilder(128);
+    private final Map<String, Integer> edgeLineCounts = new HashMap<>();
+    // [start, end) character ranges of the lines to skip on the current page, in ascending order
+    private final int[] skip = new int[4 * MAX_EDGE_LINES];
+
+    public TextNormalizer(RagProperties.NormalizationRules rules) {
+        this.rules = rules;
+    }
+
+    @Override
+    public String normalize(String page) {
+        if (page == null) {
+            return "";
+        }
+        buffer.setLength(0);
+        normalize(page, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Appends the normalized page to {@code out}.
+     */
+    public void normalize(String page, StringBuilder out) {
+        int start = out.length();
+        int skipRanges = rules.isStripRepeatedLines() ? findRepeatedEdgeLines(page) : 0;
+        int nextSkip = 0;
+        boolean space = false;
+        int n = page.length();
+
+        for (int i = 0; i < n; i++) {
+            if (nextSkip < skipRanges && i >= skip[2 * nextSkip]) {
+                int end = skip[2 * nextSkip + 1];
+                nextSkip++;
+                if (i < end) {
+                    i = end - 1;
+                    space = true;
+                    continue;
+                }
+            }
+            char c = page.charAt(i);
+            if (isSpace(c)) {
+                space = true;
+                continue;
+            }
+            if (c == '.' && rules.isRemoveDotLeaders()) {
+                int run = i + 1;
+                while (run < n && page.charAt(run) == '.') {
+                    run++;
+                }
+                if (run - i >= 3) {
+                    i = run - 1;
+                    space = true;
+                    continue;
+                }
+            }
+            if (c == '-' && rules.isDehyphenate() && i > 0 && Character.isLetter(page.charAt(i - 1))) {
+                int next = i + 1;
+                boolean lineBreak = false;
+                while (next < n && isSpace(page.charAt(next))) {
+                    lineBreak |= page.charAt(next) == '\n';
+                    next++;
+                }
+                boolean skipped = nextSkip < skipRanges && next >= skip[2 * nextSkip];
+                if (lineBreak && !skipped && next < n && Character.isLowerCase(page.charAt(next))) {
+                    i = next - 1;
+                    space = false;
+                    continue;
+                }
+            }
+            if (space && out.length() > start) {
+                out.append(' ');
+            }
+            space = false;
+            out.append(c);
+        }
+
+        if (rules.isRemoveTrailingPageNumber()) {
+            removeTrailingPageNumber(out, start);
+        }
+    }
+
+    /**
+     * Same rule as the former {@code (?<=\.)\s*\d+\s*$}: a number at the very end of the page,
+     * directly after a full stop.
+     */
+    private static void removeTrailingPageNumber(StringBuilder out, int start) {
+        int end = out.length();
+        int digits = end;
+        while (digits > start && Character.isDigit(out.charAt(digits - 1))) {
+            digits--;
+        }
+        if (digits == end) {
+            return;
+        }
+        int cut = digits;
+        if (cut > start && out.charAt(cut - 1) == ' ') {
+            cut--;
+        }
+        if (cut > start && out.charAt(cut - 1) == '.') {
+            out.setLength(cut);
+        }
+    }
+
+    /**
+     * Counts the first and last {@code edgeLines} non-blank lines of the page and records those
+     * that reached the repeat threshold as ranges to skip.
+     *
+     * @return the number of ranges recorded
+     */
+    private int findRepeatedEdgeLines(String page) {
+        int edgeLines = Math.min(rules.getEdgeLines(), MAX_EDGE_LINES);
+        int ranges = 0;
+        int n = page.length();
+
+        int pos = 0;
+        for (int found = 0; found < edgeLines && pos < n; ) {
+            int lineEnd = page.indexOf('\n', pos);
+            if (lineEnd < 0) {
+                lineEnd = n;
+            }
+            int s = trimStart(page, pos, lineEnd);
+            int e = trimEnd(page, s, lineEnd);
+            if (s < e) {
+                found++;
+                if (isRepeated(page, s, e)) {
+                    skip[2 * ranges] = s;
+                    skip[2 * ranges + 1] = e;
+                    ranges++;
+                }
+            }
+            pos = lineEnd + 1;
+        }
+
+        int top = Math.min(pos, n);
+        int bottomFrom = ranges;
+        pos = n;
+        for (int found = 0; found < edgeLines && pos > top; ) {
+            int lineStart = Math.max(top, page.lastIndexOf('\n', pos - 1) + 1);
+            int s = trimStart(page, lineStart, pos);
+            int e = trimEnd(page, s, pos);
+            if (s < e) {
+                found++;
+                if (isRepeated(page, s, e)) {
+                    skip[2 * ranges] = s;
+                    skip[2 * ranges + 1] = e;
+                    ranges++;
+                }
+            }
+            pos = lineStart - 1;
+        }
+        // bottom ranges were found last line first
+        for (int a = bottomFrom, b = ranges - 1; a < b; a++, b--) {
+            int s = skip[2 * a];
+            int e = skip[2 * a + 1];
+            skip[2 * a] = skip[2 * b];
+            skip[2 * a + 1] = skip[2 * b + 1];
+            skip[2 * b] = s;
+            skip[2 * b + 1] = e;
+        }
+        return ranges;
+    }
+
+    private boolean isRepeated(String page, int start, int end) {
+        key.setLength(0);
+        boolean space = false;
+        for (int i = start; i < end; i++) {
+            char c = page.charAt(i);
+            if (isSpace(c)) {
+                space = true;
+            } else {
+                if (space) {
+                    key.append(' ');
+                    space = false;
+                }
+                key.append(Character.isDigit(c) ? '#' : c);
+            }
+        }
+        return edgeLineCounts.merge(key.toString(), 1, Integer::sum) >= rules.getRepeatThreshold();
+    }
+
+    private static int trimStart(String page, int from, int to) {
+        while (from < to && isSpace(page.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(String page, int from, int to) {
+        while (to > from && isSpace(page.charAt(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean isSpace(char c) {
+        return c <= ' ' || c == '\u00A0' || Character.isWhitespace(c);
+    }
+}
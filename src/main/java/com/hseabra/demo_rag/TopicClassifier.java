@@ -1,41 +1,179 @@
 package com.hseabra.demo_rag;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Map;
 
+/**
+ * Assigns a document one of the configured topics ({@code rag.topics.labels}) by cosine similarity
+ * between the mean embedding of its first chunks and a centroid per topic, the mean embedding of the
+ * topic's descriptions. The chunks are embedded through the shared embedding model, so with the
+ * embedding cache on, writing them afterwards costs no second call. The chat model is only asked
+ * when no topic is a clear match, and its answer is mapped back onto the topic set.
+ * Results are cached by a hash of the sampled text.
+ */
+@Slf4j
 @Service
 public class TopicClassifier {
+    // Topic of documents that match no configured topic
+    public static final String OTHER = "other";
+    private static final int PROMPT_SAMPLE_CHARS = 4000;
+    private static final Duration CACHE_TTL = Duration.ofDays(1);
+
     private final ChatModel model;
+    private final ElasticConfig.VectorStoreFactory vectorStoreFactory;
+    private final RagProperties.Topics config;
+    private final TtlCache<String, String> cache;
+    private volatile Map<String, float[]> centroids;
 
-    public TopicClassifier(ChatModel model) {
+    public TopicClassifier(ChatModel model, ElasticConfig.VectorStoreFactory vectorStoreFactory, RagProperties ragProperties) {
         this.model = model;
+        this.vectorStoreFactory = vectorStoreFactory;
+        this.config = ragProperties.getTopics();
+        this.cache = new TtlCache<>(config.getCacheEntries(), CACHE_TTL);
     }
 
-    public String detectTopic(List<Document> docs) {
-
-        // join the first 3 documents
-        String sample = docs.stream()
-                .limit(3)
+    /**
+     * @param chunks the document's chunks in order; the first {@code rag.topics.sample-chunks} are used
+     */
+    public String detectTopic(List<Document> chunks) {
+        List<String> sample = chunks.stream()
+                .limit(config.getSampleChunks())
                 .map(Document::getText)
-                .collect(Collectors.joining("\n\n"));
-
-        // clamp to max 4000 chars
-        if (sample.length() > 4000) {
-            sample = sample.substring(0, 4000);
+                .toList();
+        if (sample.isEmpty()) {
+            return OTHER;
+        }
+        String key = IngestionManifest.sha256(String.join("\0", sample).getBytes(StandardCharsets.UTF_8));
+        String topic = cache.get(key);
+        if (topic == null) {
+            topic = classify(sample);
+            cache.put(key, topic);
         }
+        return topic;
+    }
 
+    private String classify(List<String> sample) {
+        Map<String, float[]> centroids = centroids();
+        if (centroids.isEmpty()) {
+            return askModel(sample, List.of());
+        }
+        float[] document = mean(vectorStoreFactory.getEmbeddingModel().embed(sample));
+        String best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        double secondScore = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<String, float[]> centroid : centroids.entrySet()) {
+            double score = dot(document, centroid.getValue());
+            if (score > bestScore) {
+                secondScore = bestScore;
+                bestScore = score;
+                best = centroid.getKey();
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+        if (bestScore >= config.getMinSimilarity() && bestScore - secondScore >= config.getMinMargin()) {
+            log.debug("Topic '{}' by centroid similarity {} (next {})", best, bestScore, secondScore);
+            return best;
+        }
+        if (!config.isLlmFallback()) {
+            return bestScore >= config.getMinSimilarity() ? best : OTHER;
+        }
+        log.info("No clear topic (best '{}' at {}, next at {}), asking the chat model", best, bestScore, secondScore);
+        try {
+            return askModel(sample, List.copyOf(centroids.keySet()));
+        } catch (RuntimeException e) {
+            log.warn("Topic fallback failed, using closest topic '{}'", best, e);
+            return best;
+        }
+    }
 
-        String prompt = """
+    /**
+     * Asks the chat model for the topic, restricted to the configured topics if there are any.
+     */
+    private String askModel(List<String> sample, List<String> topics) {
+        String text = String.join("\n\n", sample);
+        if (text.length() > PROMPT_SAMPLE_CHARS) {
+            text = text.substring(0, PROMPT_SAMPLE_CHARS);
+        }
+        String prompt = topics.isEmpty() ? """
                 Analyze the following document and decide its topic:
                 %s
-                
+
                 Return a single word such as "bitcoin", "ethereum", or "crypto".
-                """.formatted(sample);
+                """.formatted(text) : """
+                Analyze the following document and decide which of these topics it belongs to: %s
+                %s
 
-        return model.call(prompt).trim().toLowerCase();
+                Return exactly one of the topics, or "%s" if none fits.
+                """.formatted(String.join(", ", topics), text, OTHER);
+        String answer = normalize(model.call(prompt));
+        if (topics.isEmpty()) {
+            return answer.isEmpty() ? OTHER : answer;
+        }
+        return topics.contains(answer) ? answer : OTHER;
+    }
+
+    /**
+     * Lowercase first word without punctuation, so "Bitcoin." and "bitcoin" are the same topic.
+     */
+    static String normalize(String answer) {
+        String word = answer.strip().split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+        return word.replaceAll("[^\\p{L}\\p{N}_-]", "");
+    }
+
+    private Map<String, float[]> centroids() {
+        Map<String, float[]> result = centroids;
+        if (result == null) {
+            synchronized (this) {
+                result = centroids;
+                if (result == null) {
+                    result = new LinkedHashMap<>();
+                    for (Map.Entry<String, List<String>> topic : config.getLabels().entrySet()) {
+                        List<String> descriptions = topic.getValue().isEmpty() ? List.of(topic.getKey()) : topic.getValue();
+                        result.put(topic.getKey(), mean(vectorStoreFactory.getEmbeddingModel().embed(descriptions)));
+                    }
+                    log.info("Computed topic centroids for {}", result.keySet());
+                    centroids = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Normalized mean of the normalized vectors.
+     */
+    static float[] mean(List<float[]> vectors) {
+        float[] mean = new float[vectors.get(0).length];
+        for (float[] vector : vectors) {
+            float norm = (float) Math.sqrt(dot(vector, vector));
+            for (int i = 0; i < mean.length; i++) {
+                mean[i] += norm == 0 ? 0 : vector[i] / norm;
+            }
+        }
+        float norm = (float) Math.sqrt(dot(mean, mean));
+        if (norm > 0) {
+            for (int i = 0; i < mean.length; i++) {
+                mean[i] /= norm;
+            }
+        }
+        return mean;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,16 @@
+package com.hseabra.demo_rag;
+
+/**
+ * Where the vectors of an index are stored and searched.
+ */
+public enum VectorBackend {
+    /**
+     * Remote Elasticsearch index; supports hybrid retrieval with BM25.
+     */
+    ELASTICSEARCH,
+    /**
+     * In-process {@link HnswVectorStore} persisted under {@code rag.vector-store.hnsw.directory}; no
+     * network round trip, but kNN only.
+     */
+    HNSW
+}
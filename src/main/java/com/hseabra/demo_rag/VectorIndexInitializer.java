@@ -0,0 +1,151 @@
+package com.hseabra.demo_rag;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.DenseVectorIndexOptions;
+import co.elastic.clients.elasticsearch._types.mapping.DenseVectorProperty;
+import co.elastic.clients.elasticsearch._types.mapping.DenseVectorSimilarity;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch.indices.get.Feature;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import jakarta.json.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.vectorstore.elasticsearch.SimilarityFunction;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Creates vector indexes with the mapping of their {@link RagProperties.MappingProfile} instead of
+ * {@code ElasticsearchVectorStore}'s schema defaults, and migrates an existing index to another
+ * profile by reindexing it. Field names match what {@code ElasticsearchVectorStore} writes.
+ */
+@Slf4j
+public class VectorIndexInitializer {
+    private static final String CONTENT_FIELD = "content";
+    private static final String METADATA_FIELD = "metadata";
+    private static final long TASK_POLL_MS = 1_000;
+
+    private final ElasticsearchClient client;
+    private final String embeddingFieldName;
+    private final int dimensions;
+    private final DenseVectorSimilarity similarity;
+
+    public VectorIndexInitializer(ElasticsearchClient client, String embeddingFieldName, int dimensions,
+                                  SimilarityFunction similarity) {
+        this.client = client;
+        this.embeddingFieldName = embeddingFieldName;
+        this.dimensions = dimensions;
+        // unset means cosine, as in ElasticsearchVectorStoreOptions
+        this.similarity = similarity == null ? DenseVectorSimilarity.Cosine : switch (similarity) {
+            case cosine -> DenseVectorSimilarity.Cosine;
+            case dot_product -> DenseVectorSimilarity.DotProduct;
+            case l2_norm -> DenseVectorSimilarity.L2Norm;
+        };
+    }
+
+    /**
+     * Creates the index with the profile's mapping unless an index or alias with that name exists.
+     * An existing index keeps its mapping; {@link #migrate} moves it to the profile.
+     */
+    public void ensureIndex(String indexName, RagProperties.MappingProfile profile) throws IOException {
+        if (client.indices().exists(e -> e.index(indexName)).value()) {
+            log.debug("Index {} exists, keeping its mapping", indexName);
+            return;
+        }
+        create(indexName, profile);
+    }
+
+    /**
+     * Copies the index (or every index behind the alias) into a new index with the profile's mapping,
+     * then atomically points the name, as an alias, at the new index and deletes the old ones.
+     * Documents written to the index while it is being copied are lost, so ingestion into it must be
+     * paused. If the copy fails the new index is deleted and the old one left untouched.
+     */
+    public Migration migrate(String indexName, RagProperties.MappingProfile profile) throws IOException {
+        Set<String> sources = client.indices().get(g -> g.index(indexName).features(Feature.Aliases))
+                .result().keySet();
+        String target = indexName + "-" + profile.getIndexType().jsonValue() + "-" + System.currentTimeMillis();
+        create(target, profile);
+
+        long documents;
+        try {
+            String task = client.reindex(r -> r
+                    .source(s -> s.index(indexName))
+                    .dest(d -> d.index(target))
+                    .waitForCompletion(false)).task();
+            log.info("Reindexing {} into {} (task {})", indexName, target, task);
+            documents = awaitReindex(task);
+        } catch (IOException | RuntimeException e) {
+            client.indices().delete(d -> d.index(target));
+            throw e;
+        }
+
+        List<Action> actions = new ArrayList<>();
+        actions.add(Action.of(a -> a.add(add -> add.index(target).alias(indexName))));
+        for (String source : sources) {
+            actions.add(Action.of(a -> a.removeIndex(r -> r.index(source))));
+        }
+        client.indices().updateAliases(u -> u.actions(actions));
+        log.info("Migrated {} ({} documents) from {} to {}", indexName, documents, sources, target);
+        return new Migration(List.copyOf(sources), target, documents);
+    }
+
+    private void create(String indexName, RagProperties.MappingProfile profile) throws IOException {
+        DenseVectorIndexOptions.Builder options = new DenseVectorIndexOptions.Builder().type(profile.getIndexType());
+        if (profile.getIndexType().jsonValue().endsWith("hnsw")) {
+            options.m(profile.getM()).efConstruction(profile.getEfConstruction());
+        }
+        if (profile.getConfidenceInterval() != null) {
+            options.confidenceInterval(profile.getConfidenceInterval());
+        }
+        Property embedding = Property.of(p -> p.denseVector(DenseVectorProperty.of(v -> v
+                .dims(dimensions)
+                .similarity(similarity)
+                .index(true)
+                .indexOptions(options.build()))));
+
+        client.indices().create(c -> c
+                .index(indexName)
+                .mappings(m -> m
+                        .properties(embeddingFieldName, embedding)
+                        .properties(CONTENT_FIELD, p -> p.text(t -> t))
+                        .properties(METADATA_FIELD, p -> p.object(o -> o))));
+        log.info("Created index {} with {} vectors (m={}, ef_construction={})", indexName,
+                profile.getIndexType().jsonValue(), profile.getM(), profile.getEfConstruction());
+    }
+
+    /**
+     * Polls a reindex task until it completes; a long reindex would outlive the client's socket
+     * timeout as a single blocking request.
+     *
+     * @return number of documents copied
+     */
+    private long awaitReindex(String task) throws IOException {
+        GetTasksResponse status = client.tasks().get(t -> t.taskId(task));
+        while (!status.completed()) {
+            try {
+                Thread.sleep(TASK_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for reindex task " + task);
+            }
+            status = client.tasks().get(t -> t.taskId(task));
+        }
+
+        if (status.error() != null) {
+            throw new IllegalStateException("Reindex failed: " + status.error().reason());
+        }
+        JsonObject response = status.response().toJson().asJsonObject();
+        if (!response.getJsonArray("failures").isEmpty()) {
+            throw new IllegalStateException("Reindex failed: " + response.getJsonArray("failures"));
+        }
+        return response.getJsonNumber("created").longValue();
+    }
+
+    public record Migration(List<String> sourceIndices, String targetIndex, long documents) {
+    }
+}
@@ -0,0 +1,394 @@
+package com.hseabra.demo_rag;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.KnnSearch;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.MultisearchBody;
+import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import co.elastic.clients.elasticsearch.indices.ResolveIndexResponse;
+import co.elastic.clients.elasticsearch.indices.resolve_index.ResolveIndexAliasItem;
+import co.elastic.clients.elasticsearch.indices.resolve_index.ResolveIndexItem;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.model.EmbeddingUtils;
+import org.springframework.ai.vectorstore.elasticsearch.SimilarityFunction;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * kNN search against an index with an already computed query vector. {@code VectorStore.similaritySearch}
+ * always embeds the query text itself; this lets callers reuse a cached query embedding. Hits are mapped
+ * the same way {@code ElasticsearchVectorStore} maps them (normalized score, {@code distance} metadata).
+ * Also runs the BM25 full-text leg of hybrid retrieval over the same index. Indexes on the
+ * {@link VectorBackend#HNSW} backend are searched in process instead. Batches of searches go out as
+ * one multi-search. Index patterns of federated searches are resolved here too.
+ */
+@Service
+@AllArgsConstructor
+@Slf4j
+public class VectorSearchService {
+    // Field ElasticsearchVectorStore writes the chunk text to
+    private static final String CONTENT_FIELD = "content";
+    private final ElasticConfig.VectorStoreFactory vectorStoreFactory;
+    private final DownstreamLimiters limiters;
+    private final RagMetrics metrics;
+
+    public List<Document> search(String indexName, float[] queryVector, int topK, double similarityThreshold) {
+        FlightEvents.SimilaritySearch event = new FlightEvents.SimilaritySearch();
+        event.begin();
+        List<Document> documents = metrics.observe(RagMetrics.Stage.KNN_SEARCH, indexName,
+                () -> knn(indexName, queryVector, topK, similarityThreshold));
+        event.finish(indexName, "knn", 1, topK, documents.size());
+        return documents;
+    }
+
+    private List<Document> knn(String indexName, float[] queryVector, int topK, double similarityThreshold) {
+        if (vectorStoreFactory.getBackend(indexName) == VectorBackend.HNSW) {
+            HnswVectorStore store = (HnswVectorStore) vectorStoreFactory.getVectorStore(indexName);
+            return store.search(queryVector, topK, similarityThreshold, null);
+        }
+        KnnSearch knn = knnSearch(indexName, queryVector, topK, similarityThreshold);
+        ElasticsearchClient client = vectorStoreFactory.getElasticsearchClient();
+        return limiters.elasticsearch().execute(() -> {
+            try {
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                SearchResponse<Map<String, Object>> response = (SearchResponse) client.search(s -> s
+                        .index(indexName)
+                        .knn(knn)
+                        .source(excludeEmbedding())
+                        .size(topK), Map.class);
+                return toDocuments(response, true);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * BM25 match query on the chunk text. Scores are raw BM25 scores, only meaningful as a ranking.
+     * HNSW indexes have no full-text index and return nothing, so hybrid retrieval on them is kNN only.
+     */
+    public List<Document> lexicalSearch(String indexName, String query, int size) {
+        if (vectorStoreFactory.getBackend(indexName) == VectorBackend.HNSW) {
+            return List.of();
+        }
+        ElasticsearchClient client = vectorStoreFactory.getElasticsearchClient();
+        FlightEvents.SimilaritySearch event = new FlightEvents.SimilaritySearch();
+        event.begin();
+        List<Document> documents = metrics.observe(RagMetrics.Stage.LEXICAL_SEARCH, indexName, () -> limiters.elasticsearch().execute(() -> {
+            try {
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                SearchResponse<Map<String, Object>> response = (SearchResponse) client.search(s -> s
+                        .index(indexName)
+                        .query(matchQuery(query))
+                        .source(excludeEmbedding())
+                        .size(size), Map.class);
+                return toDocuments(response, false);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        event.finish(indexName, "bm25", 1, size, documents.size());
+        return documents;
+    }
+
+    /**
+     * Runs the searches as a single {@code _msearch} request, under one limiter permit, and returns
+     * their results in the same order. Each search succeeds or fails on its own; if the request as a
+     * whole fails, every Elasticsearch search reports that error. Searches on HNSW indexes run in process.
+     */
+    public List<BatchResult> multiSearch(List<BatchSearch> searches) {
+        BatchResult[] results = new BatchResult[searches.size()];
+        List<Integer> remote = new ArrayList<>();
+        List<RequestItem> items = new ArrayList<>();
+        for (int i = 0; i < searches.size(); i++) {
+            BatchSearch search = searches.get(i);
+            if (vectorStoreFactory.getBackend(search.indexName()) == VectorBackend.HNSW) {
+                try {
+                    results[i] = new BatchResult(search.queryVector() == null
+                            ? lexicalSearch(search.indexName(), search.text(), search.size())
+                            : search(search.indexName(), search.queryVector(), search.size(), search.similarityThreshold()), null);
+                } catch (RuntimeException e) {
+                    results[i] = new BatchResult(List.of(), e.getMessage());
+                }
+                continue;
+            }
+            MultisearchBody.Builder body = new MultisearchBody.Builder()
+                    .source(excludeEmbedding())
+                    .size(search.size());
+            if (search.queryVector() == null) {
+                body.query(matchQuery(search.text()));
+            } else {
+                body.knn(knnSearch(search.indexName(), search.queryVector(), search.size(), search.similarityThreshold()));
+            }
+            items.add(RequestItem.of(r -> r.header(h -> h.index(search.indexName())).body(body.build())));
+            remote.add(i);
+        }
+
+        if (!items.isEmpty()) {
+            ElasticsearchClient client = vectorStoreFactory.getElasticsearchClient();
+            List<MultiSearchResponseItem<Map<String, Object>>> responses;
+            long indexes = remote.stream().map(i -> searches.get(i).indexName()).distinct().count();
+            String indexTag = indexes == 1 ? searches.get(remote.get(0)).indexName() : RagMetrics.MULTIPLE_INDEXES;
+            FlightEvents.SimilaritySearch event = new FlightEvents.SimilaritySearch();
+            event.begin();
+            try {
+                responses = metrics.observe(RagMetrics.Stage.MULTI_SEARCH, indexTag, () -> limiters.elasticsearch().execute(() -> {
+                    try {
+                        @SuppressWarnings({"unchecked", "rawtypes"})
+                        MsearchResponse<Map<String, Object>> response = (MsearchResponse) client.msearch(m -> m.searches(items), Map.class);
+                        return response.responses();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            } catch (RuntimeException e) {
+                log.error("Multi-search of {} searches failed", items.size(), e);
+                for (int i : remote) {
+                    results[i] = new BatchResult(List.of(), e.getMessage());
+                }
+                return List.of(results);
+            }
+            int size = 0;
+            int hits = 0;
+            for (int j = 0; j < remote.size(); j++) {
+                int i = remote.get(j);
+                MultiSearchResponseItem<Map<String, Object>> item = responses.get(j);
+                results[i] = item.isResult()
+                        ? new BatchResult(toDocuments(item.result(), searches.get(i).queryVector() != null), null)
+                        : new BatchResult(List.of(), item.failure().error().reason());
+                size += searches.get(i).size();
+                hits += results[i].documents().size();
+            }
+            event.finish(indexTag, "msearch", remote.size(), size, hits);
+        }
+        return List.of(results);
+    }
+
+    /**
+     * Stored embeddings of documents by id, for re-ranking retrieved chunks against each other. Search
+     * hits leave the embedding out of {@code _source}; this reads just that field for the few
+     * candidates with one multi-get. Ids not found are left out.
+     */
+    public Map<String, float[]> getEmbeddings(String indexName, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        if (vectorStoreFactory.getBackend(indexName) == VectorBackend.HNSW) {
+            return ((HnswVectorStore) vectorStoreFactory.getVectorStore(indexName)).getEmbeddings(ids);
+        }
+        ElasticsearchClient client = vectorStoreFactory.getElasticsearchClient();
+        String field = vectorStoreFactory.getEmbeddingFieldName();
+        return limiters.elasticsearch().execute(() -> {
+            try {
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                MgetResponse<Map<String, Object>> response = (MgetResponse) client.mget(m -> m
+                        .index(indexName)
+                        .ids(List.copyOf(ids))
+                        .sourceIncludes(field), Map.class);
+                Map<String, float[]> embeddings = new HashMap<>();
+                for (MultiGetResponseItem<Map<String, Object>> item : response.docs()) {
+                    if (item.isResult() && item.result().found() && item.result().source() != null
+                            && item.result().source().get(field) instanceof List<?> values) {
+                        float[] vector = new float[values.size()];
+                        for (int i = 0; i < vector.length; i++) {
+                            vector[i] = ((Number) values.get(i)).floatValue();
+                        }
+                        embeddings.put(item.result().id(), vector);
+                    }
+                }
+                return embeddings;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Expands index names and wildcard patterns ({@code products_*}) into the index names they match,
+     * in order and without duplicates. Plain names are kept as they are. Patterns are matched against
+     * the in-process HNSW indexes and resolved by Elasticsearch; an index reached through an alias
+     * the pattern also matches, as after a {@link VectorIndexInitializer#migrate migration}, is
+     * listed once under the alias. A pattern that could not be resolved in full, because the HNSW
+     * indexes could not be listed or Elasticsearch failed, is reported with the reason; the indexes it
+     * did match are kept.
+     */
+    public ResolvedIndexes resolveIndexes(List<String> namesOrPatterns) {
+        Set<String> resolved = new LinkedHashSet<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+        for (String entry : namesOrPatterns) {
+            if (!entry.contains("*")) {
+                resolved.add(entry);
+                continue;
+            }
+            Pattern pattern = wildcard(entry);
+            try {
+                vectorStoreFactory.getHnswIndexNames().stream()
+                        .filter(name -> pattern.matcher(name).matches())
+                        .forEach(resolved::add);
+            } catch (IOException e) {
+                log.warn("Could not list HNSW indexes matching {}", entry, e);
+                failed.put(entry, "Could not list HNSW indexes: " + e.getMessage());
+            }
+            try {
+                resolved.addAll(resolveElasticsearch(entry));
+            } catch (RuntimeException e) {
+                log.warn("Could not resolve {} in Elasticsearch", entry, e);
+                failed.merge(entry, "Could not resolve in Elasticsearch: " + e.getMessage(), (a, b) -> a + "; " + b);
+            }
+        }
+        return new ResolvedIndexes(List.copyOf(resolved), failed);
+    }
+
+    private List<String> resolveElasticsearch(String pattern) {
+        ElasticsearchClient client = vectorStoreFactory.getElasticsearchClient();
+        ResolveIndexResponse response = limiters.elasticsearch().execute(() -> {
+            try {
+                return client.indices().resolveIndex(r -> r.name(pattern));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Set<String> aliases = new HashSet<>();
+        List<String> names = new ArrayList<>();
+        for (ResolveIndexAliasItem alias : response.aliases()) {
+            aliases.add(alias.name());
+            names.add(alias.name());
+        }
+        for (ResolveIndexItem index : response.indices()) {
+            if (index.name().startsWith(".") || index.aliases().stream().anyMatch(aliases::contains)) {
+                continue;
+            }
+            names.add(index.name());
+        }
+        return names;
+    }
+
+    private static Pattern wildcard(String pattern) {
+        return Pattern.compile(Arrays.stream(pattern.split("\\*", -1))
+                .map(Pattern::quote)
+                .collect(Collectors.joining(".*")));
+    }
+
+    /**
+     * kNN clause for the index's mapping profile; the similarity threshold is converted from the
+     * normalized score to the raw Elasticsearch similarity.
+     */
+    private KnnSearch knnSearch(String indexName, float[] queryVector, int topK, double similarityThreshold) {
+        float threshold = (float) similarityThreshold;
+        if (vectorStoreFactory.getSimilarity() == SimilarityFunction.l2_norm) {
+            threshold = 1 - threshold;
+        }
+        RagProperties.MappingProfile profile = vectorStoreFactory.getMappingProfile(indexName);
+        int numCandidates = Math.max(topK, (int) Math.ceil(profile.getNumCandidatesFactor() * topK));
+        Float oversample = profile.getOversample();
+        KnnSearch.Builder knn = new KnnSearch.Builder()
+                .field(vectorStoreFactory.getEmbeddingFieldName())
+                .queryVector(EmbeddingUtils.toList(queryVector))
+                .similarity(threshold)
+                .k(topK)
+                .numCandidates(numCandidates);
+        if (oversample != null && oversample >= 1) {
+            knn.rescoreVector(r -> r.oversample(oversample));
+        }
+        return knn.build();
+    }
+
+    private static Query matchQuery(String text) {
+        return Query.of(q -> q.match(m -> m.field(CONTENT_FIELD).query(text)));
+    }
+
+    private SourceConfig excludeEmbedding() {
+        return SourceConfig.of(src -> src.filter(f -> f.excludes(vectorStoreFactory.getEmbeddingFieldName())));
+    }
+
+    /**
+     * @param knn whether the hits are kNN hits, whose scores are normalized and get {@code distance} metadata
+     */
+    private List<Document> toDocuments(ResponseBody<Map<String, Object>> response, boolean knn) {
+        SimilarityFunction similarity = vectorStoreFactory.getSimilarity();
+        List<Document> documents = new ArrayList<>(response.hits().hits().size());
+        for (Hit<Map<String, Object>> hit : response.hits().hits()) {
+            double score = hit.score() == null ? 0 : hit.score();
+            if (knn) {
+                score = normalizeScore(score, similarity);
+            }
+            Document document = toDocument(hit, score);
+            if (knn) {
+                document.getMetadata().put("distance", 1 - score);
+            }
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Document toDocument(Hit<Map<String, Object>> hit, double score) {
+        Map<String, Object> source = hit.source();
+        Map<String, Object> metadata = new HashMap<>();
+        if (source.get("metadata") instanceof Map<?, ?> stored) {
+            metadata.putAll((Map<String, Object>) stored);
+        }
+        String id = source.get("id") instanceof String s ? s : hit.id();
+        return Document.builder()
+                .id(id)
+                .text((String) source.get(CONTENT_FIELD))
+                .metadata(metadata)
+                .score(score)
+                .build();
+    }
+
+    private static double normalizeScore(double score, SimilarityFunction similarity) {
+        return switch (similarity) {
+            case l2_norm -> 1 - Math.sqrt((1 / score) - 1);
+            default -> (2 * score) - 1;
+        };
+    }
+
+    /**
+     * One search of a {@link #multiSearch}: kNN on {@code queryVector} if set, otherwise BM25 on {@code text}.
+     */
+    public record BatchSearch(String indexName, float[] queryVector, String text, int size, double similarityThreshold) {
+        public static BatchSearch knn(String indexName, float[] queryVector, int topK, double similarityThreshold) {
+            return new BatchSearch(indexName, queryVector, null, topK, similarityThreshold);
+        }
+
+        public static BatchSearch lexical(String indexName, String text, int size) {
+            return new BatchSearch(indexName, null, text, size, 0);
+        }
+    }
+
+    /**
+     * Index names a {@link #resolveIndexes} call expanded to, and why a pattern could not be resolved, by pattern.
+     */
+    public record ResolvedIndexes(List<String> indexes, Map<String, String> failed) {
+    }
+
+    /**
+     * Hits of one search of a {@link #multiSearch}, or the reason it failed.
+     */
+    public record BatchResult(List<Document> documents, String error) {
+    }
+}
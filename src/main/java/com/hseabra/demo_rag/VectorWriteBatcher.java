@@ -0,0 +1,380 @@
+package com.hseabra.demo_rag;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Shared write stage for ingestion. Chunk groups submitted by every running document are merged
+ * into batches bounded by a token budget, a chunk count and a linger time; each batch is embedded
+ * in one model call and written with one bulk request per index. The token budget adapts to what
+ * the downstream services sustain: it grows while batches complete within the target latency and
+ * shrinks on slow batches, throttling or failures. A batch that fails on throttling or a transport
+ * error is queued again after a backoff; only a failure caused by the documents themselves makes
+ * its submissions be retried one by one, so a bad document fails alone. No more batches are written at once than the
+ * embeddings limiter could ever run; while all are in flight, submissions stay queued and are merged
+ * into the next batch.
+ */
+@Slf4j
+@Component
+public class VectorWriteBatcher implements MeterBinder {
+    private final ElasticConfig.VectorStoreFactory vectorStoreFactory;
+    private final DownstreamLimiters limiters;
+    private final RagProperties.Batching config;
+    private final RagMetrics metrics;
+    private final TokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedChunks = new LongAdder();
+    private final LongAdder submissions = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder requeued = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Semaphore writeSlots;
+    private volatile int tokenBudget;
+    private volatile boolean stopped;
+    private Thread dispatcher;
+
+    public VectorWriteBatcher(ElasticConfig.VectorStoreFactory vectorStoreFactory, DownstreamLimiters limiters,
+                              RagProperties ragProperties, RagMetrics metrics) {
+        this.vectorStoreFactory = vectorStoreFactory;
+        this.limiters = limiters;
+        this.config = ragProperties.getBatching();
+        this.metrics = metrics;
+        this.tokenBudget = config.getInitialTokens();
+        this.writeSlots = new Semaphore(limiters.embeddings().getMaxLimit());
+    }
+
+    @PostConstruct
+    void start() {
+        dispatcher = Thread.ofVirtual().name("vector-write-batcher").start(this::dispatchLoop);
+    }
+
+    @PreDestroy
+    void stop() {
+        stopped = true;
+        dispatcher.interrupt();
+        executor.shutdownNow();
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(new CancellationException("Batcher stopped"));
+        }
+    }
+
+    /**
+     * Queues chunks for the given index. The returned future completes once all of them are
+     * embedded and indexed; chunks of one submission travel in the same batch unless together they
+     * exceed the batch token or chunk limit, in which case they are split.
+     */
+    public CompletableFuture<Void> submit(String indexName, List<Document> chunks) {
+        submissions.increment();
+        List<CompletableFuture<Void>> parts = new ArrayList<>(1);
+        int from = 0;
+        int tokens = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            int chunkTokens = tokenCounter.estimate(chunks.get(i).getText());
+            if (i > from && (tokens + chunkTokens > config.getMaxTokens() || i - from == config.getMaxChunks())) {
+                parts.add(enqueue(indexName, chunks.subList(from, i), tokens));
+                from = i;
+                tokens = 0;
+            }
+            tokens += chunkTokens;
+        }
+        parts.add(enqueue(indexName, chunks.subList(from, chunks.size()), tokens));
+        return parts.size() == 1 ? parts.get(0) : CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new));
+    }
+
+    private CompletableFuture<Void> enqueue(String indexName, List<Document> chunks, int tokens) {
+        Pending pending = new Pending(indexName, chunks, tokens, System.nanoTime(), 1, new CompletableFuture<>());
+        queue.add(pending);
+        return pending.done;
+    }
+
+    public int getTokenBudget() {
+        return tokenBudget;
+    }
+
+    private void dispatchLoop() {
+        long lingerNanos = config.getLinger().toNanos();
+        Pending carry = null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Taken before the batch is formed, so submissions arriving meanwhile join it
+                writeSlots.acquire();
+                Pending first = carry != null ? carry : queue.take();
+                carry = null;
+                List<Pending> batch = new ArrayList<>();
+                batch.add(first);
+                int tokens = first.tokens;
+                int chunks = first.chunks.size();
+                long deadline = first.enqueuedAt + lingerNanos;
+
+                while (tokens < tokenBudget && chunks < config.getMaxChunks()) {
+                    Pending next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (tokens + next.tokens > tokenBudget || chunks + next.chunks.size() > config.getMaxChunks()) {
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    tokens += next.tokens;
+                    chunks += next.chunks.size();
+                }
+                final int batchTokens = tokens;
+                executor.execute(() -> write(batch, batchTokens));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (carry != null) {
+            carry.done.completeExceptionally(new CancellationException("Batcher stopped"));
+        }
+    }
+
+    private void write(List<Pending> batch, int tokens) {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        try {
+            writeAll(batch);
+            adapt(System.nanoTime() - start, null);
+            batch.forEach(p -> p.done.complete(null));
+            log.debug("Wrote batch of {} submission(s), {} tokens in {}ms", batch.size(), tokens,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            adapt(System.nanoTime() - start, e);
+            if (!isDocumentFailure(e)) {
+                // The services are throttling or unreachable: more calls now would only fail too
+                requeue(batch, e);
+                return;
+            }
+            if (batch.size() == 1) {
+                batch.get(0).done.completeExceptionally(e);
+                return;
+            }
+            // One bad document must not fail the others it was merged with: retry each on its own
+            log.warn("Batch of {} submissions failed, retrying them separately", batch.size(), e);
+            for (Pending pending : batch) {
+                retries.increment();
+                try {
+                    writeAll(List.of(pending));
+                    pending.done.complete(null);
+                } catch (RuntimeException retryFailure) {
+                    if (isDocumentFailure(retryFailure)) {
+                        pending.done.completeExceptionally(retryFailure);
+                    } else {
+                        requeue(List.of(pending), retryFailure);
+                    }
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+            writeSlots.release();
+        }
+    }
+
+    /**
+     * Whether a write failed because of the documents rather than the services: an HTTP 4xx other
+     * than a timeout or throttling, or a rejection without a status, such as a bulk item the store
+     * refused.
+     */
+    static boolean isDocumentFailure(Throwable failure) {
+        int status = AdaptiveConcurrencyLimiter.statusOf(failure);
+        if (status >= 0) {
+            return status >= 400 && status < 500 && status != 408 && status != 429;
+        }
+        return !(failure instanceof CancellationException)
+                && (failure instanceof IllegalArgumentException || failure instanceof IllegalStateException);
+    }
+
+    /**
+     * Queues the submissions again after the backoff of their attempt, failing those out of attempts.
+     */
+    private void requeue(List<Pending> batch, RuntimeException failure) {
+        for (Pending pending : batch) {
+            if (pending.attempt >= config.getMaxAttempts()) {
+                pending.done.completeExceptionally(failure);
+                continue;
+            }
+            long backoffNanos = config.getRetryBackoff().toNanos() << (pending.attempt - 1);
+            log.warn("Write of {} chunks for {} failed on attempt {}, queuing it again in {}ms: {}", pending.chunks.size(),
+                    pending.indexName, pending.attempt, TimeUnit.NANOSECONDS.toMillis(backoffNanos), failure.toString());
+            requeued.increment();
+            CompletableFuture.delayedExecutor(backoffNanos, TimeUnit.NANOSECONDS).execute(() -> {
+                if (stopped) {
+                    pending.done.completeExceptionally(new CancellationException("Batcher stopped"));
+                } else {
+                    queue.add(new Pending(pending.indexName, pending.chunks, pending.tokens, System.nanoTime(),
+                            pending.attempt + 1, pending.done));
+                }
+            });
+        }
+    }
+
+    private void writeAll(List<Pending> batch) {
+        EmbeddingModel embeddingModel = vectorStoreFactory.getEmbeddingModel();
+        Map<String, List<Document>> byIndex = new LinkedHashMap<>();
+        List<String> texts = new ArrayList<>();
+        for (Pending pending : batch) {
+            byIndex.computeIfAbsent(pending.indexName, k -> new ArrayList<>()).addAll(pending.chunks);
+            pending.chunks.forEach(chunk -> texts.add(chunk.getText()));
+        }
+        String indexTag = byIndex.size() == 1 ? byIndex.keySet().iterator().next() : RagMetrics.MULTIPLE_INDEXES;
+        // One model call for the whole batch; the stores' own embedding pass is then answered with its vectors
+        List<float[]> vectors = metrics.embedding(indexTag, texts.size(), batch.stream().mapToInt(Pending::tokens).sum(),
+                () -> embeddingModel.embed(texts));
+        for (Map.Entry<String, List<Document>> entry : byIndex.entrySet()) {
+            FlightEvents.VectorStoreAdd event = new FlightEvents.VectorStoreAdd();
+            event.begin();
+            metrics.observe(RagMetrics.Stage.BULK_WRITE, entry.getKey(), () -> vectorStoreFactory.withEmbeddings(texts, vectors,
+                    () -> apply(entry.getKey(), store -> store.add(entry.getValue()))));
+            event.finish(entry.getKey(), vectorStoreFactory.getBackend(entry.getKey()), entry.getValue());
+        }
+        batches.increment();
+        batchedChunks.add(texts.size());
+        for (Pending pending : batch) {
+            metrics.tokens(pending.indexName, "embedding", pending.tokens);
+        }
+    }
+
+    /**
+     * Deletes documents by id right away; deletes are rare and not batched.
+     */
+    public void delete(String indexName, Collection<String> ids) {
+        apply(indexName, store -> store.delete(List.copyOf(ids)));
+    }
+
+    /**
+     * Deletes the documents matching a metadata filter right away.
+     */
+    public void delete(String indexName, Filter.Expression filter) {
+        apply(indexName, store -> store.delete(filter));
+    }
+
+    /**
+     * Deletes the chunks of a file that were not written by the given ingestion run, found by the
+     * file's {@code path} and the run's {@link IngestionManifest#INGESTION_RUN} metadata. Chunks the
+     * run rewrote since the search saw them are version conflicts and are left alone.
+     */
+    public void deleteOtherRuns(String indexName, String path, String run) {
+        if (vectorStoreFactory.getBackend(indexName) == VectorBackend.HNSW) {
+            FilterExpressionBuilder filter = new FilterExpressionBuilder();
+            vectorStoreFactory.getVectorStore(indexName)
+                    .delete(filter.and(filter.eq("path", path), filter.ne(IngestionManifest.INGESTION_RUN, run)).build());
+            return;
+        }
+        // Term queries on the keyword fields: the store's filter conversion does not quote values such as paths
+        ElasticsearchClient client = vectorStoreFactory.getElasticsearchClient();
+        limiters.elasticsearch().run(() -> {
+            try {
+                DeleteByQueryResponse response = client.deleteByQuery(d -> d
+                        .index(indexName)
+                        .conflicts(Conflicts.Proceed)
+                        .query(q -> q.bool(b -> b
+                                .filter(f -> f.term(t -> t.field("metadata.path.keyword").value(path)))
+                                .mustNot(m -> m.term(t -> t.field("metadata." + IngestionManifest.INGESTION_RUN + ".keyword").value(run))))));
+                log.debug("Deleted {} chunks of {} from other ingestions in {}", response.deleted(), path, indexName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Runs a write against an index's store; Elasticsearch writes go through its concurrency limiter.
+     */
+    private void apply(String indexName, Consumer<VectorStore> write) {
+        VectorStore store = vectorStoreFactory.getVectorStore(indexName);
+        if (vectorStoreFactory.getBackend(indexName) == VectorBackend.HNSW) {
+            write.accept(store);
+        } else {
+            limiters.elasticsearch().run(() -> write.accept(store));
+        }
+    }
+
+    /**
+     * Grows the budget by a quarter after a fast batch, cuts it by a quarter after a slow one and
+     * halves it after throttling or a failure.
+     */
+    private synchronized void adapt(long latencyNanos, RuntimeException failure) {
+        int budget = tokenBudget;
+        if (failure != null) {
+            budget /= 2;
+            if (AdaptiveConcurrencyLimiter.isThrottled(failure)) {
+                log.info("Write batch throttled, token budget {} -> {}", tokenBudget, Math.max(config.getMinTokens(), budget));
+            }
+        } else if (latencyNanos > config.getTargetLatency().toNanos()) {
+            budget = budget * 3 / 4;
+        } else {
+            budget = budget + budget / 4;
+        }
+        tokenBudget = Math.max(config.getMinTokens(), Math.min(config.getMaxTokens(), budget));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("rag.ingest.batch.token.budget", this, VectorWriteBatcher::getTokenBudget)
+                .register(registry);
+        FunctionCounter.builder("rag.ingest.batches", batches, LongAdder::sum)
+                .description("Embedding/bulk batches written")
+                .register(registry);
+        FunctionCounter.builder("rag.ingest.batched.chunks", batchedChunks, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("rag.ingest.batch.submissions", submissions, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("rag.ingest.batch.retries", retries, LongAdder::sum)
+                .description("Submissions rewritten on their own after the batch they were merged into failed")
+                .register(registry);
+        FunctionCounter.builder("rag.ingest.batch.requeued", requeued, LongAdder::sum)
+                .description("Submissions queued again after their batch was throttled or hit a transport error")
+                .register(registry);
+        Gauge.builder("rag.ingest.batch.queue", queue, BlockingQueue::size)
+                .description("Submissions waiting to be batched")
+                .register(registry);
+        Gauge.builder("rag.ingest.batches.in.flight", inFlight, AtomicInteger::get)
+                .register(registry);
+    }
+
+    /**
+     * @param attempt 1 for the first write of the submission, counting up as it is queued again
+     */
+    private record Pending(String indexName, List<Document> chunks, int tokens, long enqueuedAt, int attempt,
+                           CompletableFuture<Void> done) {
+    }
+}
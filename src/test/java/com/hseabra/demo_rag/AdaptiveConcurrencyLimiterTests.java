@@ -0,0 +1,133 @@
+package com.hseabra.demo_rag;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveConcurrencyLimiterTests {
+
+    @Test
+    void growsOnSuccessAndHalvesOnThrottling() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 4, 1, 8, 1000);
+        for (int i = 0; i < 200; i++) {
+            limiter.run(() -> {
+            });
+        }
+        assertThat(limiter.getLimit()).isEqualTo(8);
+
+        assertThatThrownBy(() -> limiter.run(() -> {
+            throw new ElasticsearchException("bulk", ErrorResponse.of(e -> e.status(429)
+                    .error(c -> c.type("es_rejected_execution_exception").reason("rejected execution"))));
+        })).isInstanceOf(ElasticsearchException.class);
+        assertThat(limiter.getLimit()).isEqualTo(4);
+
+        // Other failures carry no capacity signal, even when their message mentions 429
+        assertThatThrownBy(() -> limiter.run(() -> {
+            throw new IllegalStateException("bad request for chunk 429");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void countsThrottledResultsAsThrottling() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 4, 1, 8, 1000);
+
+        int status = limiter.execute(() -> 429, result -> result == 429);
+
+        assertThat(status).isEqualTo(429);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void neverRunsMoreCallsThanTheLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 2, 2, 1000);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(20);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 20; i++) {
+                executor.execute(() -> {
+                    limiter.run(() -> {
+                        peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                    });
+                    done.countDown();
+                });
+            }
+            assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+        assertThat(peak.get()).isEqualTo(2);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void keepsReserveForInteractiveCallsAndServesThemFirst() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 4, 4, 4, 1000, 0.25);
+        CountDownLatch releaseIngestion = new CountDownLatch(1);
+        CountDownLatch releaseInteractive = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 3; i++) {
+                executor.execute(() -> limiter.run(() -> awaitQuietly(releaseIngestion)));
+            }
+            await(() -> limiter.getInFlight() == 3);
+            executor.execute(() -> limiter.run(() -> order.add("ingestion")));
+            await(() -> limiter.getWaiting(RequestPriority.INGESTION) == 1);
+
+            // the fourth permit is kept for interactive calls
+            executor.execute(() -> RequestPriority.INTERACTIVE.call(() -> {
+                limiter.run(() -> awaitQuietly(releaseInteractive));
+                return null;
+            }));
+            await(() -> limiter.getInFlight() == 4);
+            executor.execute(() -> RequestPriority.INTERACTIVE.call(() -> {
+                limiter.run(() -> order.add("interactive"));
+                return null;
+            }));
+            await(() -> limiter.getWaiting(RequestPriority.INTERACTIVE) == 1);
+
+            releaseInteractive.countDown();
+            await(() -> order.size() == 1);
+            assertThat(limiter.getWaiting(RequestPriority.INGESTION)).isEqualTo(1);
+
+            releaseIngestion.countDown();
+            await(() -> order.size() == 2);
+        }
+        assertThat(order).containsExactly("interactive", "ingestion");
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition reached in time").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingEmbeddingModelTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void servesRepeatedTextsFromCacheAndSurvivesReopen() throws Exception {
+        CountingModel model = new CountingModel();
+        Path file = dir.resolve("embeddings.bin");
+
+        try (EmbeddingCacheFile cacheFile = new EmbeddingCacheFile(file, 4)) {
+            CachingEmbeddingModel cache = new CachingEmbeddingModel(model, "deployment", 10, cacheFile);
+            List<float[]> first = cache.embed(List.of("alpha", "beta", "alpha"));
+            List<float[]> second = cache.embed(List.of("beta", "gamma"));
+
+            assertThat(model.embedded).containsExactly("alpha", "beta", "gamma");
+            assertThat(first.get(0)).isEqualTo(first.get(2)).isEqualTo(CountingModel.vector("alpha"));
+            assertThat(second.get(0)).isEqualTo(CountingModel.vector("beta"));
+        }
+
+        try (EmbeddingCacheFile reopened = new EmbeddingCacheFile(file, 4)) {
+            CachingEmbeddingModel cache = new CachingEmbeddingModel(model, "deployment", 10, reopened);
+            assertThat(reopened.size()).isEqualTo(3);
+            assertThat(cache.embed("gamma")).isEqualTo(CountingModel.vector("gamma"));
+
+            // A different deployment must not reuse vectors from another one
+            new CachingEmbeddingModel(model, "other-deployment", 10, reopened).embed("gamma");
+            assertThat(model.embedded).containsExactly("alpha", "beta", "gamma", "gamma");
+        }
+    }
+
+    @Test
+    void answersStoreEmbeddingPassWithPrecomputedVectors() {
+        CountingModel model = new CountingModel();
+        PrecomputedEmbeddingModel store = new PrecomputedEmbeddingModel(model);
+        float[] alpha = {9f, 9f, 9f, 9f};
+        List<float[]> during = new ArrayList<>();
+
+        store.withEmbeddings(List.of("alpha"), List.of(alpha), () -> {
+            during.addAll(store.embed(List.of("alpha")));
+            during.addAll(store.embed(List.of("alpha", "beta")));
+        });
+
+        assertThat(during.get(0)).isEqualTo(alpha);
+        // a request with any unknown text goes to the model whole
+        assertThat(model.embedded).containsExactly("alpha", "beta");
+        assertThat(store.embed("alpha")).isEqualTo(CountingModel.vector("alpha"));
+    }
+
+    static class CountingModel implements EmbeddingModel {
+        final List<String> embedded = new ArrayList<>();
+
+        static float[] vector(String text) {
+            return new float[]{text.length(), text.charAt(0), text.hashCode(), 1f};
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> results = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embedded.add(text);
+                results.add(new Embedding(vector(text), results.size()));
+            }
+            return new EmbeddingResponse(results);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+    }
+}
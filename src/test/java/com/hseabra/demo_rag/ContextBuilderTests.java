@@ -0,0 +1,64 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextBuilderTests {
+    private static final String FIRST = "Hold the power button for three seconds to turn the radio off. ";
+    private static final String SHARED = "Then enter the four digit code printed on the card. ";
+    private static final String SECOND = "If the code is wrong three times, the radio locks for one hour.";
+
+    private final RagProperties properties = new RagProperties();
+
+    @Test
+    void trimsOverlapBetweenNeighbouringChunks() {
+        ContextBuilder builder = new ContextBuilder(properties);
+
+        List<Document> packed = builder.pack(List.of(
+                new Document("b", SHARED + SECOND, Map.of()),
+                new Document("a", FIRST + SHARED, Map.of()),
+                new Document("c", SECOND, Map.of())));
+
+        assertThat(packed).extracting(Document::getId).containsExactly("b", "a");
+        assertThat(packed.get(0).getText()).isEqualTo(SHARED + SECOND);
+        assertThat(packed.get(1).getText()).isEqualTo(FIRST);
+    }
+
+    @Test
+    void prefersDiverseChunksOverNearDuplicates() {
+        ContextBuilder builder = new ContextBuilder(properties);
+        float[] query = {1, 0, 0};
+
+        List<Document> ordered = builder.diversify(query, List.of(
+                new Document("best", "best", Map.of()),
+                new Document("copy", "copy", Map.of()),
+                new Document("close", "close", Map.of()),
+                new Document("other", "other", Map.of()),
+                new Document("unknown", "unknown", Map.of())), Map.of(
+                "best", new float[]{0.9f, 0.44f, 0},
+                "copy", new float[]{0.9f, 0.45f, 0},
+                "close", new float[]{0.8f, 0.3f, 0.5f},
+                "other", new float[]{0.8f, -0.1f, 0.6f}));
+
+        assertThat(ordered).extracting(Document::getId).containsExactly("best", "other", "close", "unknown");
+    }
+
+    @Test
+    void packsIntoTokenBudget() {
+        properties.getContext().setTokenBudget(30);
+        ContextBuilder builder = new ContextBuilder(properties);
+        String longText = FIRST.repeat(10);
+
+        assertThat(builder.pack(List.of(new Document("long", longText, Map.of()), new Document("short", SECOND, Map.of()))))
+                .extracting(Document::getId).containsExactly("short");
+        List<Document> truncated = builder.pack(List.of(new Document("long", longText, Map.of())));
+        assertThat(truncated).hasSize(1);
+        assertThat(longText).startsWith(truncated.get(0).getText());
+        assertThat(truncated.get(0).getText().length()).isLessThan(longText.length());
+    }
+}
@@ -0,0 +1,105 @@
+package com.hseabra.demo_rag;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocumentLoaderTests {
+    @TempDir
+    Path dir;
+
+    private final DocumentLoader loader = new DocumentLoader(new PdfService());
+
+    @Test
+    void splitsHtmlIntoSectionsAtHeadings() throws Exception {
+        String paragraph = "<p>" + "Blocks link to the previous block. ".repeat(80) + "</p>";
+        Path file = Files.writeString(dir.resolve("guide.html"), "<html><body>"
+                + "<h1>Mining</h1>" + paragraph
+                + "<h2>Wallets</h2><p>Keys sign transactions.</p>"
+                + "<h2>Fees</h2><p>Miners collect fees.</p>"
+                + "</body></html>");
+
+        List<Document> sections = load(file);
+
+        assertThat(sections).hasSize(2);
+        // a heading starts a new section only once the current one is long enough
+        assertThat(sections.get(0).getText()).startsWith("Mining").endsWith("previous block.");
+        assertThat(sections.get(1).getText()).isEqualTo("Wallets\nKeys sign transactions.\nFees\nMiners collect fees.");
+        assertThat(sections.get(1).getMetadata()).containsEntry("section", "2");
+    }
+
+    @Test
+    void boundsSectionsOfPlainTextWithoutHeadings() throws Exception {
+        String line = "Every node keeps a full copy of the ledger.\n";
+        Path file = Files.writeString(dir.resolve("notes.txt"), line.repeat(2000));
+
+        List<Document> sections = load(file);
+
+        assertThat(sections).hasSizeGreaterThan(1);
+        assertThat(sections).allSatisfy(section -> {
+            assertThat(section.getText().length()).isLessThanOrEqualTo(DocumentLoader.MAX_SECTION_CHARS);
+            assertThat(section.getText()).startsWith("Every").endsWith("ledger.");
+        });
+        assertThat(sections.stream().mapToInt(section -> section.getText().length() + 1).sum())
+                .isEqualTo(line.length() * 2000);
+    }
+
+    @Test
+    void readsDocx() throws Exception {
+        Path file = dir.resolve("paper.docx");
+        try (XWPFDocument docx = new XWPFDocument(); OutputStream out = Files.newOutputStream(file)) {
+            docx.createParagraph().createRun().setText("Proof of work");
+            docx.createParagraph().createRun().setText("Nodes accept the longest chain.");
+            docx.write(out);
+        }
+
+        List<Document> sections = load(file);
+
+        assertThat(sections).singleElement()
+                .extracting(Document::getText)
+                .isEqualTo("Proof of work\nNodes accept the longest chain.");
+    }
+
+    @Test
+    void reportsAnInterruptedHandOverAsInterruption() throws Exception {
+        Path file = Files.writeString(dir.resolve("notes.txt"), "Every node keeps a full copy of the ledger.\n".repeat(2000));
+
+        assertThatThrownBy(() -> loader.stream(file.toString(), 1, new TextNormalizer(new RagProperties.NormalizationRules()),
+                section -> {
+                    throw new InterruptedException();
+                }))
+                .isInstanceOf(InterruptedException.class);
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    @Test
+    void rejectsUnsupportedFormats() throws Exception {
+        Path file = Files.write(dir.resolve("image.png"), new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+
+        assertThatThrownBy(() -> load(file))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("image/png");
+    }
+
+    private List<Document> load(Path file) throws Exception {
+        List<Document> sections = new ArrayList<>();
+        DocumentLoader.Loaded loaded = loader.stream(file.toString(), 1, new TextNormalizer(new RagProperties.NormalizationRules()), sections::add);
+        assertThat(loaded.parts()).isEqualTo(sections.size());
+        assertThat(loaded.checksum())
+                .isEqualTo(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file))));
+        return sections;
+    }
+}
@@ -0,0 +1,51 @@
+package com.hseabra.demo_rag;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FlightEventsTests {
+    @TempDir
+    Path dir;
+
+    @Test
+    void bundledProfileRecordsEvents() throws Exception {
+        Configuration configuration;
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/jfr/rag.jfc"), StandardCharsets.UTF_8)) {
+            configuration = Configuration.create(reader);
+        }
+        Path file = dir.resolve("rag.jfr");
+        try (Recording recording = new Recording(configuration)) {
+            recording.start();
+            FlightEvents.SimilaritySearch search = new FlightEvents.SimilaritySearch();
+            search.begin();
+            search.finish("manuals", "knn", 1, 3, 2);
+            FlightEvents.ChunkSplit split = new FlightEvents.ChunkSplit();
+            split.begin();
+            split.finish("manuals", ChunkingMode.PARENT_CHILD, 32_768, 20);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().startsWith("com.hseabra.rag."))
+                .toList();
+        assertThat(events).extracting(e -> e.getEventType().getName())
+                .containsExactly("com.hseabra.rag.SimilaritySearch", "com.hseabra.rag.ChunkSplit");
+        assertThat(events.get(0).getString("index")).isEqualTo("manuals");
+        assertThat(events.get(0).getInt("hits")).isEqualTo(2);
+        assertThat(events.get(1).getString("mode")).isEqualTo("PARENT_CHILD");
+        assertThat(events.get(1).getInt("chunks")).isEqualTo(20);
+    }
+}
@@ -0,0 +1,146 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswVectorStoreTests {
+    private static final int DIMENSIONS = 32;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void approximateSearchFindsMostExactNeighbors() throws Exception {
+        Random random = new Random(7);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            vectors.add(randomVector(random));
+        }
+
+        try (HnswVectorStore store = new HnswVectorStore("test", dir, null, DIMENSIONS, new RagProperties.Hnsw())) {
+            store.addEmbedded(documents(vectors.size(), i -> Map.of()), vectors);
+
+            int found = 0;
+            for (int q = 0; q < 50; q++) {
+                float[] query = randomVector(random);
+                Set<String> exact = IntStream.range(0, vectors.size()).boxed()
+                        .sorted(Comparator.comparingDouble((Integer i) -> -cosine(query, vectors.get(i))))
+                        .limit(10)
+                        .map(i -> "doc-" + i)
+                        .collect(Collectors.toSet());
+                found += (int) store.search(query, 10, -1, null).stream().filter(d -> exact.contains(d.getId())).count();
+            }
+            assertThat(found / 500.0).isGreaterThan(0.9);
+        }
+    }
+
+    @Test
+    void deletesFiltersAndReopens() throws Exception {
+        Random random = new Random(11);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            vectors.add(randomVector(random));
+        }
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+
+        try (HnswVectorStore store = new HnswVectorStore("test", dir, null, DIMENSIONS, new RagProperties.Hnsw())) {
+            store.addEmbedded(documents(vectors.size(), i -> Map.of("file", i % 3 == 0 ? "a.pdf" : "b.pdf")), vectors);
+            store.delete(List.of("doc-0"));
+            store.delete(b.eq("file", "b.pdf").build());
+            assertThat(store.size()).isEqualTo(99);
+        }
+
+        try (HnswVectorStore store = new HnswVectorStore("test", dir, null, DIMENSIONS, new RagProperties.Hnsw())) {
+            assertThat(store.size()).isEqualTo(99);
+            List<Document> hits = store.search(vectors.get(3), 5, -1, b.eq("file", "a.pdf").build());
+            assertThat(hits).hasSize(5);
+            assertThat(hits.get(0).getId()).isEqualTo("doc-3");
+            assertThat(hits.get(0).getScore()).isCloseTo(1.0, within(1e-5));
+            assertThat(hits).allSatisfy(d -> assertThat(d.getMetadata()).containsEntry("file", "a.pdf"));
+            assertThat(store.search(vectors.get(0), 300, -1, null)).extracting(Document::getId)
+                    .doesNotContain("doc-0", "doc-1", "doc-2");
+
+            // re-adding an id replaces its previous vector
+            store.addEmbedded(documents(1, i -> Map.of("file", "a.pdf")), List.of(vectors.get(1)));
+            assertThat(store.search(vectors.get(1), 1, -1, null).get(0).getId()).isEqualTo("doc-0");
+            assertThat(store.size()).isEqualTo(100);
+        }
+    }
+
+    @Test
+    void rebuildsWithoutDeletedNodesPastTheCompactionRatio() throws Exception {
+        Random random = new Random(13);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            vectors.add(randomVector(random));
+        }
+        Path index = dir.resolve("index");
+        List<String> firstHalf = IntStream.range(0, 100).mapToObj(i -> "doc-" + i).toList();
+
+        try (HnswVectorStore store = new HnswVectorStore("test", index, null, DIMENSIONS, new RagProperties.Hnsw())) {
+            store.addEmbedded(documents(vectors.size(), i -> Map.of("file", "a.pdf")), vectors);
+            store.delete(firstHalf.subList(0, 50));
+            long logBytes = Files.size(index.resolve("documents.log"));
+
+            // 100 of 200 nodes deleted: past the 0.3 ratio, so the index is rebuilt from the 100 live ones
+            store.delete(firstHalf.subList(50, 100));
+            assertThat(Files.size(index.resolve("documents.log"))).isLessThan(logBytes);
+            assertThat(store.size()).isEqualTo(100);
+            assertThat(store.search(vectors.get(150), 1, -1, null).get(0).getId()).isEqualTo("doc-150");
+            assertThat(store.search(vectors.get(0), 200, -1, null)).hasSize(100)
+                    .extracting(Document::getId).doesNotContainAnyElementsOf(firstHalf);
+        }
+
+        try (HnswVectorStore store = new HnswVectorStore("test", index, null, DIMENSIONS, new RagProperties.Hnsw())) {
+            assertThat(store.size()).isEqualTo(100);
+            assertThat(store.search(vectors.get(199), 1, -1, null).get(0).getMetadata()).containsEntry("file", "a.pdf");
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(index);
+        }
+    }
+
+    private static List<Document> documents(int count, IntFunction<Map<String, Object>> metadata) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(Document.builder().id("doc-" + i).text("chunk " + i).metadata(metadata.apply(i)).build());
+        }
+        return documents;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+}
@@ -0,0 +1,55 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestionManifestTests {
+    @TempDir
+    Path dir;
+
+    @Test
+    void chunkIdsDependOnIndexPathAndContent() {
+        String id = IngestionManifest.chunkId("manuals", "a.pdf", "text");
+
+        assertThat(IngestionManifest.chunkId("manuals", "a.pdf", "text")).isEqualTo(id);
+        assertThat(IngestionManifest.chunkId("manuals", "a.pdf", "other")).isNotEqualTo(id);
+        assertThat(IngestionManifest.chunkId("manuals", "b.pdf", "text")).isNotEqualTo(id);
+        assertThat(IngestionManifest.chunkId("papers", "a.pdf", "text")).isNotEqualTo(id);
+    }
+
+    @Test
+    void settingsFingerprintNamesEveryRule() {
+        RagProperties.NormalizationRules rules = new RagProperties.NormalizationRules();
+        String settings = IngestionManifest.settings(ChunkingMode.FLAT, rules);
+
+        assertThat(IngestionManifest.settings(ChunkingMode.FLAT, new RagProperties.NormalizationRules())).isEqualTo(settings);
+        assertThat(IngestionManifest.settings(ChunkingMode.PARENT_CHILD, rules)).isNotEqualTo(settings);
+        rules.setDehyphenate(!rules.isDehyphenate());
+        assertThat(IngestionManifest.settings(ChunkingMode.FLAT, rules)).isNotEqualTo(settings);
+    }
+
+    @Test
+    void storesEntryPerIndexAndPath() throws Exception {
+        RagProperties properties = new RagProperties();
+        properties.getManifest().setDirectory(dir.toString());
+        IngestionManifest manifest = new IngestionManifest(properties);
+        Path file = Files.writeString(dir.resolve("a.txt"), "content");
+        IngestionManifest.Stamp stamp = IngestionManifest.stamp(file.toString());
+        String settings = IngestionManifest.settings(ChunkingMode.FLAT, new RagProperties.NormalizationRules());
+
+        manifest.put("manuals", file.toString(), new IngestionManifest.Entry(file.toString(), "abc", stamp, settings, Set.of("1", "2"), Set.of("p")));
+
+        IngestionManifest.Entry entry = manifest.get("manuals", file.toString()).orElseThrow();
+        assertThat(entry).isEqualTo(new IngestionManifest.Entry(file.toString(), "abc", stamp, settings, Set.of("1", "2"), Set.of("p")));
+        assertThat(entry.isUnchanged(stamp, settings)).isTrue();
+        assertThat(entry.isUnchanged(new IngestionManifest.Stamp(stamp.size() + 1, stamp.lastModified()), settings)).isFalse();
+        assertThat(manifest.get("papers", file.toString())).isEmpty();
+        assertThat(IngestionManifest.stamp("https://example.com/a.pdf")).isNull();
+    }
+}
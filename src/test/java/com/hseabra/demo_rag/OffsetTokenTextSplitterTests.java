@@ -0,0 +1,78 @@
+package com.hseabra.demo_rag;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffsetTokenTextSplitterTests {
+
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private static String text(int sentences) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            text.append("Frase número ").append(i).append(": a configuração de segurança 🔒 está ativa.")
+                    .append(i % 5 == 4 ? "\n" : " ");
+        }
+        return text.toString();
+    }
+
+    @Test
+    void chunksAreSlicesOfTheTextWithinTheTokenBudget() {
+        String text = text(400);
+        List<Document> chunks = new OffsetTokenTextSplitter(100, 20).split(new Document(text, Map.of("path", "a.pdf")));
+
+        assertThat(chunks).hasSizeGreaterThan(10);
+        int previousStart = -1;
+        for (Document chunk : chunks) {
+            int start = text.indexOf(chunk.getText(), previousStart + 1);
+            assertThat(start).as("chunk is a substring of the source, in order").isGreaterThan(previousStart);
+            // 100 + 20 overlap; encoding a slice on its own can differ by a few tokens at its edges
+            assertThat(ENCODING.countTokensOrdinary(chunk.getText())).isLessThanOrEqualTo(125);
+            assertThat(chunk.getMetadata()).containsEntry("path", "a.pdf");
+            previousStart = start;
+        }
+    }
+
+    @Test
+    void consecutiveChunksOverlapByTokens() {
+        String text = text(200);
+        List<Document> chunks = new OffsetTokenTextSplitter(100, 20).split(new Document(text));
+
+        for (int i = 1; i < chunks.size(); i++) {
+            String previous = chunks.get(i - 1).getText();
+            String current = chunks.get(i).getText();
+            String head = current.substring(0, 20);
+            assertThat(previous).as("chunk %d starts inside chunk %d", i, i - 1).contains(head);
+        }
+    }
+
+    @Test
+    void withoutOverlapChunksCoverTheTextOnce() {
+        String text = text(200);
+        List<Document> chunks = new OffsetTokenTextSplitter(100, 0).split(new Document(text));
+
+        String joined = String.join("", chunks.stream().map(Document::getText).toList());
+        assertThat(joined.replaceAll("\\s", "")).isEqualTo(text.replaceAll("\\s", ""));
+    }
+
+    @Test
+    void mapsTokenBoundariesToCharacterOffsets() {
+        String text = "Olá 🔒 ação";
+        int[] tokens = ENCODING.encodeOrdinary(text).toArray();
+        int[] offsets = OffsetTokenTextSplitter.charOffsets(text, tokens);
+
+        assertThat(offsets[0]).isZero();
+        assertThat(offsets[tokens.length]).isEqualTo(text.length());
+        for (int i = 1; i < offsets.length; i++) {
+            assertThat(offsets[i]).isGreaterThanOrEqualTo(offsets[i - 1]);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParentChunkStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void storesParentsAcrossSegmentsAndReopen() throws Exception {
+        Path file = dir.resolve("parents.bin");
+        // ~1 MB per parent, so the 16 MB segments fill up and records move to the next segment
+        String large = "x".repeat(1_000_000);
+        Map<String, String> parents = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++) {
+            parents.put("p" + i, i + large);
+        }
+
+        try (ParentChunkStore store = new ParentChunkStore(file)) {
+            store.putAll(parents);
+            store.putAll(Map.of("p3", "replaced"));
+            assertThat(store.getAll(List.of("p39", "missing", "p3")))
+                    .containsExactly(Map.entry("p39", 39 + large), Map.entry("p3", "replaced"));
+        }
+
+        try (ParentChunkStore store = new ParentChunkStore(file)) {
+            assertThat(store.size()).isEqualTo(40);
+            assertThat(store.getAll(List.of("p0", "p3", "p20")))
+                    .containsExactly(Map.entry("p0", 0 + large), Map.entry("p3", "replaced"), Map.entry("p20", 20 + large));
+        }
+    }
+
+    @Test
+    void removesParentsAndCompactsOnceMostlyDead() throws Exception {
+        Path file = dir.resolve("parents.bin");
+        String large = "x".repeat(1_000_000);
+        Map<String, String> parents = new LinkedHashMap<>();
+        for (int i = 0; i < 30; i++) {
+            parents.put("p" + i, i + large);
+        }
+
+        try (ParentChunkStore store = new ParentChunkStore(file)) {
+            store.putAll(parents);
+            store.removeAll(List.of("p1", "missing"));
+            long before = Files.size(file);
+            assertThat(store.contains("p1")).isFalse();
+
+            // 28 MB dead against 1 MB live: the two live parents are copied to a new file
+            store.removeAll(parents.keySet().stream().filter(id -> !id.equals("p0") && !id.equals("p29")).toList());
+            assertThat(Files.size(file)).isLessThan(before);
+            assertThat(store.getAll(List.of("p0", "p5", "p29")))
+                    .containsExactly(Map.entry("p0", 0 + large), Map.entry("p29", 29 + large));
+            store.putAll(Map.of("p30", "new"));
+        }
+
+        try (ParentChunkStore store = new ParentChunkStore(file)) {
+            assertThat(store.size()).isEqualTo(3);
+            assertThat(store.getAll(List.of("p0", "p1", "p30")))
+                    .containsExactly(Map.entry("p0", 0 + large), Map.entry("p30", "new"));
+        }
+        assertThat(dir.resolve("parents.bin.compact")).doesNotExist();
+    }
+
+    @Test
+    void childrenPointToTheirStoredParent() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            text.append("Frase ").append(i).append(" sobre a configuração do travamento de segurança. ");
+        }
+        List<ChunkingService.ParentChunk> parents = new ChunkingService()
+                .createParentChunks(new Document(text.toString(), Map.of("path", "a.pdf")));
+
+        try (ParentChunkStore store = new ParentChunkStore(dir.resolve("parents.bin"))) {
+            Map<String, String> texts = new LinkedHashMap<>();
+            parents.forEach(p -> texts.put(p.parent().getId(), p.parent().getText()));
+            store.putAll(texts);
+
+            assertThat(parents).hasSizeGreaterThan(1);
+            for (ChunkingService.ParentChunk parent : parents) {
+                assertThat(parent.children()).isNotEmpty();
+                for (Document child : parent.children()) {
+                    String parentId = (String) child.getMetadata().get(ChunkingService.PARENT_ID);
+                    assertThat(store.getAll(List.of(parentId)).get(parentId)).contains(child.getText());
+                    assertThat(child.getMetadata()).containsEntry("path", "a.pdf");
+                }
+            }
+        }
+    }
+}
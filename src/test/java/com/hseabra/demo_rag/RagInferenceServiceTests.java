@@ -0,0 +1,188 @@
+package com.hseabra.demo_rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RagInferenceServiceTests {
+
+    @Test
+    void batchEmbedsOnceAndSearchesOnce() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyList())).thenAnswer(call -> ((List<?>) call.getArgument(0)).stream()
+                .map(text -> new float[]{text.hashCode()})
+                .toList());
+        VectorSearchService search = mock(VectorSearchService.class);
+        when(search.multiSearch(anyList())).thenAnswer(call -> {
+            List<VectorSearchService.BatchSearch> searches = call.getArgument(0);
+            return searches.stream()
+                    .map(s -> s.indexName().equals("broken")
+                            ? new VectorSearchService.BatchResult(List.of(), "index_not_found_exception")
+                            : new VectorSearchService.BatchResult(List.of(new Document(s.indexName() + ":" + s.queryVector()[0])), null))
+                    .toList();
+        });
+        MeterRegistry meters = new SimpleMeterRegistry();
+        ObservationRegistry observations = ObservationRegistry.create();
+        observations.observationConfig().observationHandler(new DefaultMeterObservationHandler(meters));
+        RagInferenceService service = service(embeddingModel, search, new RagProperties(), new RagMetrics(observations, meters));
+
+        List<RagInferenceService.BatchAnswer> answers = service.inferenceBatch(List.of(
+                new RagInferenceService.BatchQuestion("What is SAFE?", "manuals", RetrievalMode.VECTOR),
+                new RagInferenceService.BatchQuestion("what is  safe?", "papers", RetrievalMode.VECTOR),
+                new RagInferenceService.BatchQuestion("How to reset?", "broken", RetrievalMode.VECTOR)));
+
+        // embedded with their case kept; only whitespace is normalized
+        verify(embeddingModel, times(1)).embed(List.of("What is SAFE?", "what is safe?", "How to reset?"));
+        verify(search, times(1)).multiSearch(anyList());
+        assertThat(answers).hasSize(3);
+        assertThat(answers.get(0).documents()).extracting(Document::getText)
+                .containsExactly("manuals:" + (float) "What is SAFE?".hashCode());
+        assertThat(answers.get(1).documents()).extracting(Document::getText)
+                .containsExactly("papers:" + (float) "what is safe?".hashCode());
+        assertThat(answers.get(2).documents()).isEmpty();
+        assertThat(answers.get(2).error()).contains("index_not_found_exception");
+        assertThat(meters.get(RagMetrics.STAGE).tags("stage", "embedding", "index", RagMetrics.MULTIPLE_INDEXES).timer().count())
+                .isEqualTo(1);
+
+        // answered from the caches: no embedding call and no search
+        service.inferenceBatch(List.of(new RagInferenceService.BatchQuestion("What is SAFE?", "manuals", RetrievalMode.VECTOR)));
+        verify(embeddingModel, times(1)).embed(anyList());
+        verify(embeddingModel, never()).embed(anyString());
+        verify(search, times(1)).multiSearch(anyList());
+    }
+
+    @Test
+    void coalescesIdenticalConcurrentQuestions() throws Exception {
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        VectorSearchService search = mock(VectorSearchService.class);
+        when(search.search(anyString(), any(), anyInt(), anyDouble())).thenAnswer(call -> {
+            searching.countDown();
+            assertThat(release.await(10, TimeUnit.SECONDS)).isTrue();
+            return List.of(new Document("answer"));
+        });
+        RagInferenceService service = service(fixedEmbedding(), search, new RagProperties());
+
+        CompletableFuture<List<Document>> first = CompletableFuture.supplyAsync(() -> service.inference("What is SAFE?"));
+        assertThat(searching.await(10, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<List<Document>> second = CompletableFuture.supplyAsync(() -> service.inference("what is safe?"));
+        release.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).extracting(Document::getText).containsExactly("answer");
+        assertThat(second.get(10, TimeUnit.SECONDS)).extracting(Document::getText).containsExactly("answer");
+        // the second question either joined the running search or, arriving after it, found its cached results
+        verify(search, times(1)).search(anyString(), any(), anyInt(), anyDouble());
+    }
+
+    @Test
+    void repeatedQueryReusesTheDiversifiedContext() {
+        EmbeddingModel embeddingModel = fixedEmbedding();
+        VectorSearchService search = mock(VectorSearchService.class);
+        when(search.search(anyString(), any(), anyInt(), anyDouble())).thenReturn(List.of(
+                Document.builder().id("a").text("Reset with the SAFE button.").score(0.9).build(),
+                Document.builder().id("b").text("Hold it for five seconds.").score(0.8).build()));
+        when(search.getEmbeddings(anyString(), anyList())).thenReturn(Map.of("a", new float[]{1}, "b", new float[]{0.5f}));
+        ChatModel chat = mock(ChatModel.class);
+        when(chat.call(any(Prompt.class))).thenReturn(new ChatResponse(List.of(new Generation(new AssistantMessage("Press SAFE.")))));
+        RagInferenceService service = service(embeddingModel, search, chat, new RagProperties());
+
+        assertThat(service.query("How to reset?")).isEqualTo("Press SAFE.");
+        assertThat(service.query("how to  reset?")).isEqualTo("Press SAFE.");
+
+        verify(search, times(1)).search(anyString(), any(), anyInt(), anyDouble());
+        verify(search, times(1)).getEmbeddings(anyString(), anyList());
+        verify(embeddingModel, times(1)).embed(anyString());
+    }
+
+    @Test
+    void federatedSearchMergesIndexesByScoreAndSkipsFailedAndSlowOnes() {
+        EmbeddingModel embeddingModel = fixedEmbedding();
+        VectorSearchService search = mock(VectorSearchService.class);
+        when(search.resolveIndexes(List.of("products_*", "broken", "slow", "remote_*")))
+                .thenReturn(new VectorSearchService.ResolvedIndexes(List.of("products_a", "products_b", "broken", "slow"),
+                        Map.of("remote_*", "Could not resolve in Elasticsearch: connection refused")));
+        when(search.search(eq("products_a"), any(), anyInt(), anyDouble())).thenReturn(List.of(
+                Document.builder().text("a1").score(0.9).build(), Document.builder().text("a2").score(0.6).build()));
+        when(search.search(eq("products_b"), any(), anyInt(), anyDouble())).thenReturn(List.of(
+                Document.builder().text("b1").score(0.8).build()));
+        when(search.search(eq("broken"), any(), anyInt(), anyDouble())).thenThrow(new IllegalStateException("index_not_found_exception"));
+        when(search.search(eq("slow"), any(), anyInt(), anyDouble())).thenAnswer(call -> {
+            Thread.sleep(10_000);
+            return List.of(Document.builder().text("late").score(1.0).build());
+        });
+        RagProperties properties = new RagProperties();
+        properties.getFederation().setLegTimeout(Duration.ofMillis(200));
+        RagInferenceService service = service(embeddingModel, search, properties);
+
+        long start = System.nanoTime();
+        RagInferenceService.FederatedResult result = service.federatedInference("What is SAFE?",
+                List.of("products_*", "broken", "slow", "remote_*"), RetrievalMode.VECTOR);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+        assertThat(result.documents()).extracting(Document::getText).containsExactly("a1", "b1", "a2");
+        assertThat(result.documents()).extracting(document -> document.getMetadata().get(RagInferenceService.SOURCE_INDEX))
+                .containsExactly("products_a", "products_b", "products_a");
+        assertThat(result.indexes()).containsExactly("products_a", "products_b", "broken", "slow");
+        assertThat(result.failedIndexes()).containsOnlyKeys("remote_*", "broken", "slow");
+        assertThat(result.failedIndexes().get("broken")).contains("index_not_found_exception");
+        verify(embeddingModel, times(1)).embed(anyString());
+    }
+
+    private static EmbeddingModel fixedEmbedding() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1});
+        return embeddingModel;
+    }
+
+    private static RagInferenceService service(EmbeddingModel embeddingModel, VectorSearchService search, RagProperties properties) {
+        return service(embeddingModel, search, properties, new RagMetrics(ObservationRegistry.NOOP, new SimpleMeterRegistry()));
+    }
+
+    private static RagInferenceService service(EmbeddingModel embeddingModel, VectorSearchService search, RagProperties properties,
+                                               RagMetrics metrics) {
+        return new RagInferenceService(factory(embeddingModel), search, new RetrievalCache(properties), mock(ChatModel.class),
+                mock(ParentChunkStore.class), properties, metrics, new ContextBuilder(properties));
+    }
+
+    private static RagInferenceService service(EmbeddingModel embeddingModel, VectorSearchService search, ChatModel chat,
+                                               RagProperties properties) {
+        return new RagInferenceService(factory(embeddingModel), search, new RetrievalCache(properties), chat,
+                mock(ParentChunkStore.class), properties, new RagMetrics(ObservationRegistry.NOOP, new SimpleMeterRegistry()),
+                new ContextBuilder(properties));
+    }
+
+    private static ElasticConfig.VectorStoreFactory factory(EmbeddingModel embeddingModel) {
+        ElasticConfig.VectorStoreFactory factory = mock(ElasticConfig.VectorStoreFactory.class);
+        when(factory.getEmbeddingModel()).thenReturn(embeddingModel);
+        return factory;
+    }
+}
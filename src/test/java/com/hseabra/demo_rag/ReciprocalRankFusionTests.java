@@ -0,0 +1,38 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ReciprocalRankFusionTests {
+
+    @Test
+    void documentsFoundByBothListsRankFirst() {
+        List<Document> vector = List.of(doc("a", 0.9), doc("b", 0.8), doc("c", 0.7));
+        List<Document> lexical = List.of(doc("d", 12.0), doc("c", 9.5), doc("a", 3.1));
+
+        List<Document> fused = ReciprocalRankFusion.fuse(List.of(vector, lexical), new double[]{1.0, 1.0}, 60, 3);
+
+        assertThat(fused).extracting(Document::getId).containsExactly("a", "c", "d");
+        assertThat(fused.get(0).getScore()).isCloseTo(1.0 / 61 + 1.0 / 63, within(1e-12));
+        assertThat(fused.get(0).getText()).isEqualTo("text a");
+    }
+
+    @Test
+    void weightsFavourOneRanking() {
+        List<Document> vector = List.of(doc("a", 0.9), doc("b", 0.8));
+        List<Document> lexical = List.of(doc("b", 7.0), doc("c", 5.0));
+
+        List<Document> fused = ReciprocalRankFusion.fuse(List.of(vector, lexical), new double[]{0.2, 1.0}, 60, 10);
+
+        assertThat(fused).extracting(Document::getId).containsExactly("b", "c", "a");
+    }
+
+    private static Document doc(String id, double score) {
+        return Document.builder().id(id).text("text " + id).score(score).build();
+    }
+}
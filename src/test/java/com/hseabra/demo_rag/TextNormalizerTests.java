@@ -0,0 +1,68 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextNormalizerTests {
+
+    private static TextNormalizer normalizer() {
+        return new TextNormalizer(new RagProperties.NormalizationRules());
+    }
+
+    @Test
+    void cleansSinglePages() {
+        assertThat(normalizer().normalize("  Para desativar\r\n o travamento\tSAFE, mantenha o botão.\n\n"))
+                .isEqualTo("Para desativar o travamento SAFE, mantenha o botão.");
+        assertThat(normalizer().normalize("Last sentence of the page.\n  42 \n")).isEqualTo("Last sentence of the page.");
+        assertThat(normalizer().normalize("No trailing number here 42")).isEqualTo("No trailing number here 42");
+        assertThat(normalizer().normalize("")).isEmpty();
+    }
+
+    @Test
+    void replacesDotLeadersWithASpace() {
+        // the former regex cleanup deleted the run, leaving two spaces here and joining "a...b" into "ab"
+        assertThat(normalizer().normalize("Índice ............................ 3\nSegurança ..... 12\n"))
+                .isEqualTo("Índice 3 Segurança 12");
+        assertThat(normalizer().normalize("Capítulo 1....12")).isEqualTo("Capítulo 1 12");
+        assertThat(normalizer().normalize("a...b")).isEqualTo("a b");
+        assertThat(normalizer().normalize("Wait... what?")).isEqualTo("Wait what?");
+    }
+
+    @Test
+    void joinsWordsHyphenatedAcrossLineBreaks() {
+        assertThat(normalizer().normalize("a configu-\nração de segu-\r\n  rança e o pré-aviso"))
+                .isEqualTo("a configuração de segurança e o pré-aviso");
+        assertThat(normalizer().normalize("Modelo X-\nPro")).isEqualTo("Modelo X- Pro");
+    }
+
+    @Test
+    void stripsRepeatedHeadersAndFootersOnceSeenOnEnoughPages() {
+        TextNormalizer normalizer = normalizer();
+        String[] bodies = {"Ligar o motor.", "Desligar o alarme.", "Trocar o filtro.", "Verificar os pneus.", "Fim."};
+        String[] results = new String[bodies.length];
+        for (int p = 0; p < bodies.length; p++) {
+            results[p] = normalizer.normalize("Manual do Utilizador - Capítulo 2\n" + bodies[p] + "\nPágina " + (p + 1) + " de 5\n");
+        }
+
+        assertThat(results[0]).isEqualTo("Manual do Utilizador - Capítulo 2 Ligar o motor. Página 1 de 5");
+        assertThat(results[1]).startsWith("Manual do Utilizador");
+        assertThat(results[2]).isEqualTo("Trocar o filtro.");
+        assertThat(results[4]).isEqualTo("Fim.");
+    }
+
+    @Test
+    void rulesCanBeDisabled() {
+        RagProperties.NormalizationRules rules = new RagProperties.NormalizationRules();
+        rules.setRemoveDotLeaders(false);
+        rules.setDehyphenate(false);
+        rules.setStripRepeatedLines(false);
+        rules.setRemoveTrailingPageNumber(false);
+        TextNormalizer normalizer = new TextNormalizer(rules);
+
+        for (int p = 0; p < 4; p++) {
+            assertThat(normalizer.normalize("Header\nsegu-\nrança ..... fim. 7\nFooter"))
+                    .isEqualTo("Header segu- rança ..... fim. 7 Footer");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.hseabra.demo_rag;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TopicClassifierTests {
+    private final ChatModel chat = mock(ChatModel.class);
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+    private TopicClassifier classifier;
+
+    @BeforeEach
+    void setUp() {
+        // one axis per keyword
+        when(embeddingModel.embed(anyList())).thenAnswer(call -> ((List<?>) call.getArgument(0)).stream()
+                .map(text -> {
+                    String lower = text.toString().toLowerCase();
+                    return new float[]{lower.contains("bitcoin") ? 1 : 0, lower.contains("ethereum") ? 1 : 0, 0.1f};
+                })
+                .toList());
+        ElasticConfig.VectorStoreFactory factory = mock(ElasticConfig.VectorStoreFactory.class);
+        when(factory.getEmbeddingModel()).thenReturn(embeddingModel);
+        RagProperties properties = new RagProperties();
+        properties.getTopics().setLabels(Map.of(
+                "bitcoin", List.of("Bitcoin mining"),
+                "ethereum", List.of("Ethereum smart contracts")));
+        classifier = new TopicClassifier(chat, factory, properties);
+    }
+
+    @Test
+    void picksClosestCentroidWithoutChatModelAndCaches() {
+        List<Document> chunks = List.of(new Document("Bitcoin blocks"), new Document("more on bitcoin"));
+
+        assertThat(classifier.detectTopic(chunks)).isEqualTo("bitcoin");
+        assertThat(classifier.detectTopic(chunks)).isEqualTo("bitcoin");
+
+        verify(chat, never()).call(anyString());
+        // centroids once, the document once
+        verify(embeddingModel, times(3)).embed(anyList());
+    }
+
+    @Test
+    void asksChatModelWhenUnclearAndMapsAnswerOntoTopics() {
+        when(chat.call(anyString())).thenReturn(" Ethereum.\n");
+
+        assertThat(classifier.detectTopic(List.of(new Document("Bitcoin and Ethereum compared")))).isEqualTo("ethereum");
+
+        when(chat.call(anyString())).thenReturn("Dogecoin");
+        assertThat(classifier.detectTopic(List.of(new Document("Cooking recipes")))).isEqualTo(TopicClassifier.OTHER);
+    }
+}
@@ -0,0 +1,187 @@
+package com.hseabra.demo_rag;
+
+import co.elastic.clients.elasticsearch._types.mapping.DenseVectorIndexOptionsType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.elasticsearch.autoconfigure.ElasticsearchVectorStoreProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs the schema initializer and kNN search against a stand-in for Elasticsearch that records the
+ * requests it receives and answers with canned responses.
+ */
+class VectorIndexInitializerTests {
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final List<Recorded> requests = new CopyOnWriteArrayList<>();
+    private final Map<String, String> existing = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private RestClient restClient;
+    private ElasticConfig.VectorStoreFactory factory;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        restClient = RestClient.builder(new HttpHost("localhost", server.getAddress().getPort())).build();
+
+        RagProperties ragProperties = bind(Map.of(
+                "rag.vector-mapping.defaults.index-type", "int4_hnsw",
+                "rag.vector-mapping.defaults.m", "32",
+                "rag.vector-mapping.defaults.ef-construction", "200",
+                "rag.vector-mapping.defaults.num-candidates-factor", "4",
+                "rag.vector-mapping.defaults.oversample", "2.5"));
+        ElasticsearchVectorStoreProperties properties = new ElasticsearchVectorStoreProperties();
+        properties.setDimensions(1536);
+        properties.setInitializeSchema(true);
+        factory = new ElasticConfig.VectorStoreFactory(restClient, mock(EmbeddingModel.class), properties,
+                ragProperties.getVectorStore(), ragProperties.getVectorMapping());
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        restClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    void createsIndexWithMappingProfileOnce() throws Exception {
+        assertThat(factory.getMappingProfile("manuals").getIndexType()).isEqualTo(DenseVectorIndexOptionsType.Int4Hnsw);
+
+        factory.getVectorStore("manuals");
+
+        Recorded create = single("PUT", "/manuals");
+        JsonNode embedding = create.body.at("/mappings/properties/" + factory.getEmbeddingFieldName());
+        assertThat(embedding.path("type").asText()).isEqualTo("dense_vector");
+        assertThat(embedding.path("dims").asInt()).isEqualTo(1536);
+        assertThat(embedding.path("similarity").asText()).isEqualTo("cosine");
+        assertThat(embedding.at("/index_options/type").asText()).isEqualTo("int4_hnsw");
+        assertThat(embedding.at("/index_options/m").asInt()).isEqualTo(32);
+        assertThat(embedding.at("/index_options/ef_construction").asInt()).isEqualTo(200);
+        assertThat(create.body.at("/mappings/properties/content/type").asText()).isEqualTo("text");
+
+        existing.put("manuals", "manuals");
+        new VectorIndexInitializer(factory.getElasticsearchClient(), factory.getEmbeddingFieldName(), 1536,
+                factory.getSimilarity()).ensureIndex("manuals", factory.getMappingProfile("manuals"));
+        assertThat(requests).filteredOn(r -> r.method.equals("PUT")).hasSize(1);
+    }
+
+    @Test
+    void searchAppliesCandidatesAndRescoring() {
+        VectorSearchService search = new VectorSearchService(factory, new DownstreamLimiters(new RagProperties()),
+                new RagMetrics(ObservationRegistry.NOOP, new SimpleMeterRegistry()));
+
+        search.search("manuals", new float[1536], 3, 0.6);
+
+        // the client sends knn as a list of searches
+        JsonNode knn = single("POST", "/manuals/_search").body.path("knn").path(0);
+        assertThat(knn.path("k").asInt()).isEqualTo(3);
+        assertThat(knn.path("num_candidates").asInt()).isEqualTo(12);
+        assertThat(knn.at("/rescore_vector/oversample").floatValue()).isEqualTo(2.5f);
+    }
+
+    @Test
+    void migratesByReindexingAndSwappingAlias() throws Exception {
+        existing.put("manuals", "manuals");
+
+        VectorIndexInitializer.Migration migration = factory.migrateIndex("manuals");
+
+        assertThat(migration.sourceIndices()).containsExactly("manuals");
+        assertThat(migration.targetIndex()).startsWith("manuals-int4_hnsw-");
+        assertThat(migration.documents()).isEqualTo(42);
+        assertThat(single("PUT", "/" + migration.targetIndex()).body.at("/mappings/properties/embedding/index_options/type").asText())
+                .isEqualTo("int4_hnsw");
+        JsonNode reindex = single("POST", "/_reindex").body;
+        assertThat(reindex.at("/source/index").toString()).contains("\"manuals\"");
+        assertThat(reindex.at("/dest/index").asText()).isEqualTo(migration.targetIndex());
+        JsonNode actions = single("POST", "/_aliases").body.path("actions");
+        assertThat(actions.get(0).at("/add/index").asText()).isEqualTo(migration.targetIndex());
+        assertThat(actions.get(0).at("/add/alias").asText()).isEqualTo("manuals");
+        assertThat(actions.get(1).at("/remove_index/index").asText()).isEqualTo("manuals");
+    }
+
+    private Recorded single(String method, String path) {
+        List<Recorded> matching = requests.stream().filter(r -> r.method.equals(method) && r.path.equals(path)).toList();
+        assertThat(matching).as("%s %s in %s", method, path, requests).hasSize(1);
+        return matching.get(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        byte[] raw = exchange.getRequestBody().readAllBytes();
+        requests.add(new Recorded(method, path, raw.length == 0 ? JSON.nullNode() : JSON.readTree(raw)));
+
+        String index = path.substring(1).split("/")[0];
+        int status = 200;
+        String body;
+        if (method.equals("HEAD")) {
+            status = existing.containsKey(index) ? 200 : 404;
+            body = null;
+        } else if (method.equals("DELETE")) {
+            existing.remove(index);
+            body = "{\"acknowledged\":true}";
+        } else if (method.equals("PUT")) {
+            existing.put(index, index);
+            body = "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"" + index + "\"}";
+        } else if (path.endsWith("/_search")) {
+            body = "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},"
+                    + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"hits\":[]}}";
+        } else if (path.equals("/_reindex")) {
+            body = "{\"task\":\"node-1:7\"}";
+        } else if (path.startsWith("/_tasks/")) {
+            body = "{\"completed\":true,\"task\":{\"node\":\"node-1\",\"id\":7,\"type\":\"transport\","
+                    + "\"action\":\"indices:data/write/reindex\",\"start_time_in_millis\":0,\"running_time_in_nanos\":1,"
+                    + "\"cancellable\":true,\"headers\":{}},\"response\":{\"created\":42,\"failures\":[]}}";
+        } else if (path.equals("/_aliases")) {
+            body = "{\"acknowledged\":true}";
+        } else if (method.equals("GET") && existing.containsKey(index)) {
+            body = "{\"" + index + "\":{\"aliases\":{}}}";
+        } else {
+            status = 404;
+            body = "{\"error\":{\"type\":\"index_not_found_exception\",\"reason\":\"no such index\"},\"status\":404}";
+        }
+
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+        exchange.close();
+    }
+
+    private static RagProperties bind(Map<String, String> properties) {
+        return new Binder(new MapConfigurationPropertySource(properties))
+                .bind("rag", RagProperties.class).orElseGet(RagProperties::new);
+    }
+
+    private record Recorded(String method, String path, JsonNode body) {
+    }
+}
@@ -0,0 +1,96 @@
+package com.hseabra.demo_rag;
+
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VectorWriteBatcherTests {
+
+    @Test
+    void requeuesAThrottledBatchAfterABackoffInsteadOfSplittingIt() throws Exception {
+        RagProperties properties = new RagProperties();
+        Duration backoff = Duration.ofMillis(300);
+        properties.getBatching().setRetryBackoff(backoff);
+        // long enough for both submissions to be merged into one batch
+        properties.getBatching().setLinger(Duration.ofMillis(500));
+        HttpResponse tooManyRequests = mock(HttpResponse.class);
+        when(tooManyRequests.getStatusCode()).thenReturn(429);
+
+        List<Long> adds = new ArrayList<>();
+        VectorStore store = mock(VectorStore.class);
+        doAnswer(call -> {
+            synchronized (adds) {
+                adds.add(System.nanoTime());
+                if (adds.size() == 1) {
+                    throw new HttpResponseException("Too Many Requests", tooManyRequests);
+                }
+            }
+            return null;
+        }).when(store).add(anyList());
+        VectorWriteBatcher batcher = new VectorWriteBatcher(factory(store), new DownstreamLimiters(properties), properties,
+                new RagMetrics(ObservationRegistry.NOOP, new SimpleMeterRegistry()));
+        batcher.start();
+        try {
+            CompletableFuture<Void> first = batcher.submit("manuals", List.of(new Document("Press SAFE.")));
+            CompletableFuture<Void> second = batcher.submit("manuals", List.of(new Document("Hold it.")));
+            CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+        } finally {
+            batcher.stop();
+        }
+
+        // the merged batch was not retried submission by submission against the throttled service
+        assertThat(adds).hasSizeBetween(2, 3);
+        assertThat(adds.get(1) - adds.get(0)).isGreaterThanOrEqualTo(backoff.toNanos());
+    }
+
+    @Test
+    void treatsOnlyDocumentRejectionsAsDocumentFailures() {
+        HttpResponse badRequest = mock(HttpResponse.class);
+        when(badRequest.getStatusCode()).thenReturn(400);
+        HttpResponse tooManyRequests = mock(HttpResponse.class);
+        when(tooManyRequests.getStatusCode()).thenReturn(429);
+
+        assertThat(VectorWriteBatcher.isDocumentFailure(new HttpResponseException("Bad Request", badRequest))).isTrue();
+        assertThat(VectorWriteBatcher.isDocumentFailure(new IllegalStateException("mapper_parsing_exception"))).isTrue();
+        assertThat(VectorWriteBatcher.isDocumentFailure(
+                new RuntimeException(new HttpResponseException("Too Many Requests", tooManyRequests)))).isFalse();
+        assertThat(VectorWriteBatcher.isDocumentFailure(new UncheckedIOException(new IOException("reset")))).isFalse();
+    }
+
+    private static ElasticConfig.VectorStoreFactory factory(VectorStore store) {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyList())).thenAnswer(call -> ((List<?>) call.getArgument(0)).stream()
+                .map(text -> new float[]{1})
+                .toList());
+        ElasticConfig.VectorStoreFactory factory = mock(ElasticConfig.VectorStoreFactory.class);
+        when(factory.getEmbeddingModel()).thenReturn(embeddingModel);
+        when(factory.getBackend(anyString())).thenReturn(VectorBackend.HNSW);
+        when(factory.getVectorStore(anyString())).thenReturn(store);
+        doAnswer(call -> {
+            call.<Runnable>getArgument(2).run();
+            return null;
+        }).when(factory).withEmbeddings(anyList(), anyList(), any());
+        return factory;
+    }
+}